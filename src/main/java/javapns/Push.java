@@ -4,19 +4,23 @@ import javapns.communication.exceptions.CommunicationException;
 import javapns.communication.exceptions.KeystoreException;
 import javapns.devices.Device;
 import javapns.devices.Devices;
-import javapns.devices.exceptions.InvalidDeviceTokenFormatException;
-import javapns.devices.implementations.basic.BasicDevice;
 import javapns.feedback.AppleFeedbackServer;
 import javapns.feedback.AppleFeedbackServerBasicImpl;
+import javapns.feedback.FeedbackBatch;
+import javapns.feedback.FeedbackListener;
 import javapns.feedback.FeedbackServiceManager;
 import javapns.notification.*;
+import javapns.notification.exceptions.PayloadMaxSizeExceededException;
+import javapns.notification.transmission.BroadcastCheckpoint;
 import javapns.notification.transmission.NotificationThread;
 import javapns.notification.transmission.NotificationThreads;
 import javapns.notification.transmission.PushQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -36,6 +40,7 @@ import java.util.List;
 public class Push {
 
   private static final Logger logger = LoggerFactory.getLogger(Push.class);
+  private static final long CHECKPOINT_INTERVAL = 10 * 1000;
 
   private Push() {
     // empty
@@ -48,7 +53,7 @@ public class Push {
    * @param keystore   a keystore containing your private key and the certificate signed by Apple ({@link java.io.File}, {@link java.io.InputStream}, byte[], {@link java.security.KeyStore} or {@link java.lang.String} for a file path)
    * @param password   the keystore's password.
    * @param production true to use Apple's production servers, false to use the sandbox servers.
-   * @param devices    a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}
+   * @param devices    a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}, or an {@link java.util.Iterator}, {@link java.util.stream.Stream} or {@link java.util.Spliterator} of tokens or devices consumed lazily
    * @return a list of pushed notifications, each with details on transmission results and error (if any)
    * @throws KeystoreException      thrown if an error occurs when loading the keystore
    * @throws CommunicationException thrown if an unrecoverable error occurs while trying to communicate with Apple servers
@@ -64,7 +69,7 @@ public class Push {
    * @param keystore   a keystore containing your private key and the certificate signed by Apple ({@link java.io.File}, {@link java.io.InputStream}, byte[], {@link java.security.KeyStore} or {@link java.lang.String} for a file path)
    * @param password   the keystore's password.
    * @param production true to use Apple's production servers, false to use the sandbox servers.
-   * @param devices    a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}
+   * @param devices    a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}, or an {@link java.util.Iterator}, {@link java.util.stream.Stream} or {@link java.util.Spliterator} of tokens or devices consumed lazily
    * @return a list of pushed notifications, each with details on transmission results and error (if any)
    * @throws KeystoreException      thrown if an error occurs when loading the keystore
    * @throws CommunicationException thrown if an unrecoverable error occurs while trying to communicate with Apple servers
@@ -80,7 +85,7 @@ public class Push {
    * @param keystore   a keystore containing your private key and the certificate signed by Apple ({@link java.io.File}, {@link java.io.InputStream}, byte[], {@link java.security.KeyStore} or {@link java.lang.String} for a file path)
    * @param password   the keystore's password.
    * @param production true to use Apple's production servers, false to use the sandbox servers.
-   * @param devices    a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}
+   * @param devices    a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}, or an {@link java.util.Iterator}, {@link java.util.stream.Stream} or {@link java.util.Spliterator} of tokens or devices consumed lazily
    * @return a list of pushed notifications, each with details on transmission results and error (if any)
    * @throws KeystoreException      thrown if an error occurs when loading the keystore
    * @throws CommunicationException thrown if an unrecoverable error occurs while trying to communicate with Apple servers
@@ -98,7 +103,7 @@ public class Push {
    * @param keystore   a keystore containing your private key and the certificate signed by Apple ({@link java.io.File}, {@link java.io.InputStream}, byte[], {@link java.security.KeyStore} or {@link java.lang.String} for a file path)
    * @param password   the keystore's password.
    * @param production true to use Apple's production servers, false to use the sandbox servers.
-   * @param devices    a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}
+   * @param devices    a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}, or an {@link java.util.Iterator}, {@link java.util.stream.Stream} or {@link java.util.Spliterator} of tokens or devices consumed lazily
    * @return a list of pushed notifications, each with details on transmission results and error (if any)
    * @throws KeystoreException      thrown if an error occurs when loading the keystore
    * @throws CommunicationException thrown if an unrecoverable error occurs while trying to communicate with Apple servers
@@ -113,7 +118,7 @@ public class Push {
    * @param keystore   a keystore containing your private key and the certificate signed by Apple ({@link java.io.File}, {@link java.io.InputStream}, byte[], {@link java.security.KeyStore} or {@link java.lang.String} for a file path)
    * @param password   the keystore's password.
    * @param production true to use Apple's production servers, false to use the sandbox servers.
-   * @param devices    a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}
+   * @param devices    a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}, or an {@link java.util.Iterator}, {@link java.util.stream.Stream} or {@link java.util.Spliterator} of tokens or devices consumed lazily
    * @return a list of pushed notifications, each with details on transmission results and error (if any)
    * @throws KeystoreException      thrown if an error occurs when loading the keystore
    * @throws CommunicationException thrown if an unrecoverable error occurs while trying to communicate with Apple servers
@@ -128,7 +133,7 @@ public class Push {
    * @param keystore   a keystore containing your private key and the certificate signed by Apple ({@link java.io.File}, {@link java.io.InputStream}, byte[], {@link java.security.KeyStore} or {@link java.lang.String} for a file path)
    * @param password   the keystore's password.
    * @param production true to use Apple's production servers, false to use the sandbox servers.
-   * @param devices    a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}
+   * @param devices    a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}, or an {@link java.util.Iterator}, {@link java.util.stream.Stream} or {@link java.util.Spliterator} of tokens or devices consumed lazily
    * @return a list of pushed notifications, each with details on transmission results and error (if any)
    * @throws KeystoreException      thrown if an error occurs when loading the keystore
    * @throws CommunicationException thrown if an unrecoverable error occurs while trying to communicate with Apple servers
@@ -144,7 +149,7 @@ public class Push {
    * @param keystore   a keystore containing your private key and the certificate signed by Apple ({@link java.io.File}, {@link java.io.InputStream}, byte[], {@link java.security.KeyStore} or {@link java.lang.String} for a file path)
    * @param password   the keystore's password.
    * @param production true to use Apple's production servers, false to use the sandbox servers.
-   * @param devices    a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}
+   * @param devices    a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}, or an {@link java.util.Iterator}, {@link java.util.stream.Stream} or {@link java.util.Spliterator} of tokens or devices consumed lazily
    * @return a list of pushed notifications, each with details on transmission results and error (if any)
    * @throws KeystoreException      thrown if an error occurs when loading the keystore
    * @throws CommunicationException thrown if an unrecoverable error occurs while trying to communicate with Apple servers
@@ -160,29 +165,58 @@ public class Push {
    * @param keystore   a keystore containing your private key and the certificate signed by Apple ({@link java.io.File}, {@link java.io.InputStream}, byte[], {@link java.security.KeyStore} or {@link java.lang.String} for a file path)
    * @param password   the keystore's password.
    * @param production true to use Apple's production servers, false to use the sandbox servers.
-   * @param devices    a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}
+   * @param devices    a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}, or an {@link java.util.Iterator}, {@link java.util.stream.Stream} or {@link java.util.Spliterator} of tokens or devices consumed lazily
    * @return a list of pushed notifications, each with details on transmission results and error (if any)
    * @throws KeystoreException      thrown if an error occurs when loading the keystore
    * @throws CommunicationException thrown if an unrecoverable error occurs while trying to communicate with Apple servers
    */
   private static PushedNotifications sendPayload(final Payload payload, final Object keystore, final String password, final boolean production, final Object devices) throws CommunicationException, KeystoreException {
+    return sendPayload(payload, keystore, password, production, devices, null);
+  }
+
+  /**
+   * Push a preformatted payload to a list of devices, reporting outcomes to a listener if one is provided.
+   *
+   * @param payload         a simple or complex payload to push.
+   * @param keystore        a keystore containing your private key and the certificate signed by Apple ({@link java.io.File}, {@link java.io.InputStream}, byte[], {@link java.security.KeyStore} or {@link java.lang.String} for a file path)
+   * @param password        the keystore's password.
+   * @param production      true to use Apple's production servers, false to use the sandbox servers.
+   * @param devices         a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}, or an {@link java.util.Iterator}, {@link java.util.stream.Stream} or {@link java.util.Spliterator} of tokens or devices consumed lazily
+   * @param outcomeListener a listener to which outcomes are reported instead of being retained, or null to retain them
+   * @return a list of pushed notifications, each with details on transmission results and error (if any), or an empty list if a listener is provided
+   * @throws KeystoreException      thrown if an error occurs when loading the keystore
+   * @throws CommunicationException thrown if an unrecoverable error occurs while trying to communicate with Apple servers
+   */
+  private static PushedNotifications sendPayload(final Payload payload, final Object keystore, final String password, final boolean production, final Object devices, final NotificationOutcomeListener outcomeListener) throws CommunicationException, KeystoreException {
     final PushedNotifications notifications = new PushedNotifications();
     if (payload == null) {
       return notifications;
     }
+    final boolean retain = outcomeListener == null;
+    final Payload sharedPayload = frozen(payload);
     final PushNotificationManager pushManager = new PushNotificationManager();
+    pushManager.setOutcomeListener(outcomeListener);
     try {
       final AppleNotificationServer server = new AppleNotificationServerBasicImpl(keystore, password, production);
       pushManager.initializeConnection(server);
-      final List<Device> deviceList = Devices.asDevices(devices);
-      notifications.setMaxRetained(deviceList.size());
-      for (final Device device : deviceList) {
-        try {
-          BasicDevice.validateTokenFormat(device.getToken());
-          final PushedNotification notification = pushManager.sendNotification(device, payload, false);
+      final List<Device> deviceList = Devices.isStreamed(devices) ? null : Devices.asDevices(devices);
+      if (retain && deviceList != null) {
+        notifications.setMaxRetained(deviceList.size());
+      }
+      final Iterator<Device> iterator = deviceList != null ? deviceList.iterator() : Devices.asDeviceIterator(devices);
+      int pushed = 0;
+      int capacity = 0;
+      while (iterator.hasNext()) {
+        final Device device = iterator.next();
+        if (retain && deviceList == null && ++pushed > capacity) {
+          /* Streamed devices are not counted up front, so grow the list as they come rather than evicting any result */
+          capacity = Math.max(pushed, capacity * 2);
+          notifications.setMaxRetained(capacity);
+        }
+        /* The manager validates the token, and reports a notification to an invalid token as failed without sending it */
+        final PushedNotification notification = pushManager.sendNotification(device, sharedPayload, false);
+        if (retain) {
           notifications.add(notification);
-        } catch (final InvalidDeviceTokenFormatException e) {
-          notifications.add(new PushedNotification(device, payload, e));
         }
       }
     } finally {
@@ -203,7 +237,7 @@ public class Push {
    * @param password        the keystore's password.
    * @param production      true to use Apple's production servers, false to use the sandbox servers.
    * @param numberOfThreads the number of parallel threads to use to push the notifications
-   * @param devices         a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}
+   * @param devices         a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}, or an {@link java.util.Iterator}, {@link java.util.stream.Stream} or {@link java.util.Spliterator} of tokens or devices consumed lazily
    * @return a list of pushed notifications, each with details on transmission results and error (if any)
    * @throws Exception thrown if any critical exception occurs
    */
@@ -212,18 +246,121 @@ public class Push {
       return sendPayload(payload, keystore, password, production, devices);
     }
 
+    final AppleNotificationServer server = new AppleNotificationServerBasicImpl(keystore, password, production);
+    final NotificationThreads threads = newThreads(server, payload, devices, numberOfThreads);
+    threads.start();
+
+    try {
+      threads.waitForAllThreads(true);
+    } catch (final InterruptedException e) {
+      logger.error(e.getMessage(), e);
+    }
+
+    final PushedNotifications notifications = copyPushedNotifications(threads);
+    threads.destroy();
+    return notifications;
+  }
+
+  /**
+   * Push a preformatted payload to a list of devices using multiple simulatenous threads (and connections),
+   * streaming the outcome of each notification to a listener instead of retaining it.
+   * <p>
+   * Since no PushedNotification object is kept once its outcome is reported, memory usage does not grow
+   * with the number of devices, which makes this method suitable for very large broadcasts.
+   *
+   * @param payload         a simple or complex payload to push.
+   * @param keystore        a keystore containing your private key and the certificate signed by Apple ({@link java.io.File}, {@link java.io.InputStream}, byte[], {@link java.security.KeyStore} or {@link java.lang.String} for a file path)
+   * @param password        the keystore's password.
+   * @param production      true to use Apple's production servers, false to use the sandbox servers.
+   * @param numberOfThreads the number of parallel threads to use to push the notifications
+   * @param devices         a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}, or an {@link java.util.Iterator}, {@link java.util.stream.Stream} or {@link java.util.Spliterator} of tokens or devices consumed lazily
+   * @param outcomeListener a listener notified of the final outcome of each notification
+   * @throws Exception thrown if any critical exception occurs
+   */
+  public static void payload(final Payload payload, final Object keystore, final String password, final boolean production, final int numberOfThreads, final Object devices, final NotificationOutcomeListener outcomeListener) throws Exception {
+    if (numberOfThreads <= 0) {
+      sendPayload(payload, keystore, password, production, devices, outcomeListener);
+      return;
+    }
+
+    final AppleNotificationServer server = new AppleNotificationServerBasicImpl(keystore, password, production);
+    final NotificationThreads threads = newThreads(server, payload, devices, numberOfThreads);
+    threads.setOutcomeListener(outcomeListener);
+    threads.setRetainPushedNotifications(false);
+    threads.start();
+
+    try {
+      threads.waitForAllThreads(true);
+    } catch (final InterruptedException e) {
+      logger.error(e.getMessage(), e);
+    }
+    threads.destroy();
+  }
+
+  /**
+   * Create threads sharing a list of devices, or pulling devices from a source if devices are given as an Iterator, a Stream, a Spliterator or an Iterable.
+   */
+  private static NotificationThreads newThreads(final AppleNotificationServer server, final Payload payload, final Object devices, final int numberOfThreads) {
+    if (Devices.isStreamed(devices)) {
+      return new NotificationThreads(server, frozen(payload), Devices.asDeviceIterator(devices), numberOfThreads);
+    }
+    return new NotificationThreads(server, frozen(payload), Devices.asDevices(devices), numberOfThreads);
+  }
+
+  /**
+   * Freeze a payload pushed to many devices, so that it is serialized once and safely shared by all threads.
+   * Test payloads and payloads too large to be sent are left as they are, so that they are handled per notification as usual.
+   * Pushed notifications still report the payload given by the caller.
+   */
+  private static Payload frozen(final Payload payload) {
+    if (payload == null) {
+      return null;
+    }
+    try {
+      return payload.freeze();
+    } catch (final PayloadMaxSizeExceededException | IllegalStateException e) {
+      return payload;
+    }
+  }
+
+  /**
+   * Push a preformatted payload to a list of devices using multiple simulatenous threads (and connections),
+   * saving progress to a checkpoint file so that an interrupted broadcast can be resumed.
+   * <p>
+   * If the checkpoint file exists, the broadcast resumes where the previous run stopped:  devices whose notification
+   * was already confirmed are not pushed again.  The same devices and number of threads must then be given.
+   * Once all threads are finished without any critical exception, the checkpoint file is deleted.
+   *
+   * @param payload         a simple or complex payload to push.
+   * @param keystore        a keystore containing your private key and the certificate signed by Apple ({@link java.io.File}, {@link java.io.InputStream}, byte[], {@link java.security.KeyStore} or {@link java.lang.String} for a file path)
+   * @param password        the keystore's password.
+   * @param production      true to use Apple's production servers, false to use the sandbox servers.
+   * @param numberOfThreads the number of parallel threads to use to push the notifications
+   * @param devices         a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List} {@link java.lang.String},  {@link javapns.devices.Device Device[]}, {@link java.util.List} {@link javapns.devices.Device},  {@link java.lang.String} or {@link javapns.devices.Device}
+   * @param checkpointFile  the file to save progress to (and to resume from, if it exists)
+   * @return a list of notifications pushed by this run, each with details on transmission results and error (if any)
+   * @throws Exception thrown if any critical exception occurs
+   */
+  public static PushedNotifications payload(final Payload payload, final Object keystore, final String password, final boolean production, final int numberOfThreads, final Object devices, final File checkpointFile) throws Exception {
     final AppleNotificationServer server = new AppleNotificationServerBasicImpl(keystore, password, production);
     final List<Device> deviceList = Devices.asDevices(devices);
-    final NotificationThreads threads = new NotificationThreads(server, payload, deviceList, numberOfThreads);
+    final NotificationThreads threads = new NotificationThreads(server, payload, deviceList, Math.max(numberOfThreads, 1));
+    threads.setCheckpointFile(checkpointFile, CHECKPOINT_INTERVAL);
+    if (checkpointFile.exists()) {
+      threads.resume(BroadcastCheckpoint.read(checkpointFile));
+    }
     threads.start();
 
     try {
       threads.waitForAllThreads(true);
+      if (!checkpointFile.delete()) {
+        logger.warn("Cannot delete checkpoint file {}", checkpointFile);
+      }
     } catch (final InterruptedException e) {
       logger.error(e.getMessage(), e);
     }
 
-    final PushedNotifications notifications = threads.getPushedNotifications();
+    final PushedNotifications notifications = copyPushedNotifications(threads);
     threads.destroy();
     return notifications;
   }
@@ -288,7 +425,7 @@ public class Push {
       logger.error(e.getMessage(), e);
     }
 
-    final PushedNotifications notifications = threads.getPushedNotifications();
+    final PushedNotifications notifications = copyPushedNotifications(threads);
     threads.destroy();
     return notifications;
   }
@@ -369,4 +506,56 @@ public class Push {
     final AppleFeedbackServer server = new AppleFeedbackServerBasicImpl(keystore, password, production);
     return new ArrayList<>(feedbackManager.getDevices(server));
   }
+
+  /**
+   * <p>Retrieve all inactive devices reported by the Feedback Service as a compact batch of binary tokens and times.</p>
+   *
+   * <p>A batch takes a few dozen bytes per device and can be sorted, deduplicated and exported in bulk, which suits large feedback backlogs.</p>
+   *
+   * @param keystore   a keystore containing your private key and the certificate signed by Apple ({@link java.io.File}, {@link java.io.InputStream}, byte[], {@link java.security.KeyStore} or {@link java.lang.String} for a file path)
+   * @param password   the keystore's password.
+   * @param production true to use Apple's production servers, false to use the sandbox servers.
+   * @return a batch of inactive devices.
+   * @throws KeystoreException      thrown if an error occurs when loading the keystore
+   * @throws CommunicationException thrown if an unrecoverable error occurs while trying to communicate with Apple servers
+   */
+  public static FeedbackBatch feedbackBatch(final Object keystore, final String password, final boolean production) throws CommunicationException, KeystoreException {
+    final FeedbackServiceManager feedbackManager = new FeedbackServiceManager();
+    final AppleFeedbackServer server = new AppleFeedbackServerBasicImpl(keystore, password, production);
+    return feedbackManager.getBatch(server);
+  }
+
+  /**
+   * <p>Stream all inactive devices reported by the Feedback Service to a listener, as they are read.</p>
+   *
+   * <p>Use this instead of {@link #feedback(Object, String, boolean)} when the Feedback Service may report a large number of devices,
+   * for example after an outage: devices are handed to the listener one at a time, in constant memory.</p>
+   *
+   * @param keystore   a keystore containing your private key and the certificate signed by Apple ({@link java.io.File}, {@link java.io.InputStream}, byte[], {@link java.security.KeyStore} or {@link java.lang.String} for a file path)
+   * @param password   the keystore's password.
+   * @param production true to use Apple's production servers, false to use the sandbox servers.
+   * @param listener   receives each inactive device
+   * @return the number of inactive devices
+   * @throws KeystoreException      thrown if an error occurs when loading the keystore
+   * @throws CommunicationException thrown if an unrecoverable error occurs while trying to communicate with Apple servers
+   */
+  public static long feedback(final Object keystore, final String password, final boolean production, final FeedbackListener listener) throws CommunicationException, KeystoreException {
+    final FeedbackServiceManager feedbackManager = new FeedbackServiceManager();
+    final AppleFeedbackServer server = new AppleFeedbackServerBasicImpl(keystore, password, production);
+    return feedbackManager.processDevices(server, listener);
+  }
+
+  /**
+   * Copy the notifications pushed by threads into a list which callers are free to modify, as they could before threads returned views.
+   *
+   * @param threads threads that finished pushing
+   * @return a new list holding all pushed notifications
+   */
+  private static PushedNotifications copyPushedNotifications(final NotificationThreads threads) {
+    final PushedNotifications view = threads.getPushedNotifications();
+    final PushedNotifications notifications = new PushedNotifications();
+    notifications.setMaxRetained(view.size());
+    notifications.addAll(view);
+    return notifications;
+  }
 }
@@ -33,6 +33,17 @@ public interface AppleServer {
    */
   String getKeystoreType();
 
+  /**
+   * Returns a number which changes whenever the keystore or its password is replaced,
+   * so that connections know when to load them again.
+   * The keystore stream and password are consistent if the generation is the same before and after reading them.
+   *
+   * @return a generation number (always 0 for servers whose keystore cannot be replaced)
+   */
+  default long getKeystoreGeneration() {
+    return 0;
+  }
+
   /**
    * Get the proxy host address currently configured for this specific server.
    * A proxy might still be configured at the library or JVM levels.
@@ -2,19 +2,28 @@ package javapns.communication;
 
 import javapns.communication.exceptions.InvalidKeystoreReferenceException;
 import javapns.communication.exceptions.KeystoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.net.ssl.KeyManagerFactory;
 import java.io.InputStream;
+import java.security.KeyStore;
 
 /**
  * A basic and abstract implementation of the AppleServer interface
  * intended to facilitate rapid deployment.
+ * <p>
+ * <p>The keystore can be replaced at any time with {@link #updateKeystore(Object, String)}, for example when a certificate is renewed.
+ * Connections opened afterwards use the new keystore, while connections already open are not affected.</p>
  *
  * @author Sylvain Pedneault
+ * @see KeystoreWatcher
  */
 public abstract class AppleServerBasicImpl implements AppleServer {
-  private final String password;
+  private static final Logger logger = LoggerFactory.getLogger(AppleServerBasicImpl.class);
+
   private final String type;
-  private Object keystore;
+  private volatile Credentials credentials;
   private String proxyHost;
   private int proxyPort;
 
@@ -28,26 +37,79 @@ public abstract class AppleServerBasicImpl implements AppleServer {
    */
   protected AppleServerBasicImpl(final Object keystore, final String password, final String type) throws KeystoreException {
     KeystoreManager.validateKeystoreParameter(keystore);
-    this.keystore = keystore;
-    this.password = password;
+    this.credentials = new Credentials(keystore, password, 0);
     this.type = type;
 
     /* Make sure that the keystore reference is reusable. */
-    this.keystore = KeystoreManager.ensureReusableKeystore(this, this.keystore);
+    this.credentials = new Credentials(KeystoreManager.ensureReusableKeystore(this, keystore), password, 0);
+  }
+
+  /**
+   * Replace the keystore, for example with a renewed certificate.
+   * <p>
+   * <p>The new keystore is fully loaded and its keys are checked against the password before it replaces the current one,
+   * so an invalid keystore is rejected without affecting the server.  The keystore and its password are replaced at once:
+   * connections opened afterwards use the new keystore, and connections already open keep their certificate until they are closed.</p>
+   *
+   * @param keystore the new keystore (can be a File, an InputStream, a String for a file path, a byte[] array or a KeyStore)
+   * @param password the new keystore's password
+   * @throws KeystoreException thrown if the new keystore cannot be loaded, in which case the current one is kept
+   */
+  public void updateKeystore(final Object keystore, final String password) throws KeystoreException {
+    replaceKeystore(loadCheckedKeystore(keystore, password, type), password);
+  }
+
+  /**
+   * Load a keystore and check its keys against the password, so that it can replace the keystore of any number of servers.
+   *
+   * @param keystore the new keystore (can be a File, an InputStream, a String for a file path, a byte[] array or a KeyStore)
+   * @param password the new keystore's password
+   * @param type     the keystore type (typically PKCS12)
+   * @return a loaded keystore
+   * @throws KeystoreException thrown if the keystore cannot be loaded
+   */
+  static KeyStore loadCheckedKeystore(final Object keystore, final String password, final String type) throws KeystoreException {
+    KeystoreManager.validateKeystoreParameter(keystore);
+    final char[] passwordForSSL = KeystoreManager.getKeystorePasswordForSSL(password);
+    final KeyStore loaded = KeystoreManager.loadKeystore(keystore, type, passwordForSSL);
+    try {
+      KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm()).init(loaded, passwordForSSL);
+    } catch (final Exception e) {
+      throw KeystoreManager.wrapKeystoreException(e);
+    }
+    return loaded;
+  }
+
+  /**
+   * Replace the keystore with one returned by {@link #loadCheckedKeystore(Object, String, String)}.
+   *
+   * @param loaded   a loaded and checked keystore
+   * @param password the keystore's password
+   */
+  void replaceKeystore(final KeyStore loaded, final String password) {
+    synchronized (this) {
+      credentials = new Credentials(loaded, password, credentials.generation + 1);
+    }
+    logger.info("Keystore replaced, new connections will use it");
   }
 
   public InputStream getKeystoreStream() throws InvalidKeystoreReferenceException {
-    return KeystoreManager.streamKeystore(keystore);
+    return KeystoreManager.streamKeystore(credentials.keystore);
   }
 
   public String getKeystorePassword() {
-    return password;
+    return credentials.password;
   }
 
   public String getKeystoreType() {
     return type;
   }
 
+  @Override
+  public long getKeystoreGeneration() {
+    return credentials.generation;
+  }
+
   public String getProxyHost() {
     return proxyHost;
   }
@@ -60,4 +122,19 @@ public abstract class AppleServerBasicImpl implements AppleServer {
     this.proxyHost = proxyHost;
     this.proxyPort = proxyPort;
   }
+
+  /**
+   * A keystore with its password, replaced as a whole.
+   */
+  private static final class Credentials {
+    private final Object keystore;
+    private final String password;
+    private final long generation;
+
+    private Credentials(final Object keystore, final String password, final long generation) {
+      this.keystore = keystore;
+      this.password = password;
+      this.generation = generation;
+    }
+  }
 }
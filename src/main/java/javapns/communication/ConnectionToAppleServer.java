@@ -42,6 +42,8 @@ public abstract class ConnectionToAppleServer {
   private final AppleServer server;
 
   private KeyStore keyStore;
+  private char[] keystorePassword;
+  private long keystoreGeneration;
   private SSLSocketFactory socketFactory;
 
   /**
@@ -52,7 +54,7 @@ public abstract class ConnectionToAppleServer {
    */
   protected ConnectionToAppleServer(AppleServer server) throws KeystoreException {
     this.server = server;
-    this.keyStore = KeystoreManager.loadKeystore(server);
+    loadKeystore();
   }
 
   /**
@@ -64,6 +66,7 @@ public abstract class ConnectionToAppleServer {
   protected ConnectionToAppleServer(AppleServer server, KeyStore keystore) {
     this.server = server;
     this.keyStore = keystore;
+    this.keystoreGeneration = server.getKeystoreGeneration();
   }
 
   private static void debugListener(HandshakeCompletedEvent event) {
@@ -73,6 +76,22 @@ public abstract class ConnectionToAppleServer {
     logger.debug("\t PeerHost {}", event.getSession().getPeerHost());
   }
 
+  /**
+   * Load the keystore of the server with its password, both from the same generation
+   * in case the keystore is being replaced concurrently.
+   *
+   * @throws KeystoreException thrown if an error occurs when loading the keystore
+   */
+  private void loadKeystore() throws KeystoreException {
+    long generation;
+    do {
+      generation = server.getKeystoreGeneration();
+      keyStore = KeystoreManager.loadKeystore(server);
+      keystorePassword = KeystoreManager.getKeystorePasswordForSSL(server);
+    } while (generation != server.getKeystoreGeneration());
+    keystoreGeneration = generation;
+  }
+
   public AppleServer getServer() {
     return server;
   }
@@ -99,7 +118,7 @@ public abstract class ConnectionToAppleServer {
       final KeyStore keystore = getKeystore();
       final KeyManagerFactory kmf = KeyManagerFactory.getInstance(ALGORITHM);
       try {
-        final char[] password = KeystoreManager.getKeystorePasswordForSSL(server);
+        final char[] password = keystorePassword != null ? keystorePassword : KeystoreManager.getKeystorePasswordForSSL(server);
         kmf.init(keystore, password);
       } catch (Exception e) {
         throw KeystoreManager.wrapKeystoreException(e);
@@ -129,6 +148,12 @@ public abstract class ConnectionToAppleServer {
   }
 
   private SSLSocketFactory getSSLSocketFactory() throws KeystoreException {
+    if (keystoreGeneration != server.getKeystoreGeneration()) {
+      /* The keystore was replaced: sockets already open keep the previous one, new sockets use the new one */
+      logger.debug("Keystore replaced, reloading it");
+      loadKeystore();
+      socketFactory = null;
+    }
     if (socketFactory == null) {
       socketFactory = createSSLSocketFactory();
     }
@@ -55,7 +55,20 @@ public class KeystoreManager {
    * @return a loaded keystore
    * @throws KeystoreException
    */
-  private static synchronized KeyStore loadKeystore(final AppleServer server, final Object keystore, final boolean verifyKeystore) throws KeystoreException {
+  private static KeyStore loadKeystore(final AppleServer server, final Object keystore, final boolean verifyKeystore) throws KeystoreException {
+    return loadKeystore(keystore, server.getKeystoreType(), getKeystorePasswordForSSL(server));
+  }
+
+  /**
+   * Loads a keystore with explicit settings, for example before it replaces the keystore of a server.
+   *
+   * @param keystore a keystore containing your private key and the certificate signed by Apple (File, InputStream, byte[], KeyStore or String for a file path)
+   * @param type     the format of the keystore (typically PKCS12)
+   * @param password the keystore's password
+   * @return a loaded keystore
+   * @throws KeystoreException
+   */
+  static synchronized KeyStore loadKeystore(final Object keystore, final String type, final char[] password) throws KeystoreException {
     if (keystore instanceof KeyStore) {
       return (KeyStore) keystore;
     }
@@ -65,8 +78,7 @@ public class KeystoreManager {
         return ((WrappedKeystore) keystoreStream).getKeystore();
       }
 
-      final KeyStore keyStore = KeyStore.getInstance(server.getKeystoreType());
-      final char[] password = KeystoreManager.getKeystorePasswordForSSL(server);
+      final KeyStore keyStore = KeyStore.getInstance(type);
       keyStore.load(keystoreStream, password);
       return keyStore;
     } catch (final Exception e) {
@@ -163,7 +175,10 @@ public class KeystoreManager {
   }
 
   static char[] getKeystorePasswordForSSL(final AppleServer server) {
-    String password = server.getKeystorePassword();
+    return getKeystorePasswordForSSL(server.getKeystorePassword());
+  }
+
+  static char[] getKeystorePasswordForSSL(String password) {
     if (password == null) {
       password = "";
     }
@@ -0,0 +1,198 @@
+package javapns.communication;
+
+import javapns.communication.exceptions.KeystoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches a keystore file and replaces the keystore of servers when the file changes, to renew a certificate without downtime.
+ * <p>
+ * <p>Every interval, the watcher reads the file and, if its content changed, loads it once and replaces the keystore of every
+ * server with it, as {@link AppleServerBasicImpl#updateKeystore(Object, String)} does.  Connections opened afterwards (including those
+ * of running {@link javapns.notification.PushNotificationManager}s and {@link javapns.notification.transmission.NotificationThreads},
+ * which reopen their connections regularly) use the new certificate, while connections already open finish their work with the
+ * previous one, so no queued notification is lost.</p>
+ * <p>
+ * <p>A file which cannot be loaded (for example because it is still being written) is ignored until its content changes again,
+ * and the servers keep their current keystore.  Since the content is compared, replacing the file with a copy of itself does nothing.</p>
+ * <pre>
+ * KeystoreWatcher watcher = new KeystoreWatcher(new File("keystore.p12"), "password", notificationServer, feedbackServer);
+ * watcher.start();
+ * </pre>
+ */
+public class KeystoreWatcher implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(KeystoreWatcher.class);
+
+  private static final long DEFAULT_INTERVAL = 10 * 1000;
+
+  private final File file;
+  private final String password;
+  private final AppleServerBasicImpl[] servers;
+  private long interval = DEFAULT_INTERVAL;
+  private ScheduledExecutorService scheduler;
+  /* The content the servers use, and the last content which could not be loaded; guarded by this */
+  private byte[] content;
+  private byte[] rejected;
+
+  private final AtomicLong reloads = new AtomicLong();
+  private final AtomicLong failedReloads = new AtomicLong();
+
+  /**
+   * Create a watcher, and give the current content of the file to the servers.
+   * From then on, the servers use the keystore read by the watcher instead of reading the file themselves,
+   * so that a file being written never reaches them.
+   *
+   * @param file     a keystore file
+   * @param password the password of the keystore in the file
+   * @param servers  the servers whose keystore is replaced when the file changes
+   * @throws KeystoreException thrown if the file cannot be loaded
+   */
+  public KeystoreWatcher(final File file, final String password, final AppleServerBasicImpl... servers) throws KeystoreException {
+    if (servers.length == 0) {
+      throw new IllegalArgumentException("At least one server must be watched for");
+    }
+    this.file = file;
+    this.password = password;
+    this.servers = servers.clone();
+    final byte[] current = read();
+    if (current == null) {
+      throw new KeystoreException("Cannot read keystore " + file);
+    }
+    replace(load(current));
+    this.content = current;
+  }
+
+  /**
+   * Start watching the file in a background daemon thread.
+   */
+  public synchronized void start() {
+    if (scheduler != null) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "JavaPNS keystore watcher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop watching the file.
+   */
+  @Override
+  public synchronized void close() {
+    if (scheduler != null) {
+      scheduler.shutdown();
+      scheduler = null;
+    }
+  }
+
+  /**
+   * Check the file now, in the calling thread, and replace the keystore of the servers if the file changed.
+   *
+   * @return true if the keystore was replaced
+   */
+  public synchronized boolean check() {
+    final byte[] current = read();
+    if (current == null || Arrays.equals(current, content) || Arrays.equals(current, rejected)) {
+      return false;
+    }
+    final Map<String, KeyStore> loaded;
+    try {
+      loaded = load(current);
+    } catch (final KeystoreException e) {
+      rejected = current;
+      failedReloads.incrementAndGet();
+      logger.warn("Keystore {} changed but cannot be loaded, keeping the current one: {}", file, e.getMessage());
+      return false;
+    }
+    replace(loaded);
+    content = current;
+    rejected = null;
+    reloads.incrementAndGet();
+    logger.info("Keystore {} reloaded", file);
+    return true;
+  }
+
+  /**
+   * Load the content of the file once for each keystore type used by the servers, before any server is changed.
+   */
+  private Map<String, KeyStore> load(final byte[] current) throws KeystoreException {
+    final Map<String, KeyStore> loaded = new HashMap<>();
+    for (final AppleServerBasicImpl server : servers) {
+      final String type = server.getKeystoreType();
+      if (!loaded.containsKey(type)) {
+        loaded.put(type, AppleServerBasicImpl.loadCheckedKeystore(current, password, type));
+      }
+    }
+    return loaded;
+  }
+
+  private void replace(final Map<String, KeyStore> loaded) {
+    for (final AppleServerBasicImpl server : servers) {
+      server.replaceKeystore(loaded.get(server.getKeystoreType()), password);
+    }
+  }
+
+  private byte[] read() {
+    try {
+      return Files.readAllBytes(file.toPath());
+    } catch (final IOException e) {
+      logger.warn("Cannot read keystore {}: {}", file, e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Get the number of milliseconds between checks.
+   *
+   * @return a number of milliseconds
+   */
+  public long getInterval() {
+    return interval;
+  }
+
+  /**
+   * Set the number of milliseconds between checks.  Takes effect when the watcher is started.
+   *
+   * @param interval a number of milliseconds (default is 10 seconds)
+   */
+  public void setInterval(final long interval) {
+    if (interval <= 0) {
+      throw new IllegalArgumentException("Interval must be positive");
+    }
+    this.interval = interval;
+  }
+
+  /**
+   * Get the number of times the keystore was replaced.
+   *
+   * @return a number of reloads
+   */
+  public long getReloads() {
+    return reloads.get();
+  }
+
+  /**
+   * Get the number of times the file changed but could not be loaded.
+   *
+   * @return a number of failed reloads
+   */
+  public long getFailedReloads() {
+    return failedReloads.get();
+  }
+}
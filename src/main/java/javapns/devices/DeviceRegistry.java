@@ -0,0 +1,364 @@
+package javapns.devices;
+
+import javapns.devices.exceptions.DuplicateDeviceException;
+import javapns.devices.exceptions.InvalidDeviceTokenFormatException;
+import javapns.devices.exceptions.NullDeviceTokenException;
+import javapns.devices.exceptions.NullIdException;
+import javapns.devices.exceptions.UnknownDeviceException;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+/**
+ * A thread-safe, in-memory registry of devices, indexed both by device id and by token.
+ * <p>
+ * <p>This replaces {@link javapns.devices.implementations.basic.BasicDeviceFactory}: devices can be registered, looked up and removed
+ * from any number of threads without external locking, and a device can be found from its token in constant time (for example to
+ * handle a token returned by the Feedback Service).  Tokens are kept in binary form, so lookups ignore the case of hexadecimal digits,
+ * and registration times are kept as primitive values.</p>
+ * <p>
+ * <p>Devices returned by the registry are immutable snapshots; use {@link #register(String, String)} to change the token of a device
+ * or refresh its registration time.  A token belongs to a single device: registering a token under a new id (for example after
+ * the user signs in to another account on the same phone) removes the device that held it, so that it is not pushed to twice.
+ * A {@link #snapshot()} of all devices can be given straight to {@link javapns.Push} or
+ * {@link javapns.notification.transmission.NotificationThreads}.</p>
+ * <p>
+ * <p>A registry given a {@link TokenBlocklist} unblocks a token whenever a device registers it, since a device registers again
+ * after the application is reinstalled.</p>
+ */
+@SuppressWarnings("deprecation")
+public class DeviceRegistry implements DeviceFactory {
+  private final ConcurrentMap<String, Entry> devicesById = new ConcurrentHashMap<>();
+  private final ConcurrentMap<TokenKey, String> idsByToken = new ConcurrentHashMap<>();
+  private volatile TokenBlocklist blocklist;
+
+  /**
+   * Add a new device.
+   *
+   * @param id    the device id
+   * @param token the device token in hexadecimal form (spaces are ignored)
+   * @return the new device
+   * @throws NullIdException                   if the id is null or empty
+   * @throws NullDeviceTokenException          if the token is null or empty
+   * @throws InvalidDeviceTokenFormatException if the token is not valid
+   * @throws DuplicateDeviceException          if a device with the same id is already registered
+   */
+  @Override
+  public Device addDevice(final String id, final String token) throws NullIdException, NullDeviceTokenException, InvalidDeviceTokenFormatException, DuplicateDeviceException {
+    final Entry entry = newEntry(id, token);
+    final boolean[] added = {false};
+    final String[] previousOwner = {null};
+    devicesById.computeIfAbsent(id, key -> {
+      previousOwner[0] = idsByToken.put(entry.token, id);
+      added[0] = true;
+      return entry;
+    });
+    if (!added[0]) {
+      throw new DuplicateDeviceException();
+    }
+    removePreviousOwner(previousOwner[0], entry);
+    unblock(entry);
+    return entry;
+  }
+
+  /**
+   * Register a device, adding it if its id is unknown or replacing its token and registration time otherwise.
+   * A device registered with the same token under another id is removed.
+   *
+   * @param id    the device id
+   * @param token the device token in hexadecimal form (spaces are ignored)
+   * @return the registered device
+   * @throws NullIdException                   if the id is null or empty
+   * @throws NullDeviceTokenException          if the token is null or empty
+   * @throws InvalidDeviceTokenFormatException if the token is not valid
+   */
+  public Device register(final String id, final String token) throws NullIdException, NullDeviceTokenException, InvalidDeviceTokenFormatException {
+    final Entry entry = newEntry(id, token);
+    final String[] previousOwner = {null};
+    /* Both indexes are updated while the id is locked, so that concurrent registrations of a device cannot leave a stale token behind */
+    devicesById.compute(id, (key, previous) -> {
+      if (previous != null && !previous.token.equals(entry.token)) {
+        idsByToken.remove(previous.token, id);
+      }
+      previousOwner[0] = idsByToken.put(entry.token, id);
+      return entry;
+    });
+    removePreviousOwner(previousOwner[0], entry);
+    unblock(entry);
+    return entry;
+  }
+
+  /**
+   * Remove the device which held a token before it was registered under another id, unless that device changed its token since.
+   * This happens after the id is unlocked, since a map cannot be updated from within a computation on another of its keys.
+   */
+  private void removePreviousOwner(final String previousOwner, final Entry entry) {
+    if (previousOwner != null && !previousOwner.equals(entry.id)) {
+      devicesById.computeIfPresent(previousOwner, (key, current) -> current.token.equals(entry.token) ? null : current);
+    }
+  }
+
+  private void unblock(final Entry entry) {
+    final TokenBlocklist blocklist = this.blocklist;
+    if (blocklist != null) {
+      blocklist.remove(entry.getToken());
+    }
+  }
+
+  /**
+   * Get a device from its id.
+   *
+   * @param id the device id
+   * @return the device
+   * @throws UnknownDeviceException if no device has this id
+   * @throws NullIdException        if the id is null or empty
+   */
+  @Override
+  public Device getDevice(final String id) throws UnknownDeviceException, NullIdException {
+    checkId(id);
+    final Entry entry = devicesById.get(id);
+    if (entry == null) {
+      throw new UnknownDeviceException();
+    }
+    return entry;
+  }
+
+  /**
+   * Find the device registered with a token.
+   *
+   * @param token a device token in hexadecimal form, in any case
+   * @return the device, or null if no device is registered with this token
+   */
+  public Device findByToken(final String token) {
+    final TokenKey key;
+    try {
+      key = new TokenKey(DeviceTokens.toBinary(token));
+    } catch (final InvalidDeviceTokenFormatException e) {
+      return null;
+    }
+    final String id = idsByToken.get(key);
+    if (id == null) {
+      return null;
+    }
+    /* The token may have been moved to another device between the two lookups */
+    final Entry entry = devicesById.get(id);
+    return entry != null && entry.token.equals(key) ? entry : null;
+  }
+
+  /**
+   * Indicates if a device registered a token after a given time, for example after the Feedback Service reported it.
+   *
+   * @param token a device token in hexadecimal form, in any case
+   * @param time  a time in milliseconds
+   * @return true if a device is registered with this token and registered it after the time
+   */
+  public boolean isRegisteredSince(final String token, final long time) {
+    final Entry entry = (Entry) findByToken(token);
+    return entry != null && entry.lastRegister > time;
+  }
+
+  /**
+   * Remove a device.
+   *
+   * @param id the device id
+   * @throws UnknownDeviceException if no device has this id
+   * @throws NullIdException        if the id is null or empty
+   */
+  @Override
+  public void removeDevice(final String id) throws UnknownDeviceException, NullIdException {
+    checkId(id);
+    final boolean[] removed = {false};
+    devicesById.computeIfPresent(id, (key, entry) -> {
+      idsByToken.remove(entry.token, id);
+      removed[0] = true;
+      return null;
+    });
+    if (!removed[0]) {
+      throw new UnknownDeviceException();
+    }
+  }
+
+  /**
+   * Remove the device registered with a token, unless it registered again after a given time.
+   * This is how devices reported by the Feedback Service should be removed, since a device may reinstall the application after
+   * Apple found it unreachable.
+   *
+   * @param token      a device token in hexadecimal form
+   * @param notedSince the time (in milliseconds) at which the token was found invalid; devices registered after it are kept
+   * @return true if a device was removed
+   */
+  public boolean removeToken(final String token, final long notedSince) {
+    final Entry entry = (Entry) findByToken(token);
+    if (entry == null || entry.lastRegister > notedSince) {
+      return false;
+    }
+    final boolean[] removed = {false};
+    devicesById.computeIfPresent(entry.id, (key, current) -> {
+      if (current != entry) {
+        return current;
+      }
+      idsByToken.remove(entry.token, entry.id);
+      removed[0] = true;
+      return null;
+    });
+    return removed[0];
+  }
+
+  /**
+   * Remove all devices reported as inactive by the Feedback Service, unless they registered again since.
+   *
+   * @param inactiveDevices devices returned by {@link javapns.Push#feedback}
+   * @return the number of devices removed
+   */
+  public int removeInactive(final List<Device> inactiveDevices) {
+    int removed = 0;
+    for (final Device device : inactiveDevices) {
+      final Timestamp noted = device.getLastRegister();
+      if (removeToken(device.getToken(), noted != null ? noted.getTime() : Long.MAX_VALUE)) {
+        removed++;
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Get the number of registered devices.
+   *
+   * @return a number of devices
+   */
+  public int size() {
+    return devicesById.size();
+  }
+
+  /**
+   * Get all registered devices, as a list that can be pushed to directly.
+   * The list is not affected by later changes to the registry.
+   *
+   * @return an unmodifiable list of devices
+   */
+  public List<Device> snapshot() {
+    return Collections.unmodifiableList(new ArrayList<>(devicesById.values()));
+  }
+
+  /**
+   * Stream all registered devices.
+   * The stream reflects changes made to the registry while it is consumed, as a {@link ConcurrentHashMap} iteration does.
+   *
+   * @return a stream of devices, which can be given to {@link javapns.notification.transmission.NotificationThreads}
+   */
+  public Stream<Device> stream() {
+    return devicesById.values().stream().map(Device.class::cast);
+  }
+
+  /**
+   * Get the blocklist from which tokens are removed when devices register them, if any.
+   *
+   * @return a blocklist, or null
+   */
+  public TokenBlocklist getBlocklist() {
+    return blocklist;
+  }
+
+  /**
+   * Remove every token registered from now on from a blocklist, so that a device which reinstalled the application
+   * is pushed to again.
+   *
+   * @param blocklist a blocklist, or null
+   */
+  public void setBlocklist(final TokenBlocklist blocklist) {
+    this.blocklist = blocklist;
+  }
+
+  private static Entry newEntry(final String id, final String token) throws NullIdException, NullDeviceTokenException, InvalidDeviceTokenFormatException {
+    checkId(id);
+    if (token == null || token.trim().isEmpty()) {
+      throw new NullDeviceTokenException();
+    }
+    return new Entry(id, new TokenKey(DeviceTokens.toBinary(token.trim().replace(" ", ""))), System.currentTimeMillis());
+  }
+
+  private static void checkId(final String id) throws NullIdException {
+    if (id == null || id.trim().isEmpty()) {
+      throw new NullIdException();
+    }
+  }
+
+  /**
+   * A binary token usable as a map key.
+   */
+  private static final class TokenKey {
+    private final byte[] token;
+    private final int hash;
+
+    TokenKey(final byte[] token) {
+      this.token = token;
+      this.hash = Arrays.hashCode(token);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      return obj instanceof TokenKey && hash == ((TokenKey) obj).hash && Arrays.equals(token, ((TokenKey) obj).token);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * An immutable registered device.
+   */
+  private static final class Entry implements Device {
+    private final String id;
+    private final TokenKey token;
+    private final long lastRegister;
+
+    Entry(final String id, final TokenKey token, final long lastRegister) {
+      this.id = id;
+      this.token = token;
+      this.lastRegister = lastRegister;
+    }
+
+    @Override
+    public String getDeviceId() {
+      return id;
+    }
+
+    @Override
+    public void setDeviceId(final String id) {
+      throw new UnsupportedOperationException("Registered devices cannot be changed");
+    }
+
+    @Override
+    public String getToken() {
+      return DeviceTokens.toHex(token.token);
+    }
+
+    @Override
+    public void setToken(final String token) {
+      throw new UnsupportedOperationException("Use DeviceRegistry.register to change the token of a device");
+    }
+
+    @Override
+    public Timestamp getLastRegister() {
+      return new Timestamp(lastRegister);
+    }
+
+    @Override
+    public void setLastRegister(final Timestamp lastRegister) {
+      throw new UnsupportedOperationException("Use DeviceRegistry.register to refresh the registration of a device");
+    }
+
+    @Override
+    public String toString() {
+      return "Device " + id + " " + getToken();
+    }
+  }
+}
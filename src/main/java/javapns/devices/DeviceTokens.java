@@ -0,0 +1,153 @@
+package javapns.devices;
+
+import javapns.devices.exceptions.InvalidDeviceTokenFormatException;
+
+import java.util.Arrays;
+
+/**
+ * Utilities for working with device tokens in their hexadecimal form without creating intermediate objects.
+ */
+public final class DeviceTokens {
+
+  /* Value of each ASCII hexadecimal digit, or -1 for any other character */
+  private static final byte[] NIBBLES = new byte[128];
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /* Binary tokens are 32 bytes long; the binary interface accepts up to 100 bytes */
+  private static final int MIN_TOKEN_DIGITS = 64;
+  private static final int MAX_TOKEN_DIGITS = 200;
+
+  private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+  private static final int FNV_PRIME = 0x01000193;
+
+  static {
+    Arrays.fill(NIBBLES, (byte) -1);
+    for (int i = 0; i < 10; i++) {
+      NIBBLES['0' + i] = (byte) i;
+    }
+    for (int i = 0; i < 6; i++) {
+      NIBBLES['a' + i] = (byte) (10 + i);
+      NIBBLES['A' + i] = (byte) (10 + i);
+    }
+  }
+
+  private DeviceTokens() {}
+
+  /**
+   * Compute a well-distributed hash of the binary form of a token.
+   * Tokens that only differ by the case of their hexadecimal digits have the same hash.
+   *
+   * @param token a device token in hexadecimal form
+   * @return a hash of the binary token
+   */
+  public static int hash(final CharSequence token) {
+    int hash = FNV_OFFSET_BASIS;
+    final int length = token.length();
+    for (int i = 0; i + 1 < length; i += 2) {
+      final int value = (nibble(token.charAt(i)) << 4) | nibble(token.charAt(i + 1));
+      hash = (hash ^ (value & 0xFF)) * FNV_PRIME;
+    }
+    /* Final avalanche so that the low bits can be used directly for sharding */
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    return hash;
+  }
+
+  /**
+   * Indicates if a token can be pushed to: an even number of hexadecimal digits, from 64 (32 bytes) to 200 (100 bytes).
+   *
+   * @param token a device token in hexadecimal form
+   * @return true if the token is valid
+   */
+  public static boolean isValid(final CharSequence token) {
+    if (token == null) {
+      return false;
+    }
+    final int length = token.length();
+    if (length < MIN_TOKEN_DIGITS || length > MAX_TOKEN_DIGITS || (length & 1) != 0) {
+      return false;
+    }
+    /* No branch per character: any invalid digit (or any character beyond ASCII) makes the accumulator negative */
+    int invalid = 0;
+    for (int i = 0; i < length; i++) {
+      final char c = token.charAt(i);
+      invalid |= NIBBLES[c & 0x7F] | (0x7F - c);
+    }
+    return invalid >= 0;
+  }
+
+  /**
+   * Check that a token can be pushed to, so that invalid tokens are rejected when devices are created rather than when notifications are sent.
+   *
+   * @param token a device token in hexadecimal form
+   * @throws InvalidDeviceTokenFormatException if the token is null, has an invalid length or contains characters other than hexadecimal digits
+   */
+  public static void validate(final CharSequence token) throws InvalidDeviceTokenFormatException {
+    if (token == null) {
+      throw new InvalidDeviceTokenFormatException("Device token may not be null");
+    }
+    if (!isValid(token)) {
+      final int length = token.length();
+      if (length < MIN_TOKEN_DIGITS || length > MAX_TOKEN_DIGITS || (length & 1) != 0) {
+        throw new InvalidDeviceTokenFormatException("Device token must have an even number of hexadecimal digits from " + MIN_TOKEN_DIGITS + " to " + MAX_TOKEN_DIGITS + ", but has " + length + " characters: " + token);
+      }
+      throw new InvalidDeviceTokenFormatException(token.toString(), "non-hexadecimal characters");
+    }
+  }
+
+  /**
+   * Convert a valid token to its binary form.
+   *
+   * @param token a device token in hexadecimal form
+   * @return a new array holding the binary token
+   * @throws InvalidDeviceTokenFormatException if the token is not valid
+   */
+  public static byte[] toBinary(final CharSequence token) throws InvalidDeviceTokenFormatException {
+    validate(token);
+    final byte[] binary = new byte[token.length() / 2];
+    for (int i = 0; i < binary.length; i++) {
+      binary[i] = (byte) (NIBBLES[token.charAt(i * 2)] << 4 | NIBBLES[token.charAt(i * 2 + 1)]);
+    }
+    return binary;
+  }
+
+  /**
+   * Convert a binary token to its hexadecimal form.
+   *
+   * @param token a binary token
+   * @return the token made of lowercase hexadecimal digits
+   */
+  public static String toHex(final byte[] token) {
+    final char[] hex = new char[token.length * 2];
+    toHex(token, 0, token.length, hex, 0);
+    return new String(hex);
+  }
+
+  /**
+   * Write the hexadecimal form of a binary token into an existing array, so that tokens can be decoded without creating any object.
+   *
+   * @param token     an array holding a binary token
+   * @param offset    the index in the array of the first byte of the token
+   * @param length    the length of the token, in bytes
+   * @param hex       an array receiving two lowercase hexadecimal digits per byte
+   * @param hexOffset the index in the hexadecimal array of the first digit
+   */
+  public static void toHex(final byte[] token, final int offset, final int length, final char[] hex, final int hexOffset) {
+    for (int i = 0; i < length; i++) {
+      final int value = token[offset + i];
+      hex[hexOffset + i * 2] = HEX[(value >>> 4) & 0x0F];
+      hex[hexOffset + i * 2 + 1] = HEX[value & 0x0F];
+    }
+  }
+
+  /**
+   * Get the value of a hexadecimal digit.
+   *
+   * @param c a character
+   * @return the value of the digit, or -1 if the character is not a hexadecimal digit
+   */
+  static int nibble(final char c) {
+    return c < NIBBLES.length ? NIBBLES[c] : -1;
+  }
+}
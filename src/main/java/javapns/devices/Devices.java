@@ -1,21 +1,41 @@
 package javapns.devices;
 
+import javapns.devices.exceptions.InvalidDeviceTokenFormatException;
 import javapns.devices.implementations.basic.BasicDevice;
 import javapns.notification.PayloadPerDevice;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
 
 public class Devices {
 
   private Devices() {}
 
+  /**
+   * Turn a list or an array of tokens or devices into a list of devices.
+   * Tokens are validated as devices are created from them, so that an invalid token is rejected before anything is sent.
+   * Devices given as a source to consume lazily are read in full.
+   *
+   * @param rawList a list or an array of tokens or devices, a token, a device, or a source of tokens or devices (see {@link #isStreamed(Object)})
+   * @return a list of devices
+   * @throws IllegalArgumentException if the type is not supported, or if a token is not valid
+   */
   public static List<Device> asDevices(final Object rawList) {
     final List<Device> list = new ArrayList<>();
     if (rawList == null) {
       return list;
     }
+    if (isStreamed(rawList)) {
+      asDeviceIterator(rawList, true).forEachRemaining(list::add);
+      return list;
+    }
 
     if (rawList instanceof List) {
       final List devices = (List) rawList;
@@ -29,25 +49,19 @@ public class Devices {
         return devices;
       } else if (firstDevice instanceof String) {
         for (final Object token : devices) {
-          final BasicDevice device = new BasicDevice();
-          device.setToken((String) token);
-          list.add(device);
+          list.add(toDevice((String) token));
         }
       }
     } else if (rawList instanceof String[]) {
       final String[] tokens = (String[]) rawList;
       for (final String token : tokens) {
-        final BasicDevice device = new BasicDevice();
-        device.setToken(token);
-        list.add(device);
+        list.add(toDevice(token));
       }
     } else if (rawList instanceof Device[]) {
       final Device[] dvs = (Device[]) rawList;
       return Arrays.asList(dvs);
     } else if (rawList instanceof String) {
-      final BasicDevice device = new BasicDevice();
-      device.setToken((String) rawList);
-      list.add(device);
+      list.add(toDevice((String) rawList));
     } else if (rawList instanceof Device) {
       list.add((Device) rawList);
     } else {
@@ -56,6 +70,76 @@ public class Devices {
     return list;
   }
 
+  /**
+   * Indicates if devices are given as a source to consume lazily (an Iterator, a Stream, a Spliterator or an Iterable which is not a Collection)
+   * rather than as a list or an array.
+   */
+  public static boolean isStreamed(final Object rawDevices) {
+    return rawDevices instanceof Iterator || rawDevices instanceof Stream || rawDevices instanceof Spliterator
+        || rawDevices instanceof Iterable && !(rawDevices instanceof Collection);
+  }
+
+  /**
+   * Iterate over devices without building a list:  tokens are turned into devices one at a time, as the iterator is consumed.
+   * Accepts the same types as asDevices(..), as well as Iterator, Stream, Spliterator and Iterable of tokens or devices.
+   * <p>
+   * <p>Tokens are not validated here, so that an invalid token read from a source midway through a push fails alone
+   * (the notification manager validates every token before sending it) instead of interrupting the push.</p>
+   */
+  public static Iterator<Device> asDeviceIterator(final Object rawDevices) {
+    return asDeviceIterator(rawDevices, false);
+  }
+
+  private static Iterator<Device> asDeviceIterator(final Object rawDevices, final boolean validate) {
+    final Iterator<?> raw;
+    if (rawDevices == null) {
+      raw = Collections.emptyIterator();
+    } else if (rawDevices instanceof Iterator) {
+      raw = (Iterator<?>) rawDevices;
+    } else if (rawDevices instanceof Stream) {
+      raw = ((Stream<?>) rawDevices).iterator();
+    } else if (rawDevices instanceof Spliterator) {
+      raw = Spliterators.iterator((Spliterator<?>) rawDevices);
+    } else if (rawDevices instanceof Iterable) {
+      raw = ((Iterable<?>) rawDevices).iterator();
+    } else if (rawDevices instanceof Object[]) {
+      raw = Arrays.asList((Object[]) rawDevices).iterator();
+    } else if (rawDevices instanceof String || rawDevices instanceof Device) {
+      raw = Collections.singletonList(rawDevices).iterator();
+    } else {
+      throw new IllegalArgumentException("Device source type not supported. Supported types are: Iterator, Stream, Spliterator, Iterable, String[], Device[], String and Device");
+    }
+    return new Iterator<Device>() {
+      public boolean hasNext() {
+        return raw.hasNext();
+      }
+
+      public Device next() {
+        final Object next = raw.next();
+        if (next instanceof Device) {
+          return (Device) next;
+        }
+        if (validate) {
+          return toDevice((String) next);
+        }
+        final BasicDevice device = new BasicDevice();
+        device.setToken((String) next);
+        return device;
+      }
+    };
+  }
+
+  private static Device toDevice(final String token) {
+    try {
+      DeviceTokens.validate(token);
+    } catch (final InvalidDeviceTokenFormatException e) {
+      throw new IllegalArgumentException(e.getMessage(), e);
+    }
+    final BasicDevice device = new BasicDevice();
+    device.setToken(token);
+    return device;
+  }
+
   public static List<PayloadPerDevice> asPayloadsPerDevices(final Object rawList) {
     final List<PayloadPerDevice> list = new ArrayList<>();
     if (rawList == null) {
@@ -0,0 +1,452 @@
+package javapns.devices;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A compressed set of device indexes, used by {@link SegmentIndex} to describe audience segments.
+ * <p>
+ * <p>Indexes are grouped by their upper 16 bits into containers of up to 65536 values.  A sparse container is a sorted array of
+ * 16-bit values (2 bytes per device), and a dense one is a bitmap of 8 KB, so a segment never takes much more than one bit per device
+ * and combining segments works on whole words or merged arrays rather than on individual devices.</p>
+ * <p>
+ * <p>{@link #and(SegmentBitmap)}, {@link #or(SegmentBitmap)} and {@link #andNot(SegmentBitmap)} return new bitmaps and never change
+ * their operands.  A bitmap is filled by a single thread; once filled, it can be read by any number of threads.</p>
+ */
+public class SegmentBitmap {
+  private static final int ARRAY_MAX = 4096;
+  private static final int WORDS = 1 << 16 >>> 6;
+
+  /* Upper 16 bits of the values of each container, in increasing order */
+  private char[] keys = new char[0];
+  /* Either a sorted char[] of lower 16 bits or a long[] bitmap of WORDS words */
+  private Object[] containers = new Object[0];
+  private int[] cardinalities = new int[0];
+  private int size;
+
+  /**
+   * Create a bitmap holding all indexes from 0 (inclusive) to a given end (exclusive).
+   *
+   * @param end the first index not in the bitmap
+   * @return a new bitmap
+   */
+  public static SegmentBitmap range(final int end) {
+    final SegmentBitmap bitmap = new SegmentBitmap();
+    for (int start = 0; start < end; start += 1 << 16) {
+      final int count = Math.min(1 << 16, end - start);
+      final long[] words = new long[WORDS];
+      Arrays.fill(words, 0, count >>> 6, -1L);
+      if ((count & 63) != 0) {
+        words[count >>> 6] = (1L << count) - 1;
+      }
+      bitmap.append((char) (start >>> 16), normalize(words, count), count);
+    }
+    return bitmap;
+  }
+
+  /**
+   * Add an index.  Adding indexes in increasing order is fastest.
+   *
+   * @param index a non-negative index
+   * @return true if the index was not in the bitmap already
+   */
+  public boolean add(final int index) {
+    if (index < 0) {
+      throw new IllegalArgumentException("Index must not be negative: " + index);
+    }
+    final char key = (char) (index >>> 16);
+    final char low = (char) index;
+    int position = size > 0 && keys[size - 1] == key ? size - 1 : Arrays.binarySearch(keys, 0, size, key);
+    if (position < 0) {
+      position = -position - 1;
+      insertContainer(position, key, new char[4], 0);
+    }
+    final Object container = containers[position];
+    final int cardinality = cardinalities[position];
+    if (container instanceof long[]) {
+      final long[] words = (long[]) container;
+      final long bit = 1L << low;
+      if ((words[low >>> 6] & bit) != 0) {
+        return false;
+      }
+      words[low >>> 6] |= bit;
+    } else {
+      char[] values = (char[]) container;
+      int slot = cardinality > 0 && values[cardinality - 1] < low ? -cardinality - 1 : Arrays.binarySearch(values, 0, cardinality, low);
+      if (slot >= 0) {
+        return false;
+      }
+      slot = -slot - 1;
+      if (cardinality == ARRAY_MAX) {
+        final long[] words = toWords(values, cardinality);
+        words[low >>> 6] |= 1L << low;
+        containers[position] = words;
+      } else {
+        if (cardinality == values.length) {
+          values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality * 2));
+          containers[position] = values;
+        }
+        System.arraycopy(values, slot, values, slot + 1, cardinality - slot);
+        values[slot] = low;
+      }
+    }
+    cardinalities[position] = cardinality + 1;
+    return true;
+  }
+
+  /**
+   * Indicates if an index is in the bitmap.
+   *
+   * @param index an index
+   * @return true if the index is in the bitmap
+   */
+  public boolean contains(final int index) {
+    if (index < 0) {
+      return false;
+    }
+    final int position = Arrays.binarySearch(keys, 0, size, (char) (index >>> 16));
+    if (position < 0) {
+      return false;
+    }
+    return contains(containers[position], cardinalities[position], (char) index);
+  }
+
+  /**
+   * Get the number of indexes in the bitmap.
+   *
+   * @return a number of indexes
+   */
+  public int getCardinality() {
+    int cardinality = 0;
+    for (int i = 0; i < size; i++) {
+      cardinality += cardinalities[i];
+    }
+    return cardinality;
+  }
+
+  /**
+   * Indicates if the bitmap holds no index.
+   *
+   * @return true if the bitmap is empty
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Intersect this bitmap with another.
+   *
+   * @param other a bitmap
+   * @return a new bitmap holding the indexes in both bitmaps
+   */
+  public SegmentBitmap and(final SegmentBitmap other) {
+    final SegmentBitmap result = new SegmentBitmap();
+    int i = 0;
+    int j = 0;
+    while (i < size && j < other.size) {
+      if (keys[i] < other.keys[j]) {
+        i++;
+      } else if (keys[i] > other.keys[j]) {
+        j++;
+      } else {
+        result.appendIfNotEmpty(keys[i], and(containers[i], cardinalities[i], other.containers[j], other.cardinalities[j]));
+        i++;
+        j++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Unite this bitmap with another.
+   *
+   * @param other a bitmap
+   * @return a new bitmap holding the indexes in either bitmap
+   */
+  public SegmentBitmap or(final SegmentBitmap other) {
+    final SegmentBitmap result = new SegmentBitmap();
+    int i = 0;
+    int j = 0;
+    while (i < size || j < other.size) {
+      if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+        result.append(keys[i], copy(containers[i]), cardinalities[i]);
+        i++;
+      } else if (i == size || keys[i] > other.keys[j]) {
+        result.append(other.keys[j], copy(other.containers[j]), other.cardinalities[j]);
+        j++;
+      } else {
+        result.appendIfNotEmpty(keys[i], or(containers[i], cardinalities[i], other.containers[j], other.cardinalities[j]));
+        i++;
+        j++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Subtract another bitmap from this one.
+   *
+   * @param other a bitmap
+   * @return a new bitmap holding the indexes in this bitmap but not in the other
+   */
+  public SegmentBitmap andNot(final SegmentBitmap other) {
+    final SegmentBitmap result = new SegmentBitmap();
+    int j = 0;
+    for (int i = 0; i < size; i++) {
+      while (j < other.size && other.keys[j] < keys[i]) {
+        j++;
+      }
+      if (j < other.size && other.keys[j] == keys[i]) {
+        result.appendIfNotEmpty(keys[i], andNot(containers[i], cardinalities[i], other.containers[j], other.cardinalities[j]));
+      } else {
+        result.append(keys[i], copy(containers[i]), cardinalities[i]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Iterate over the indexes of the bitmap, in increasing order.
+   *
+   * @return an iterator of indexes
+   */
+  public PrimitiveIterator.OfInt iterator() {
+    return new PrimitiveIterator.OfInt() {
+      private int position = -1;
+      private int next = -1;
+      private int high;
+      private char[] values;
+      private long[] words;
+      private int cursor;
+      private int cardinality;
+      private long word;
+
+      {
+        advance();
+      }
+
+      private void advance() {
+        while (true) {
+          if (values != null && cursor < cardinality) {
+            next = high | values[cursor++];
+            return;
+          }
+          if (words != null) {
+            while (word == 0 && cursor < WORDS) {
+              word = words[cursor++];
+            }
+            if (word != 0) {
+              next = high | (cursor - 1) << 6 | Long.numberOfTrailingZeros(word);
+              word &= word - 1;
+              return;
+            }
+          }
+          if (++position >= size) {
+            next = -1;
+            return;
+          }
+          high = keys[position] << 16;
+          values = containers[position] instanceof char[] ? (char[]) containers[position] : null;
+          words = values == null ? (long[]) containers[position] : null;
+          cardinality = cardinalities[position];
+          cursor = 0;
+          word = 0;
+        }
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next >= 0;
+      }
+
+      @Override
+      public int nextInt() {
+        if (next < 0) {
+          throw new NoSuchElementException();
+        }
+        final int value = next;
+        advance();
+        return value;
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    return "SegmentBitmap of " + getCardinality() + " indexes in " + size + " containers";
+  }
+
+  private void append(final char key, final Object container, final int cardinality) {
+    insertContainer(size, key, container, cardinality);
+  }
+
+  private void appendIfNotEmpty(final char key, final Object container) {
+    final int cardinality = container instanceof long[] ? count((long[]) container) : ((char[]) container).length;
+    if (cardinality > 0) {
+      append(key, container, cardinality);
+    }
+  }
+
+  private void insertContainer(final int position, final char key, final Object container, final int cardinality) {
+    if (size == keys.length) {
+      final int capacity = Math.max(4, size * 2);
+      keys = Arrays.copyOf(keys, capacity);
+      containers = Arrays.copyOf(containers, capacity);
+      cardinalities = Arrays.copyOf(cardinalities, capacity);
+    }
+    System.arraycopy(keys, position, keys, position + 1, size - position);
+    System.arraycopy(containers, position, containers, position + 1, size - position);
+    System.arraycopy(cardinalities, position, cardinalities, position + 1, size - position);
+    keys[position] = key;
+    containers[position] = container;
+    cardinalities[position] = cardinality;
+    size++;
+  }
+
+  private static boolean contains(final Object container, final int cardinality, final char low) {
+    if (container instanceof long[]) {
+      return (((long[]) container)[low >>> 6] & 1L << low) != 0;
+    }
+    return Arrays.binarySearch((char[]) container, 0, cardinality, low) >= 0;
+  }
+
+  /* Containers produced by operations are exact-sized arrays or bitmaps holding more than ARRAY_MAX values */
+
+  private static Object and(final Object a, final int cardinalityA, final Object b, final int cardinalityB) {
+    if (a instanceof long[] && b instanceof long[]) {
+      final long[] words = new long[WORDS];
+      for (int w = 0; w < WORDS; w++) {
+        words[w] = ((long[]) a)[w] & ((long[]) b)[w];
+      }
+      return normalize(words, count(words));
+    }
+    if (a instanceof long[]) {
+      return and(b, cardinalityB, a, cardinalityA);
+    }
+    final char[] values = (char[]) a;
+    final char[] result = new char[cardinalityA];
+    int count = 0;
+    if (b instanceof long[]) {
+      for (int i = 0; i < cardinalityA; i++) {
+        if (contains(b, cardinalityB, values[i])) {
+          result[count++] = values[i];
+        }
+      }
+    } else {
+      final char[] others = (char[]) b;
+      int j = 0;
+      for (int i = 0; i < cardinalityA && j < cardinalityB; ) {
+        if (values[i] < others[j]) {
+          i++;
+        } else if (values[i] > others[j]) {
+          j++;
+        } else {
+          result[count++] = values[i];
+          i++;
+          j++;
+        }
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  private static Object or(final Object a, final int cardinalityA, final Object b, final int cardinalityB) {
+    if (a instanceof char[] && b instanceof char[] && cardinalityA + cardinalityB <= ARRAY_MAX) {
+      final char[] values = (char[]) a;
+      final char[] others = (char[]) b;
+      final char[] result = new char[cardinalityA + cardinalityB];
+      int i = 0;
+      int j = 0;
+      int count = 0;
+      while (i < cardinalityA || j < cardinalityB) {
+        if (j == cardinalityB || (i < cardinalityA && values[i] < others[j])) {
+          result[count++] = values[i++];
+        } else if (i == cardinalityA || values[i] > others[j]) {
+          result[count++] = others[j++];
+        } else {
+          result[count++] = values[i++];
+          j++;
+        }
+      }
+      return Arrays.copyOf(result, count);
+    }
+    final long[] words = a instanceof long[] ? ((long[]) a).clone() : toWords((char[]) a, cardinalityA);
+    if (b instanceof long[]) {
+      for (int w = 0; w < WORDS; w++) {
+        words[w] |= ((long[]) b)[w];
+      }
+    } else {
+      for (int j = 0; j < cardinalityB; j++) {
+        final char low = ((char[]) b)[j];
+        words[low >>> 6] |= 1L << low;
+      }
+    }
+    return normalize(words, count(words));
+  }
+
+  private static Object andNot(final Object a, final int cardinalityA, final Object b, final int cardinalityB) {
+    if (a instanceof char[]) {
+      final char[] values = (char[]) a;
+      final char[] result = new char[cardinalityA];
+      int count = 0;
+      for (int i = 0; i < cardinalityA; i++) {
+        if (!contains(b, cardinalityB, values[i])) {
+          result[count++] = values[i];
+        }
+      }
+      return Arrays.copyOf(result, count);
+    }
+    final long[] words = ((long[]) a).clone();
+    if (b instanceof long[]) {
+      for (int w = 0; w < WORDS; w++) {
+        words[w] &= ~((long[]) b)[w];
+      }
+    } else {
+      for (int j = 0; j < cardinalityB; j++) {
+        final char low = ((char[]) b)[j];
+        words[low >>> 6] &= ~(1L << low);
+      }
+    }
+    return normalize(words, count(words));
+  }
+
+  private static Object copy(final Object container) {
+    return container instanceof long[] ? ((long[]) container).clone() : ((char[]) container).clone();
+  }
+
+  private static long[] toWords(final char[] values, final int cardinality) {
+    final long[] words = new long[WORDS];
+    for (int i = 0; i < cardinality; i++) {
+      words[values[i] >>> 6] |= 1L << values[i];
+    }
+    return words;
+  }
+
+  /**
+   * Turn a bitmap container holding few values into a sorted array.
+   */
+  private static Object normalize(final long[] words, final int cardinality) {
+    if (cardinality > ARRAY_MAX) {
+      return words;
+    }
+    final char[] values = new char[cardinality];
+    int count = 0;
+    for (int w = 0; w < WORDS; w++) {
+      long word = words[w];
+      while (word != 0) {
+        values[count++] = (char) (w << 6 | Long.numberOfTrailingZeros(word));
+        word &= word - 1;
+      }
+    }
+    return values;
+  }
+
+  private static int count(final long[] words) {
+    int count = 0;
+    for (final long word : words) {
+      count += Long.bitCount(word);
+    }
+    return count;
+  }
+}
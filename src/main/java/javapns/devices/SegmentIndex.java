@@ -0,0 +1,147 @@
+package javapns.devices;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An index of audience segments over a list of devices, for targeted broadcasts.
+ * <p>
+ * <p>Each segment (for example "os=ios", "locale=fr" or "promos") is a {@link SegmentBitmap} of the indexes of its devices in the list.
+ * Segments are combined with {@link SegmentBitmap#and(SegmentBitmap)}, {@link SegmentBitmap#or(SegmentBitmap)},
+ * {@link SegmentBitmap#andNot(SegmentBitmap)} and {@link #not(SegmentBitmap)}, and the devices of the result are then read straight
+ * from the list by {@link #devices(SegmentBitmap)}, which can be given to {@link javapns.Push} or
+ * {@link javapns.notification.transmission.NotificationThreads} without building any intermediate list:</p>
+ * <pre>
+ * SegmentBitmap audience = index.get("os=ios").and(index.get("locale=fr")).and(index.get("promos"));
+ * new NotificationThreads(server, payload, index.devices(audience), 8).start();
+ * </pre>
+ * <p>
+ * <p>The list must support random access and must not change while the index is used; a {@link TokenStore} or a
+ * {@link DeviceRegistry#snapshot()} are good candidates.  Like a {@link TokenStore}, an index is filled by a single thread;
+ * once filled, it can be queried by any number of threads.</p>
+ */
+public class SegmentIndex {
+  private final List<? extends Device> devices;
+  private final Map<String, SegmentBitmap> segments = new HashMap<>();
+
+  /**
+   * Create an empty index over a list of devices.
+   *
+   * @param devices a list supporting random access
+   */
+  public SegmentIndex(final List<? extends Device> devices) {
+    if (!(devices instanceof RandomAccess)) {
+      throw new IllegalArgumentException("Segments can only index lists supporting random access");
+    }
+    this.devices = devices;
+  }
+
+  /**
+   * Add a device to a segment.
+   *
+   * @param index   the index of the device in the list
+   * @param segment the name of a segment
+   */
+  public void tag(final int index, final String segment) {
+    if (index < 0 || index >= devices.size()) {
+      throw new IndexOutOfBoundsException("Index " + index + " is not in a list of " + devices.size() + " devices");
+    }
+    segments.computeIfAbsent(segment, name -> new SegmentBitmap()).add(index);
+  }
+
+  /**
+   * Add a device to the segment of an attribute value, named "attribute=value".
+   *
+   * @param index     the index of the device in the list
+   * @param attribute the name of an attribute, such as "locale"
+   * @param value     the value of the attribute for the device, such as "fr"
+   */
+  public void tag(final int index, final String attribute, final String value) {
+    tag(index, attribute + "=" + value);
+  }
+
+  /**
+   * Get the devices of a segment.
+   *
+   * @param segment the name of a segment
+   * @return the indexes of the devices in the segment (empty if the segment is unknown)
+   */
+  public SegmentBitmap get(final String segment) {
+    final SegmentBitmap bitmap = segments.get(segment);
+    return bitmap != null ? bitmap : new SegmentBitmap();
+  }
+
+  /**
+   * Get the names of all segments.
+   *
+   * @return a set of names
+   */
+  public Set<String> getSegments() {
+    return segments.keySet();
+  }
+
+  /**
+   * Get all devices of the list.
+   *
+   * @return a new bitmap holding every index of the list
+   */
+  public SegmentBitmap all() {
+    return SegmentBitmap.range(devices.size());
+  }
+
+  /**
+   * Get the devices which are not in a set.
+   *
+   * @param bitmap a set of device indexes
+   * @return a new bitmap holding every index of the list which is not in the set
+   */
+  public SegmentBitmap not(final SegmentBitmap bitmap) {
+    return all().andNot(bitmap);
+  }
+
+  /**
+   * Iterate over the devices of a set, in the order of the list.
+   * Devices are read from the list as the iterator is consumed.
+   *
+   * @param bitmap a set of device indexes
+   * @return an iterator of devices
+   */
+  public Iterator<Device> devices(final SegmentBitmap bitmap) {
+    final PrimitiveIterator.OfInt indexes = bitmap.iterator();
+    return new Iterator<Device>() {
+      @Override
+      public boolean hasNext() {
+        return indexes.hasNext();
+      }
+
+      @Override
+      public Device next() {
+        if (!indexes.hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return devices.get(indexes.nextInt());
+      }
+    };
+  }
+
+  /**
+   * Stream the devices of a set, in the order of the list.
+   *
+   * @param bitmap a set of device indexes
+   * @return a sequential stream of devices
+   */
+  public Stream<Device> stream(final SegmentBitmap bitmap) {
+    final Spliterator<Device> spliterator = Spliterators.spliterator(devices(bitmap), bitmap.getCardinality(), Spliterator.ORDERED | Spliterator.NONNULL);
+    return StreamSupport.stream(spliterator, false);
+  }
+}
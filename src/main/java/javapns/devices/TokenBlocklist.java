@@ -0,0 +1,319 @@
+package javapns.devices;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A set of device tokens known to be invalid, which should never be pushed to again.
+ * <p>
+ * <p>Pushing to a token Apple rejected makes Apple close the connection, so every notification pushed after it must be sent again
+ * over a new connection.  A blocklist attached to a {@link javapns.notification.PushNotificationManager} is filled automatically with
+ * tokens rejected by Apple (error-response status 8), and can also be filled by a {@link javapns.feedback.FeedbackServiceManager};
+ * notifications to blocked tokens then fail immediately without being sent.</p>
+ * <p>
+ * <p>Tokens are kept in binary form in an open-addressing hash table (32 bytes per token and a few more for free slots).
+ * Lookups do not lock unless a token is being added at the same time, so checking the blocklist before every notification is cheap.
+ * Only 32-byte tokens can be blocked.  A blocklist can be saved to a file and loaded back.</p>
+ */
+public class TokenBlocklist {
+  private static final int MAGIC = 0x4A50424C;
+  private static final int TOKEN_LENGTH = 32;
+  private static final int WORDS = TOKEN_LENGTH / Long.BYTES;
+  private static final int DIGITS_PER_WORD = Long.BYTES * 2;
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final double MAX_LOAD = 0.7;
+
+  private final StampedLock lock = new StampedLock();
+  private long[] keys = new long[INITIAL_CAPACITY * WORDS];
+  private boolean[] used = new boolean[INITIAL_CAPACITY];
+  private int size;
+
+  /**
+   * Block a token.
+   *
+   * @param token a token in hexadecimal form
+   * @return true if the token was not blocked already, false if it was or if it is not a 32-byte token
+   */
+  public boolean add(final CharSequence token) {
+    final long[] words = decode(token);
+    return words != null && add(words);
+  }
+
+  /**
+   * Block a token.
+   *
+   * @param token  an array holding a binary token
+   * @param offset the index in the array of the first byte of the token
+   * @return true if the token was not blocked already
+   */
+  public boolean add(final byte[] token, final int offset) {
+    final long[] words = new long[WORDS];
+    for (int w = 0; w < WORDS; w++) {
+      long word = 0;
+      for (int b = 0; b < Long.BYTES; b++) {
+        word = word << 8 | (token[offset + w * Long.BYTES + b] & 0xFF);
+      }
+      words[w] = word;
+    }
+    return add(words);
+  }
+
+  private boolean add(final long[] words) {
+    final long stamp = lock.writeLock();
+    try {
+      if (find(keys, used, words) >= 0) {
+        return false;
+      }
+      if (size + 1 > used.length * MAX_LOAD) {
+        resize(used.length * 2);
+      }
+      insert(keys, used, words);
+      size++;
+      return true;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Indicates if a token is blocked.
+   *
+   * @param token a token in hexadecimal form
+   * @return true if the token is blocked
+   */
+  public boolean contains(final CharSequence token) {
+    final long[] words = decode(token);
+    if (words == null) {
+      return false;
+    }
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0) {
+      final boolean found = find(keys, used, words) >= 0;
+      if (lock.validate(stamp)) {
+        return found;
+      }
+    }
+    stamp = lock.readLock();
+    try {
+      return find(keys, used, words) >= 0;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Unblock a token, for example if it was registered again by a device.
+   *
+   * @param token a token in hexadecimal form
+   * @return true if the token was blocked
+   */
+  public boolean remove(final CharSequence token) {
+    final long[] words = decode(token);
+    if (words == null) {
+      return false;
+    }
+    final long stamp = lock.writeLock();
+    try {
+      int slot = find(keys, used, words);
+      if (slot < 0) {
+        return false;
+      }
+      /* Shift following entries back so that no probe sequence is broken by the freed slot */
+      final int mask = used.length - 1;
+      int next = (slot + 1) & mask;
+      while (used[next]) {
+        final int home = home(keys, next, mask);
+        if (((next - home) & mask) >= ((next - slot) & mask)) {
+          System.arraycopy(keys, next * WORDS, keys, slot * WORDS, WORDS);
+          used[slot] = true;
+          slot = next;
+        }
+        next = (next + 1) & mask;
+      }
+      used[slot] = false;
+      size--;
+      return true;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Get the number of blocked tokens.
+   *
+   * @return a number of tokens
+   */
+  public int size() {
+    final long stamp = lock.readLock();
+    try {
+      return size;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Unblock all tokens.
+   */
+  public void clear() {
+    final long stamp = lock.writeLock();
+    try {
+      keys = new long[INITIAL_CAPACITY * WORDS];
+      used = new boolean[INITIAL_CAPACITY];
+      size = 0;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Save all blocked tokens to a file, replacing it.
+   *
+   * @param file a file
+   * @throws IOException if the file cannot be written
+   */
+  public void save(final File file) throws IOException {
+    final File temporary = new File(file.getPath() + ".tmp");
+    /* Copy the tokens under the lock and write them outside it, so that blocking tokens never waits for the disk */
+    final long[] tokens;
+    final long stamp = lock.readLock();
+    try {
+      tokens = new long[size * WORDS];
+      int copied = 0;
+      for (int slot = 0; slot < used.length; slot++) {
+        if (used[slot]) {
+          System.arraycopy(keys, slot * WORDS, tokens, copied, WORDS);
+          copied += WORDS;
+        }
+      }
+    } finally {
+      lock.unlockRead(stamp);
+    }
+    try (FileOutputStream stream = new FileOutputStream(temporary);
+         DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream))) {
+      output.writeInt(MAGIC);
+      output.writeInt(tokens.length / WORDS);
+      for (final long word : tokens) {
+        output.writeLong(word);
+      }
+      output.flush();
+      stream.getFD().sync();
+    }
+    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Load a blocklist saved to a file.
+   *
+   * @param file a file written by {@link #save(File)}
+   * @return a new blocklist
+   * @throws IOException if the file cannot be read or is not a blocklist
+   */
+  public static TokenBlocklist load(final File file) throws IOException {
+    final TokenBlocklist blocklist = new TokenBlocklist();
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (input.readInt() != MAGIC) {
+        throw new IOException(file + " is not a token blocklist");
+      }
+      final int count = input.readInt();
+      for (int i = 0; i < count; i++) {
+        final long[] words = new long[WORDS];
+        for (int w = 0; w < WORDS; w++) {
+          words[w] = input.readLong();
+        }
+        blocklist.add(words);
+      }
+    }
+    return blocklist;
+  }
+
+  private void resize(final int capacity) {
+    final long[] resizedKeys = new long[capacity * WORDS];
+    final boolean[] resizedUsed = new boolean[capacity];
+    final long[] words = new long[WORDS];
+    for (int slot = 0; slot < used.length; slot++) {
+      if (used[slot]) {
+        System.arraycopy(keys, slot * WORDS, words, 0, WORDS);
+        insert(resizedKeys, resizedUsed, words);
+      }
+    }
+    keys = resizedKeys;
+    used = resizedUsed;
+  }
+
+  private static void insert(final long[] keys, final boolean[] used, final long[] words) {
+    final int mask = used.length - 1;
+    int slot = hash(words) & mask;
+    while (used[slot]) {
+      slot = (slot + 1) & mask;
+    }
+    System.arraycopy(words, 0, keys, slot * WORDS, WORDS);
+    used[slot] = true;
+  }
+
+  /**
+   * Find the slot of a token.  The number of probes is bounded, so that an optimistic read racing with a writer always ends.
+   *
+   * @return a slot, or -1 if the token is not in the table
+   */
+  private static int find(final long[] keys, final boolean[] used, final long[] words) {
+    final int mask = used.length - 1;
+    int slot = hash(words) & mask;
+    for (int probes = 0; probes < used.length && used[slot]; probes++) {
+      final int base = slot * WORDS;
+      if (base + WORDS <= keys.length && keys[base] == words[0] && keys[base + 1] == words[1] && keys[base + 2] == words[2] && keys[base + 3] == words[3]) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  private static int home(final long[] keys, final int slot, final int mask) {
+    final long[] words = new long[WORDS];
+    System.arraycopy(keys, slot * WORDS, words, 0, WORDS);
+    return hash(words) & mask;
+  }
+
+  private static int hash(final long[] words) {
+    long hash = words[0] * 0x9E3779B97F4A7C15L ^ words[1];
+    hash = hash * 0x9E3779B97F4A7C15L ^ words[2];
+    hash = hash * 0x9E3779B97F4A7C15L ^ words[3];
+    hash ^= hash >>> 32;
+    hash *= 0xff51afd7ed558ccdL;
+    return (int) (hash ^ hash >>> 29);
+  }
+
+  /**
+   * Decode a hexadecimal token into 4 big-endian words.
+   *
+   * @return the words, or null if the token is not a valid 32-byte token
+   */
+  private static long[] decode(final CharSequence token) {
+    if (token == null || token.length() != TOKEN_LENGTH * 2) {
+      return null;
+    }
+    final long[] words = new long[WORDS];
+    for (int w = 0; w < WORDS; w++) {
+      long word = 0;
+      for (int d = 0; d < DIGITS_PER_WORD; d++) {
+        final int nibble = DeviceTokens.nibble(token.charAt(w * DIGITS_PER_WORD + d));
+        if (nibble < 0) {
+          return null;
+        }
+        word = word << 4 | nibble;
+      }
+      words[w] = word;
+    }
+    return words;
+  }
+}
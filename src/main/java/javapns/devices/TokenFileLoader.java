@@ -0,0 +1,317 @@
+package javapns.devices;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.LongConsumer;
+
+/**
+ * Loads large files of device tokens into a {@link TokenStore}, ready to be pushed to.
+ * <p>
+ * <p>The file is memory-mapped and split into chunks which are parsed in parallel in a fork-join pool, a few chunks ahead of
+ * the one being added to the store.  Tokens are decoded straight from the mapped bytes into packed binary form, so no object
+ * is created per token.  Two formats are supported: hexadecimal tokens, one per line (blank lines, surrounding spaces and
+ * Windows line endings are tolerated), and binary tokens stored back to back.</p>
+ * <p>
+ * <p>Invalid lines are skipped and reported by their offset in the file, so that they can be found and fixed at the source.</p>
+ */
+public class TokenFileLoader {
+  private static final Logger logger = LoggerFactory.getLogger(TokenFileLoader.class);
+  private static final int DEFAULT_TOKEN_LENGTH = 32;
+  private static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+  private static final int SCAN_SIZE = 256;
+
+  private final FORMAT format;
+  private final int tokenLength;
+  private int chunkSize = DEFAULT_CHUNK_SIZE;
+  private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+  /**
+   * Create a loader for files of 32-byte hexadecimal tokens, one per line.
+   */
+  public TokenFileLoader() {
+    this(FORMAT.HEX_LINES);
+  }
+
+  /**
+   * Create a loader for files of 32-byte tokens.
+   *
+   * @param format the format of files
+   */
+  public TokenFileLoader(final FORMAT format) {
+    this(format, DEFAULT_TOKEN_LENGTH);
+  }
+
+  /**
+   * Create a loader for files of tokens.
+   *
+   * @param format      the format of files
+   * @param tokenLength the length of every binary token, in bytes
+   */
+  public TokenFileLoader(final FORMAT format, final int tokenLength) {
+    if (tokenLength <= 0) {
+      throw new IllegalArgumentException("Token length must be positive");
+    }
+    this.format = format;
+    this.tokenLength = tokenLength;
+  }
+
+  /**
+   * Load all valid tokens of a file, logging invalid lines.
+   *
+   * @param file a file of tokens
+   * @return a new store holding the valid tokens, in the order of the file
+   * @throws IOException if the file cannot be read
+   */
+  public TokenStore load(final File file) throws IOException {
+    final long[] invalid = {0};
+    final TokenStore store = load(file, offset -> {
+      invalid[0]++;
+      logger.debug("Invalid token at offset {} of {}", offset, file);
+    });
+    if (invalid[0] > 0) {
+      logger.warn("Skipped {} invalid tokens in {}", invalid[0], file);
+    }
+    return store;
+  }
+
+  /**
+   * Load all valid tokens of a file.
+   *
+   * @param file         a file of tokens
+   * @param invalidLines receives the offset in the file of each invalid line (or, in binary format, of an incomplete token at the end), in increasing order
+   * @return a new store holding the valid tokens, in the order of the file
+   * @throws IOException if the file cannot be read
+   */
+  public TokenStore load(final File file, final LongConsumer invalidLines) throws IOException {
+    final TokenStore store = new TokenStore(tokenLength);
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final List<Chunk> chunks = split(channel);
+      /* Only a few chunks are parsed ahead of the one being added, so that memory stays bounded whatever the size of the file */
+      final int inFlight = Math.max(2, pool.getParallelism() * 2);
+      for (int i = 0; i < Math.min(inFlight, chunks.size()); i++) {
+        pool.execute(chunks.get(i));
+      }
+      /* Chunks are added in file order as soon as each is parsed, so that their tokens can be reclaimed early */
+      for (int i = 0; i < chunks.size(); i++) {
+        final Chunk chunk = chunks.get(i);
+        chunk.join();
+        if (i + inFlight < chunks.size()) {
+          pool.execute(chunks.get(i + inFlight));
+        }
+        if (chunk.failure != null) {
+          throw chunk.failure;
+        }
+        store.addTokens(chunk.tokens, 0, chunk.count);
+        chunk.tokens = null;
+        for (int j = 0; j < chunk.invalidCount; j++) {
+          invalidLines.accept(chunk.invalid[j]);
+        }
+      }
+    }
+    return store;
+  }
+
+  /**
+   * Split a file into chunks of roughly the configured size, ending on a line boundary (or a token boundary in binary format).
+   */
+  private List<Chunk> split(final FileChannel channel) throws IOException {
+    final long length = channel.size();
+    final List<Chunk> chunks = new ArrayList<>();
+    final int binaryChunkSize = Math.max(tokenLength, chunkSize / tokenLength * tokenLength);
+    long start = 0;
+    while (start < length) {
+      long end;
+      if (format == FORMAT.BINARY) {
+        end = Math.min(length, start + binaryChunkSize);
+      } else {
+        end = start + chunkSize >= length ? length : nextLine(channel, start + chunkSize, length);
+      }
+      chunks.add(new Chunk(channel, start, end - start));
+      start = end;
+    }
+    return chunks;
+  }
+
+  /**
+   * Find the start of the line following a position.
+   */
+  private static long nextLine(final FileChannel channel, final long position, final long length) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(SCAN_SIZE);
+    long scanned = position;
+    while (scanned < length) {
+      buffer.clear();
+      final int read = channel.read(buffer, scanned);
+      if (read <= 0) {
+        break;
+      }
+      for (int i = 0; i < read; i++) {
+        if (buffer.get(i) == '\n') {
+          return scanned + i + 1;
+        }
+      }
+      scanned += read;
+    }
+    return length;
+  }
+
+  /**
+   * Get the number of bytes of a file parsed by each task.
+   *
+   * @return a number of bytes
+   */
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Set the number of bytes of a file parsed by each task.
+   *
+   * @param chunkSize a number of bytes (default is 8 MB)
+   */
+  public void setChunkSize(final int chunkSize) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("Chunk size must be positive");
+    }
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Set the pool in which files are parsed.
+   *
+   * @param pool a fork-join pool (default is the common pool)
+   */
+  public void setPool(final ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * A part of the file, parsed into packed binary tokens.
+   */
+  private final class Chunk extends RecursiveAction {
+    private static final long serialVersionUID = -5318092236540271178L;
+
+    private final transient FileChannel channel;
+    private final long start;
+    private final long length;
+
+    private byte[] tokens;
+    private int count;
+    private long[] invalid = new long[0];
+    private int invalidCount;
+    private IOException failure;
+
+    Chunk(final FileChannel channel, final long start, final long length) {
+      this.channel = channel;
+      this.start = start;
+      this.length = length;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        if (format == FORMAT.BINARY) {
+          parseBinary(buffer);
+        } else {
+          parseLines(buffer);
+        }
+      } catch (final IOException e) {
+        failure = e;
+      }
+    }
+
+    private void parseBinary(final ByteBuffer buffer) {
+      count = (int) (length / tokenLength);
+      tokens = new byte[count * tokenLength];
+      buffer.get(tokens);
+      if (length % tokenLength != 0) {
+        invalid(start + (long) count * tokenLength);
+      }
+    }
+
+    private void parseLines(final ByteBuffer buffer) {
+      final int limit = (int) length;
+      final int digits = tokenLength * 2;
+      tokens = new byte[(limit / digits + 1) * tokenLength];
+      int lineStart = 0;
+      while (lineStart < limit) {
+        int lineEnd = lineStart;
+        while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+          lineEnd++;
+        }
+        int first = lineStart;
+        int last = lineEnd;
+        while (first < last && isBlank(buffer.get(first))) {
+          first++;
+        }
+        while (last > first && isBlank(buffer.get(last - 1))) {
+          last--;
+        }
+        if (first < last) {
+          if (last - first != digits || !decode(buffer, first)) {
+            invalid(start + lineStart);
+          } else {
+            count++;
+          }
+        }
+        lineStart = lineEnd + 1;
+      }
+    }
+
+    /**
+     * Decode a hexadecimal token into the next slot of the packed tokens.
+     *
+     * @return false if the token contains a character other than a hexadecimal digit
+     */
+    private boolean decode(final ByteBuffer buffer, final int position) {
+      final int offset = count * tokenLength;
+      for (int i = 0; i < tokenLength; i++) {
+        final int high = DeviceTokens.nibble((char) (buffer.get(position + i * 2) & 0xFF));
+        final int low = DeviceTokens.nibble((char) (buffer.get(position + i * 2 + 1) & 0xFF));
+        if (high < 0 || low < 0) {
+          return false;
+        }
+        tokens[offset + i] = (byte) (high << 4 | low);
+      }
+      return true;
+    }
+
+    private boolean isBlank(final byte value) {
+      return value == ' ' || value == '\t' || value == '\r';
+    }
+
+    private void invalid(final long offset) {
+      if (invalidCount == invalid.length) {
+        invalid = Arrays.copyOf(invalid, Math.max(8, invalidCount * 2));
+      }
+      invalid[invalidCount++] = offset;
+    }
+  }
+
+  /**
+   * Formats of token files.
+   */
+  public enum FORMAT {
+    /**
+     * Tokens in hexadecimal form, one per line
+     */
+    HEX_LINES,
+
+    /**
+     * Binary tokens stored back to back, without any separator
+     */
+    BINARY
+  }
+}
@@ -0,0 +1,300 @@
+package javapns.devices;
+
+import javapns.devices.exceptions.InvalidDeviceTokenFormatException;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A compact list of devices for very large broadcasts, storing only binary tokens outside of the Java heap.
+ * <p>
+ * <p>Tokens are packed back to back in direct buffers of fixed size, so that a device takes exactly the length of its binary token
+ * (32 bytes for current tokens), compared to a few hundred bytes of heap for a {@link javapns.devices.implementations.basic.BasicDevice}.
+ * Devices returned by {@link #get(int)} are lightweight views over the store, which rebuild the hexadecimal token only when asked for it
+ * and can be discarded as soon as the notification is pushed.</p>
+ * <p>
+ * <p>A store can be given anywhere a list of devices is accepted.  Since it supports random access, {@link javapns.notification.transmission.NotificationThreads}
+ * splits it into index ranges (sub-lists) without copying any token.</p>
+ * <p>
+ * <p>A store is filled by a single thread before being pushed to; once filled, it can be read by any number of threads.</p>
+ */
+public class TokenStore extends AbstractList<Device> implements RandomAccess {
+  private static final int DEFAULT_TOKEN_LENGTH = 32;
+  private static final int SEGMENT_SHIFT = 16;
+  private static final int SEGMENT_TOKENS = 1 << SEGMENT_SHIFT;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final int tokenLength;
+  private ByteBuffer[] segments = new ByteBuffer[0];
+  private volatile int size;
+
+  /**
+   * Create an empty store for 32-byte tokens.
+   */
+  public TokenStore() {
+    this(DEFAULT_TOKEN_LENGTH);
+  }
+
+  /**
+   * Create an empty store for tokens of a given length.
+   *
+   * @param tokenLength the length of every binary token, in bytes
+   */
+  public TokenStore(final int tokenLength) {
+    if (tokenLength <= 0) {
+      throw new IllegalArgumentException("Token length must be positive");
+    }
+    this.tokenLength = tokenLength;
+  }
+
+  /**
+   * Create a store holding 32-byte tokens.
+   *
+   * @param tokens tokens in hexadecimal form
+   * @return a new store
+   * @throws InvalidDeviceTokenFormatException if a token is not a 32-byte hexadecimal token
+   */
+  public static TokenStore of(final Iterable<? extends CharSequence> tokens) throws InvalidDeviceTokenFormatException {
+    final TokenStore store = new TokenStore();
+    for (final CharSequence token : tokens) {
+      store.addToken(token);
+    }
+    return store;
+  }
+
+  /**
+   * Add a token in hexadecimal form.
+   *
+   * @param token a token
+   * @return the index of the token in this store
+   * @throws InvalidDeviceTokenFormatException if the token is not made of hexadecimal digits or does not have the length of this store's tokens
+   */
+  public int addToken(final CharSequence token) throws InvalidDeviceTokenFormatException {
+    if (token == null || token.length() != tokenLength * 2) {
+      throw new InvalidDeviceTokenFormatException("Device token must be " + tokenLength * 2 + " hexadecimal digits: " + token);
+    }
+    final ByteBuffer segment = segmentForAppend();
+    int position = (size & (SEGMENT_TOKENS - 1)) * tokenLength;
+    for (int i = 0; i < token.length(); i += 2) {
+      final int high = DeviceTokens.nibble(token.charAt(i));
+      final int low = DeviceTokens.nibble(token.charAt(i + 1));
+      if (high < 0 || low < 0) {
+        throw new InvalidDeviceTokenFormatException("Device token must be " + tokenLength * 2 + " hexadecimal digits: " + token);
+      }
+      segment.put(position++, (byte) (high << 4 | low));
+    }
+    return size++;
+  }
+
+  /**
+   * Add a token in binary form.
+   *
+   * @param token a token
+   * @return the index of the token in this store
+   * @throws InvalidDeviceTokenFormatException if the token does not have the length of this store's tokens
+   */
+  public int addToken(final byte[] token) throws InvalidDeviceTokenFormatException {
+    if (token.length != tokenLength) {
+      throw new InvalidDeviceTokenFormatException("Device token must be " + tokenLength + " bytes long");
+    }
+    final ByteBuffer segment = segmentForAppend();
+    final int position = (size & (SEGMENT_TOKENS - 1)) * tokenLength;
+    for (int i = 0; i < tokenLength; i++) {
+      segment.put(position + i, token[i]);
+    }
+    return size++;
+  }
+
+  /**
+   * Add binary tokens packed back to back.
+   *
+   * @param tokens an array of packed binary tokens
+   * @param offset the index in the array of the first byte of the first token
+   * @param count  the number of tokens to add
+   */
+  public void addTokens(final byte[] tokens, final int offset, final int count) {
+    if (offset < 0 || count < 0 || offset + (long) count * tokenLength > tokens.length) {
+      throw new IndexOutOfBoundsException("Not enough bytes for " + count + " tokens");
+    }
+    int added = 0;
+    while (added < count) {
+      final ByteBuffer segment = segmentForAppend();
+      final int slot = size & (SEGMENT_TOKENS - 1);
+      final int batch = Math.min(count - added, SEGMENT_TOKENS - slot);
+      final ByteBuffer destination = segment.duplicate();
+      destination.position(slot * tokenLength);
+      destination.put(tokens, offset + added * tokenLength, batch * tokenLength);
+      added += batch;
+      size += batch;
+    }
+  }
+
+  /**
+   * Add the token of a device.  Only the token is kept.
+   *
+   * @param device a device
+   * @return true
+   * @throws IllegalArgumentException if the token is invalid
+   */
+  @Override
+  public boolean add(final Device device) {
+    try {
+      addToken(device.getToken());
+    } catch (final InvalidDeviceTokenFormatException e) {
+      throw new IllegalArgumentException(e.getMessage(), e);
+    }
+    return true;
+  }
+
+  private ByteBuffer segmentForAppend() {
+    final int segment = size >>> SEGMENT_SHIFT;
+    if (segment == segments.length) {
+      segments = Arrays.copyOf(segments, segment + 1);
+      segments[segment] = ByteBuffer.allocateDirect(SEGMENT_TOKENS * tokenLength);
+    }
+    return segments[segment];
+  }
+
+  /**
+   * Get a lightweight device view over a token of this store.
+   *
+   * @param index the index of a token
+   * @return a device whose token is read from this store
+   */
+  @Override
+  public Device get(final int index) {
+    checkIndex(index);
+    return new StoredDevice(index);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the length of every binary token in this store.
+   *
+   * @return a number of bytes
+   */
+  public int getTokenLength() {
+    return tokenLength;
+  }
+
+  /**
+   * Copy a binary token into an array.
+   *
+   * @param index       the index of a token
+   * @param destination an array of at least {@code offset + getTokenLength()} bytes
+   * @param offset      the index in the array at which to copy the token
+   */
+  public void getToken(final int index, final byte[] destination, final int offset) {
+    checkIndex(index);
+    final ByteBuffer segment = segments[index >>> SEGMENT_SHIFT];
+    final int position = (index & (SEGMENT_TOKENS - 1)) * tokenLength;
+    for (int i = 0; i < tokenLength; i++) {
+      destination[offset + i] = segment.get(position + i);
+    }
+  }
+
+  /**
+   * Get a token in hexadecimal form.
+   *
+   * @param index the index of a token
+   * @return a token made of lowercase hexadecimal digits
+   */
+  public String getToken(final int index) {
+    checkIndex(index);
+    final ByteBuffer segment = segments[index >>> SEGMENT_SHIFT];
+    final int position = (index & (SEGMENT_TOKENS - 1)) * tokenLength;
+    final char[] hex = new char[tokenLength * 2];
+    for (int i = 0; i < tokenLength; i++) {
+      final int value = segment.get(position + i);
+      hex[i * 2] = HEX[(value >>> 4) & 0x0F];
+      hex[i * 2 + 1] = HEX[value & 0x0F];
+    }
+    return new String(hex);
+  }
+
+  /**
+   * Replace a token.
+   *
+   * @param index the index of a token
+   * @param token the new token in hexadecimal form
+   * @throws InvalidDeviceTokenFormatException if the token is not made of hexadecimal digits or does not have the length of this store's tokens
+   */
+  public void setToken(final int index, final CharSequence token) throws InvalidDeviceTokenFormatException {
+    checkIndex(index);
+    if (token == null || token.length() != tokenLength * 2) {
+      throw new InvalidDeviceTokenFormatException("Device token must be " + tokenLength * 2 + " hexadecimal digits: " + token);
+    }
+    final byte[] binary = new byte[tokenLength];
+    for (int i = 0; i < tokenLength; i++) {
+      final int high = DeviceTokens.nibble(token.charAt(i * 2));
+      final int low = DeviceTokens.nibble(token.charAt(i * 2 + 1));
+      if (high < 0 || low < 0) {
+        throw new InvalidDeviceTokenFormatException("Device token must be " + tokenLength * 2 + " hexadecimal digits: " + token);
+      }
+      binary[i] = (byte) (high << 4 | low);
+    }
+    final ByteBuffer segment = segments[index >>> SEGMENT_SHIFT];
+    final int position = (index & (SEGMENT_TOKENS - 1)) * tokenLength;
+    for (int i = 0; i < tokenLength; i++) {
+      segment.put(position + i, binary[i]);
+    }
+  }
+
+  private void checkIndex(final int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+
+  /**
+   * A device whose token is read from the store each time it is needed.
+   * The device identifier is the token, and no registration time is known.
+   */
+  private final class StoredDevice implements Device {
+    private final int index;
+
+    StoredDevice(final int index) {
+      this.index = index;
+    }
+
+    public String getDeviceId() {
+      return getToken();
+    }
+
+    public void setDeviceId(final String id) {
+      throw new UnsupportedOperationException("Devices of a token store have no identifier other than their token");
+    }
+
+    public String getToken() {
+      return TokenStore.this.getToken(index);
+    }
+
+    public void setToken(final String token) {
+      try {
+        TokenStore.this.setToken(index, token);
+      } catch (final InvalidDeviceTokenFormatException e) {
+        throw new IllegalArgumentException(e.getMessage(), e);
+      }
+    }
+
+    public Timestamp getLastRegister() {
+      return null;
+    }
+
+    public void setLastRegister(final Timestamp lastRegister) {
+      throw new UnsupportedOperationException("Devices of a token store have no registration time");
+    }
+
+    @Override
+    public String toString() {
+      return getToken();
+    }
+  }
+}
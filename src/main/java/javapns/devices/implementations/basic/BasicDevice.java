@@ -1,6 +1,7 @@
 package javapns.devices.implementations.basic;
 
 import javapns.devices.Device;
+import javapns.devices.DeviceTokens;
 import javapns.devices.exceptions.InvalidDeviceTokenFormatException;
 
 import java.sql.Timestamp;
@@ -71,9 +72,7 @@ public class BasicDevice implements Device {
   }
 
   public static void validateTokenFormat(String token) throws InvalidDeviceTokenFormatException {
-    if (token == null) {
-      throw new InvalidDeviceTokenFormatException("Device token may not be null");
-    }
+    DeviceTokens.validate(token);
   }
 
   public void validateTokenFormat() throws InvalidDeviceTokenFormatException {
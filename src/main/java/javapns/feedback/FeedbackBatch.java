@@ -0,0 +1,244 @@
+package javapns.feedback;
+
+import javapns.devices.DeviceTokens;
+import javapns.devices.TokenStore;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A compact list of devices reported by the Feedback Service, for processing very large feedback backlogs.
+ * <p>
+ * <p>Tokens are packed back to back in binary form and times are kept as they are sent by Apple (4-byte numbers of seconds),
+ * so a device takes 36 bytes of heap instead of a {@link javapns.devices.implementations.basic.BasicDevice} and a
+ * {@link java.sql.Timestamp}: a million devices fit in about 36 MB, and no object is created per device.</p>
+ * <p>
+ * <p>A batch can be sorted by time, deduplicated by token, and exported to a {@link TokenStore}, a {@link FeedbackListener} or a stream
+ * in Apple's own tuple format.  A batch is not thread-safe.</p>
+ *
+ * @see FeedbackServiceManager#getBatch(AppleFeedbackServer)
+ */
+public class FeedbackBatch {
+  private static final int DEFAULT_TOKEN_LENGTH = 32;
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final int tokenLength;
+  private byte[] tokens;
+  private int[] seconds;
+  private int size;
+
+  /**
+   * Create an empty batch for 32-byte tokens.
+   */
+  public FeedbackBatch() {
+    this(DEFAULT_TOKEN_LENGTH);
+  }
+
+  /**
+   * Create an empty batch for tokens of a given length.
+   *
+   * @param tokenLength the length of every binary token, in bytes
+   */
+  public FeedbackBatch(final int tokenLength) {
+    if (tokenLength <= 0) {
+      throw new IllegalArgumentException("Token length must be positive");
+    }
+    this.tokenLength = tokenLength;
+    this.tokens = new byte[INITIAL_CAPACITY * tokenLength];
+    this.seconds = new int[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Add a device.
+   *
+   * @param token   an array holding a binary token
+   * @param offset  the index in the array of the first byte of the token
+   * @param seconds the time at which the device was found inactive, in seconds since the epoch (unsigned)
+   */
+  public void add(final byte[] token, final int offset, final int seconds) {
+    if (size == this.seconds.length) {
+      final int capacity = size * 2;
+      tokens = Arrays.copyOf(tokens, capacity * tokenLength);
+      this.seconds = Arrays.copyOf(this.seconds, capacity);
+    }
+    System.arraycopy(token, offset, tokens, size * tokenLength, tokenLength);
+    this.seconds[size++] = seconds;
+  }
+
+  /**
+   * Get the number of devices in the batch.
+   *
+   * @return a number of devices
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the length of every binary token.
+   *
+   * @return a number of bytes
+   */
+  public int getTokenLength() {
+    return tokenLength;
+  }
+
+  /**
+   * Get the token of a device, in hexadecimal form.
+   *
+   * @param index the index of a device
+   * @return a token made of lowercase hexadecimal digits
+   */
+  public String getToken(final int index) {
+    checkIndex(index);
+    final char[] hex = new char[tokenLength * 2];
+    DeviceTokens.toHex(tokens, index * tokenLength, tokenLength, hex, 0);
+    return new String(hex);
+  }
+
+  /**
+   * Copy the binary token of a device into an array.
+   *
+   * @param index       the index of a device
+   * @param destination an array receiving the token
+   * @param offset      the index in the array at which the token is written
+   */
+  public void getToken(final int index, final byte[] destination, final int offset) {
+    checkIndex(index);
+    System.arraycopy(tokens, index * tokenLength, destination, offset, tokenLength);
+  }
+
+  /**
+   * Get the time at which a device was found inactive.
+   *
+   * @param index the index of a device
+   * @return a time in milliseconds
+   */
+  public long getTimestamp(final int index) {
+    checkIndex(index);
+    return Integer.toUnsignedLong(seconds[index]) * 1000;
+  }
+
+  /**
+   * Sort devices from the oldest to the most recent time at which they were found inactive.
+   * Devices found inactive at the same time keep their order.
+   */
+  public void sortByTime() {
+    /* Sort (time, index) pairs packed in longs, then move tokens once; flipping the sign bit orders unsigned times with a signed sort */
+    final long[] keys = new long[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] = ((long) seconds[i] << 32 | i) ^ Long.MIN_VALUE;
+    }
+    Arrays.sort(keys);
+    final byte[] sortedTokens = new byte[tokens.length];
+    final int[] sortedSeconds = new int[seconds.length];
+    for (int i = 0; i < size; i++) {
+      final int from = (int) keys[i];
+      System.arraycopy(tokens, from * tokenLength, sortedTokens, i * tokenLength, tokenLength);
+      sortedSeconds[i] = seconds[from];
+    }
+    tokens = sortedTokens;
+    seconds = sortedSeconds;
+  }
+
+  /**
+   * Keep a single entry per token, with the most recent time at which the token was found inactive.
+   * Entries keep the order in which their tokens first appear.
+   *
+   * @return the number of entries removed
+   */
+  public int deduplicate() {
+    final int capacity = Integer.highestOneBit(Math.max(2, size * 2 - 1)) << 1;
+    /* Open-addressing table of kept entries, storing index + 1 so that 0 marks a free slot */
+    final int[] table = new int[capacity];
+    final int mask = capacity - 1;
+    int kept = 0;
+    for (int i = 0; i < size; i++) {
+      int slot = hash(i) & mask;
+      while (table[slot] != 0 && !sameToken(table[slot] - 1, i)) {
+        slot = (slot + 1) & mask;
+      }
+      if (table[slot] != 0) {
+        final int existing = table[slot] - 1;
+        if (Integer.compareUnsigned(seconds[i], seconds[existing]) > 0) {
+          seconds[existing] = seconds[i];
+        }
+      } else {
+        if (kept != i) {
+          System.arraycopy(tokens, i * tokenLength, tokens, kept * tokenLength, tokenLength);
+          seconds[kept] = seconds[i];
+        }
+        table[slot] = kept + 1;
+        kept++;
+      }
+    }
+    final int removed = size - kept;
+    size = kept;
+    return removed;
+  }
+
+  /**
+   * Copy all tokens into a new off-heap store, for example to push a notification to them or to remove them from a database.
+   *
+   * @return a new store, in the order of the batch
+   */
+  public TokenStore toTokenStore() {
+    final TokenStore store = new TokenStore(tokenLength);
+    store.addTokens(tokens, 0, size);
+    return store;
+  }
+
+  /**
+   * Give every device to a listener, in order.
+   * As with {@link FeedbackDecoder}, the token given to the listener is only valid during the call.
+   *
+   * @param listener receives each device
+   */
+  public void forEach(final FeedbackListener listener) {
+    final char[] hex = new char[tokenLength * 2];
+    final StringBuilder token = new StringBuilder(hex.length);
+    for (int i = 0; i < size; i++) {
+      DeviceTokens.toHex(tokens, i * tokenLength, tokenLength, hex, 0);
+      token.setLength(0);
+      token.append(hex);
+      listener.deviceInactive(token, getTimestamp(i));
+    }
+  }
+
+  /**
+   * Write all devices to a stream in the format of the Feedback Service, which {@link FeedbackDecoder} can read back.
+   *
+   * @param output a stream, which is not closed
+   * @throws IOException if the stream cannot be written
+   */
+  public void writeTo(final OutputStream output) throws IOException {
+    final DataOutputStream data = new DataOutputStream(output);
+    for (int i = 0; i < size; i++) {
+      data.writeInt(seconds[i]);
+      data.writeShort(tokenLength);
+      data.write(tokens, i * tokenLength, tokenLength);
+    }
+    data.flush();
+  }
+
+  private boolean sameToken(final int a, final int b) {
+    return Arrays.equals(tokens, a * tokenLength, (a + 1) * tokenLength, tokens, b * tokenLength, (b + 1) * tokenLength);
+  }
+
+  private int hash(final int index) {
+    int hash = 1;
+    final int offset = index * tokenLength;
+    for (int i = 0; i < tokenLength; i++) {
+      hash = 31 * hash + tokens[offset + i];
+    }
+    return hash ^ hash >>> 16;
+  }
+
+  private void checkIndex(final int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " is not in a batch of " + size + " devices");
+    }
+  }
+}
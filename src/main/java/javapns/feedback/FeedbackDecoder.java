@@ -0,0 +1,164 @@
+package javapns.feedback;
+
+import javapns.devices.DeviceTokens;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes the tuples sent by the Feedback Service as they arrive on a stream.
+ * <p>
+ * <p>Each tuple is made of a 4-byte timestamp (in seconds), a 2-byte token length and the binary token (38 bytes for 32-byte tokens).
+ * Bytes are read into a single reused buffer and tokens are decoded into a reused array of hexadecimal digits, so any number of
+ * tuples is decoded in constant memory without creating objects per tuple.</p>
+ * <p>
+ * <p>A decoder is not thread-safe, but it can decode any number of streams one after the other.</p>
+ */
+public class FeedbackDecoder {
+  private static final Logger logger = LoggerFactory.getLogger(FeedbackDecoder.class);
+
+  private static final int HEADER_LENGTH = 6;
+  private static final int MAX_TOKEN_LENGTH = 100;
+  private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  private final byte[] buffer;
+  private final char[] digits = new char[MAX_TOKEN_LENGTH * 2];
+  private final Token token = new Token(digits);
+
+  /**
+   * Create a decoder reading 8 KB at a time.
+   */
+  public FeedbackDecoder() {
+    this(DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Create a decoder.
+   *
+   * @param bufferSize the number of bytes read at a time, at least enough for one tuple with the longest token (106 bytes)
+   */
+  public FeedbackDecoder(final int bufferSize) {
+    if (bufferSize < HEADER_LENGTH + MAX_TOKEN_LENGTH) {
+      throw new IllegalArgumentException("Buffer size must be at least " + (HEADER_LENGTH + MAX_TOKEN_LENGTH) + " bytes");
+    }
+    this.buffer = new byte[bufferSize];
+  }
+
+  /**
+   * Decode all tuples of a stream, until its end.
+   *
+   * @param input    a stream of feedback tuples
+   * @param listener receives each device as soon as its tuple is complete
+   * @return the number of devices decoded
+   * @throws IOException if the stream cannot be read or holds an invalid token length
+   */
+  public long decode(final InputStream input, final FeedbackListener listener) throws IOException {
+    return decode(input, (tuple, tokenOffset, tokenLength, seconds) -> {
+      DeviceTokens.toHex(tuple, tokenOffset, tokenLength, digits, 0);
+      token.length = tokenLength * 2;
+      listener.deviceInactive(token, seconds * 1000);
+    });
+  }
+
+  /**
+   * Decode all tuples of a stream into a batch, until its end.
+   * Tokens are copied in binary form, without being converted to hexadecimal.  Tokens which do not have the length of the batch's tokens are skipped.
+   *
+   * @param input a stream of feedback tuples
+   * @param batch receives each device
+   * @return the number of devices added to the batch
+   * @throws IOException if the stream cannot be read or holds an invalid token length
+   */
+  public long decode(final InputStream input, final FeedbackBatch batch) throws IOException {
+    final long[] skipped = {0};
+    final long decoded = decode(input, (tuple, tokenOffset, tokenLength, seconds) -> {
+      if (tokenLength == batch.getTokenLength()) {
+        batch.add(tuple, tokenOffset, (int) seconds);
+      } else {
+        skipped[0]++;
+      }
+    });
+    if (skipped[0] > 0) {
+      logger.warn("Skipped {} feedback tokens not {} bytes long", skipped[0], batch.getTokenLength());
+    }
+    return decoded - skipped[0];
+  }
+
+  private long decode(final InputStream input, final TupleHandler handler) throws IOException {
+    long count = 0;
+    int start = 0;
+    int end = 0;
+    while (true) {
+      while (end - start >= HEADER_LENGTH) {
+        final int tokenLength = (buffer[start + 4] & 0xFF) << 8 | buffer[start + 5] & 0xFF;
+        if (tokenLength > MAX_TOKEN_LENGTH) {
+          throw new IOException("Invalid token length in feedback tuple: " + tokenLength);
+        }
+        if (end - start < HEADER_LENGTH + tokenLength) {
+          break;
+        }
+        final long seconds = (buffer[start] & 0xFFL) << 24 | (buffer[start + 1] & 0xFF) << 16 | (buffer[start + 2] & 0xFF) << 8 | buffer[start + 3] & 0xFF;
+        handler.tuple(buffer, start + HEADER_LENGTH, tokenLength, seconds);
+        start += HEADER_LENGTH + tokenLength;
+        count++;
+      }
+      /* Move the incomplete tuple, if any, to the start of the buffer */
+      System.arraycopy(buffer, start, buffer, 0, end - start);
+      end -= start;
+      start = 0;
+      final int read = input.read(buffer, end, buffer.length - end);
+      if (read < 0) {
+        if (end > 0) {
+          logger.warn("Ignoring {} bytes of an incomplete feedback tuple", end);
+        }
+        return count;
+      }
+      end += read;
+    }
+  }
+
+  /**
+   * Handles a complete tuple, still in the read buffer.
+   */
+  @FunctionalInterface
+  private interface TupleHandler {
+    void tuple(byte[] tuple, int tokenOffset, int tokenLength, long seconds);
+  }
+
+  /**
+   * A view over the reused array of hexadecimal digits.
+   */
+  private static final class Token implements CharSequence {
+    private final char[] digits;
+    private int length;
+
+    Token(final char[] digits) {
+      this.digits = digits;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(final int index) {
+      if (index >= length) {
+        throw new IndexOutOfBoundsException(index);
+      }
+      return digits[index];
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+      return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+      return new String(digits, 0, length);
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package javapns.feedback;
+
+/**
+ * Receives the devices reported by the Feedback Service one at a time, as they are read from the connection.
+ */
+@FunctionalInterface
+public interface FeedbackListener {
+
+  /**
+   * Called for each device reported by the Feedback Service.
+   * <p>
+   * <p>The token is a view over a buffer which is reused for the next device: it is only valid during this call,
+   * so call {@link CharSequence#toString()} on it to keep it.</p>
+   *
+   * @param token     the device token, in lowercase hexadecimal form
+   * @param timestamp the time (in milliseconds) at which Apple found the application uninstalled from the device
+   */
+  void deviceInactive(CharSequence token, long timestamp);
+}
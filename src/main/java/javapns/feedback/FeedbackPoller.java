@@ -0,0 +1,415 @@
+package javapns.feedback;
+
+import javapns.communication.exceptions.CommunicationException;
+import javapns.communication.exceptions.KeystoreException;
+import javapns.devices.DeviceRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Polls the Feedback Service in the background and removes inactive devices continuously, instead of in a large nightly job.
+ * <p>
+ * <p>Every interval (plus a random jitter, so that several servers do not poll at the same time), the poller streams the devices
+ * reported by the Feedback Service into a {@link FeedbackSink}, in batches.  The sink compares the time each device was found
+ * inactive with its last registration, so that devices which reinstalled the application since are kept.</p>
+ * <p>
+ * <p>Apple sends each device only once, so devices the sink fails to take are kept in memory (up to a limit) and given to the sink
+ * again at the start of the next poll, before the Feedback Service is read again.  While the sink fails, the Feedback Service
+ * is not read, and keeps reporting devices to a later poll.</p>
+ * <p>
+ * <p>Counts and lag (the time between Apple finding a device inactive and its removal) are available from getters and logged after every poll.</p>
+ */
+public class FeedbackPoller implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(FeedbackPoller.class);
+
+  private static final long DEFAULT_INTERVAL = 60 * 60 * 1000;
+  private static final long DEFAULT_JITTER = 5 * 60 * 1000;
+  private static final int DEFAULT_BATCH_SIZE = 1000;
+  private static final int DEFAULT_MAX_RETAINED = 100000;
+
+  private final FeedbackSource source;
+  private final FeedbackSink sink;
+  private long interval = DEFAULT_INTERVAL;
+  private long jitter = DEFAULT_JITTER;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private int maxRetained = DEFAULT_MAX_RETAINED;
+  private ScheduledExecutorService scheduler;
+
+  /* Batches the sink failed to take, oldest first, given to it again by the next poll; guarded by pollLock */
+  private final Object pollLock = new Object();
+  private final Deque<Batch> retained = new ArrayDeque<>();
+  private int retainedDevices;
+
+  private final AtomicLong polls = new AtomicLong();
+  private final AtomicLong failedPolls = new AtomicLong();
+  private final AtomicLong devicesReported = new AtomicLong();
+  private final AtomicLong devicesRemoved = new AtomicLong();
+  private final AtomicLong devicesDropped = new AtomicLong();
+  private volatile long lastPollTime;
+  private volatile long lastLag;
+
+  /**
+   * Create a poller removing inactive devices from a registry.
+   *
+   * @param server   the Feedback Service to poll
+   * @param registry the registry from which inactive devices are removed
+   */
+  public FeedbackPoller(final AppleFeedbackServer server, final DeviceRegistry registry) {
+    this(server, (tokens, timestamps, count) -> {
+      int removed = 0;
+      for (int i = 0; i < count; i++) {
+        if (registry.removeToken(tokens[i], timestamps[i])) {
+          removed++;
+        }
+      }
+      return removed;
+    });
+  }
+
+  /**
+   * Create a poller.
+   *
+   * @param server the Feedback Service to poll
+   * @param sink   the destination of inactive devices
+   */
+  public FeedbackPoller(final AppleFeedbackServer server, final FeedbackSink sink) {
+    this(listener -> new FeedbackServiceManager().processDevices(server, listener), sink);
+  }
+
+  FeedbackPoller(final FeedbackSource source, final FeedbackSink sink) {
+    this.source = source;
+    this.sink = sink;
+  }
+
+  /**
+   * Start polling in a background daemon thread.  The first poll happens after a random part of the jitter.
+   */
+  public synchronized void start() {
+    if (scheduler != null) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "JavaPNS feedback poller");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.schedule(this::pollAndReschedule, randomJitter(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop polling.  A poll in progress is allowed to finish.
+   */
+  @Override
+  public synchronized void close() {
+    if (scheduler != null) {
+      scheduler.shutdown();
+      scheduler = null;
+    }
+  }
+
+  private void pollAndReschedule() {
+    try {
+      poll();
+    } catch (final Exception e) {
+      failedPolls.incrementAndGet();
+      logger.warn("Feedback poll failed", e);
+    }
+    synchronized (this) {
+      if (scheduler != null) {
+        scheduler.schedule(this::pollAndReschedule, interval + randomJitter(), TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  private long randomJitter() {
+    return jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter + 1) : 0;
+  }
+
+  /**
+   * Poll the Feedback Service now, in the calling thread.
+   * Devices kept from a previous poll because the sink failed are given to the sink first.
+   *
+   * @return the number of devices removed
+   * @throws KeystoreException      if the keystore cannot be loaded
+   * @throws CommunicationException if the Feedback Service cannot be read (devices read before the failure are still given to the sink), or if the sink fails (devices it failed to take are kept for the next poll)
+   */
+  public long poll() throws KeystoreException, CommunicationException {
+    synchronized (pollLock) {
+      final long start = System.currentTimeMillis();
+      final long redelivered = redeliver();
+      final String[] tokens = new String[batchSize];
+      final long[] timestamps = new long[batchSize];
+      final int[] pending = {0};
+      final long[] removed = {redelivered};
+      final long[] oldest = {Long.MAX_VALUE};
+      final Exception[] failure = {null};
+      final long reported;
+      try {
+        reported = source.read((token, timestamp) -> {
+          tokens[pending[0]] = token.toString();
+          timestamps[pending[0]] = timestamp;
+          oldest[0] = Math.min(oldest[0], timestamp);
+          if (++pending[0] == tokens.length) {
+            removed[0] += flush(tokens, timestamps, pending[0], failure);
+            pending[0] = 0;
+          }
+        });
+      } finally {
+        /* Apple does not report these devices again, so the last batch is given to the sink (or kept) even if reading failed midway */
+        if (pending[0] > 0) {
+          removed[0] += flush(tokens, timestamps, pending[0], failure);
+        }
+        devicesRemoved.addAndGet(removed[0]);
+      }
+      final long end = System.currentTimeMillis();
+      devicesReported.addAndGet(reported);
+      if (failure[0] != null) {
+        throw new CommunicationException("Feedback sink failed, " + retainedDevices + " devices kept for the next poll", failure[0]);
+      }
+      polls.incrementAndGet();
+      lastPollTime = end;
+      lastLag = reported > 0 ? Math.max(0, end - oldest[0]) : 0;
+      logger.info("Feedback poll: {} devices reported, {} removed, {} kept, lag {} ms, took {} ms", reported, removed[0], reported - (removed[0] - redelivered), lastLag, end - start);
+      return removed[0];
+    }
+  }
+
+  /**
+   * Give a batch to the sink or, if the sink failed during this poll, keep it for the next poll.
+   */
+  private int flush(final String[] tokens, final long[] timestamps, final int count, final Exception[] failure) {
+    if (failure[0] == null) {
+      try {
+        return sink.removeInactive(tokens, timestamps, count);
+      } catch (final IOException | RuntimeException e) {
+        failure[0] = e;
+      }
+    }
+    retain(new Batch(Arrays.copyOf(tokens, count), Arrays.copyOf(timestamps, count)));
+    return 0;
+  }
+
+  /**
+   * Give the batches kept by previous polls to the sink, oldest first.
+   */
+  private long redeliver() throws CommunicationException {
+    long removed = 0;
+    while (!retained.isEmpty()) {
+      final Batch batch = retained.peekFirst();
+      try {
+        removed += sink.removeInactive(batch.tokens, batch.timestamps, batch.tokens.length);
+      } catch (final IOException | RuntimeException e) {
+        devicesRemoved.addAndGet(removed);
+        throw new CommunicationException("Feedback sink failed, " + retainedDevices + " devices kept for the next poll", e);
+      }
+      retained.pollFirst();
+      retainedDevices -= batch.tokens.length;
+    }
+    if (removed > 0) {
+      logger.info("Feedback poll: {} devices kept from a previous poll removed", removed);
+    }
+    return removed;
+  }
+
+  private void retain(final Batch batch) {
+    retained.addLast(batch);
+    retainedDevices += batch.tokens.length;
+    while (retainedDevices > maxRetained) {
+      final Batch dropped = retained.pollFirst();
+      retainedDevices -= dropped.tokens.length;
+      devicesDropped.addAndGet(dropped.tokens.length);
+      logger.warn("Feedback sink failing, dropped {} inactive devices kept for too long", dropped.tokens.length);
+    }
+  }
+
+  /**
+   * Get the number of milliseconds between polls, to which a random jitter is added.
+   *
+   * @return a number of milliseconds
+   */
+  public long getInterval() {
+    return interval;
+  }
+
+  /**
+   * Set the number of milliseconds between polls.
+   *
+   * @param interval a number of milliseconds (default is one hour)
+   */
+  public void setInterval(final long interval) {
+    if (interval <= 0) {
+      throw new IllegalArgumentException("Interval must be positive");
+    }
+    this.interval = interval;
+  }
+
+  /**
+   * Get the maximum random delay added to each interval.
+   *
+   * @return a number of milliseconds
+   */
+  public long getJitter() {
+    return jitter;
+  }
+
+  /**
+   * Set the maximum random delay added to each interval.
+   *
+   * @param jitter a number of milliseconds (default is 5 minutes)
+   */
+  public void setJitter(final long jitter) {
+    if (jitter < 0) {
+      throw new IllegalArgumentException("Jitter must not be negative");
+    }
+    this.jitter = jitter;
+  }
+
+  /**
+   * Get the number of devices given to the sink at once.
+   *
+   * @return a number of devices
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Set the number of devices given to the sink at once.
+   *
+   * @param batchSize a number of devices (default is 1000)
+   */
+  public void setBatchSize(final int batchSize) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("Batch size must be positive");
+    }
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Get the maximum number of devices kept in memory while the sink fails.
+   *
+   * @return a number of devices
+   */
+  public int getMaxRetained() {
+    return maxRetained;
+  }
+
+  /**
+   * Set the maximum number of devices kept in memory while the sink fails.  Beyond it, the oldest batches are dropped.
+   *
+   * @param maxRetained a number of devices (default is 100000)
+   */
+  public void setMaxRetained(final int maxRetained) {
+    if (maxRetained < 0) {
+      throw new IllegalArgumentException("Maximum retained devices must not be negative");
+    }
+    this.maxRetained = maxRetained;
+  }
+
+  /**
+   * Get the number of devices kept because the sink failed, waiting to be given to the sink by the next poll.
+   *
+   * @return a number of devices
+   */
+  public int getRetainedDevices() {
+    synchronized (pollLock) {
+      return retainedDevices;
+    }
+  }
+
+  /**
+   * Get the number of devices dropped because the sink failed for too long.
+   *
+   * @return a number of devices
+   */
+  public long getDevicesDropped() {
+    return devicesDropped.get();
+  }
+
+  /**
+   * Get the number of successful polls.
+   *
+   * @return a number of polls
+   */
+  public long getPolls() {
+    return polls.get();
+  }
+
+  /**
+   * Get the number of polls which failed.
+   *
+   * @return a number of polls
+   */
+  public long getFailedPolls() {
+    return failedPolls.get();
+  }
+
+  /**
+   * Get the number of devices reported by the Feedback Service since the poller was created.
+   *
+   * @return a number of devices
+   */
+  public long getDevicesReported() {
+    return devicesReported.get();
+  }
+
+  /**
+   * Get the number of devices removed since the poller was created.
+   * Reported devices which were not removed had registered again since.
+   *
+   * @return a number of devices
+   */
+  public long getDevicesRemoved() {
+    return devicesRemoved.get();
+  }
+
+  /**
+   * Get the time at which the last successful poll ended.
+   *
+   * @return a time in milliseconds, or 0 if no poll succeeded yet
+   */
+  public long getLastPollTime() {
+    return lastPollTime;
+  }
+
+  /**
+   * Get the time between Apple finding the oldest device of the last poll inactive and the end of that poll.
+   *
+   * @return a number of milliseconds, or 0 if the last poll reported no device
+   */
+  public long getLastLag() {
+    return lastLag;
+  }
+
+  /**
+   * Devices the sink failed to take.
+   */
+  private static final class Batch {
+    private final String[] tokens;
+    private final long[] timestamps;
+
+    Batch(final String[] tokens, final long[] timestamps) {
+      this.tokens = tokens;
+      this.timestamps = timestamps;
+    }
+  }
+
+  /**
+   * Reads devices from the Feedback Service.
+   */
+  @FunctionalInterface
+  interface FeedbackSource {
+    long read(FeedbackListener listener) throws KeystoreException, CommunicationException;
+  }
+}
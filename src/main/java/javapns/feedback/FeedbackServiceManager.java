@@ -4,18 +4,16 @@ import javapns.communication.exceptions.CommunicationException;
 import javapns.communication.exceptions.KeystoreException;
 import javapns.devices.Device;
 import javapns.devices.DeviceFactory;
+import javapns.devices.DeviceRegistry;
+import javapns.devices.TokenBlocklist;
 import javapns.devices.implementations.basic.BasicDevice;
 import javapns.devices.implementations.basic.BasicDeviceFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.SSLSocket;
-import java.io.ByteArrayOutputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
 import java.sql.Timestamp;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -27,12 +25,12 @@ public class FeedbackServiceManager {
 
   private static final Logger logger = LoggerFactory.getLogger(FeedbackServiceManager.class);
 
-  /* Length of the tuple sent by Apple */
-  private static final int FEEDBACK_TUPLE_SIZE = 38;
-
   @Deprecated
   private DeviceFactory deviceFactory;
 
+  private TokenBlocklist blocklist;
+  private DeviceRegistry registry;
+
   /**
    * Constructs a FeedbackServiceManager with a supplied DeviceFactory.
    *
@@ -56,97 +54,151 @@ public class FeedbackServiceManager {
    *
    * @param server Connection information for the Apple server
    * @return List of Devices
-   * @throws IOException
-   * @throws FileNotFoundException
-   * @throws CertificateException
-   * @throws NoSuchAlgorithmException
-   * @throws KeyStoreException
-   * @throws KeyManagementException
-   * @throws UnrecoverableKeyException
+   * @throws KeystoreException
+   * @throws CommunicationException
    */
+  public List<Device> getDevices(final AppleFeedbackServer server) throws KeystoreException, CommunicationException {
+    final List<Device> devices = new ArrayList<>();
+    processDevices(server, (token, timestamp) -> {
+      /* Create a basic device, as we do not want to go through the factory and create a device in the actual database... */
+      final Device device = new BasicDevice();
+      device.setToken(token.toString());
+      device.setLastRegister(new Timestamp(timestamp));
+      devices.add(device);
+    });
+    return devices;
+  }
+
   /**
+   * Stream all devices which have un-installed the application to a listener, as they are read from the Feedback Service.
+   * Unlike {@link #getDevices(AppleFeedbackServer)}, this uses constant memory however many devices are reported.
+   *
+   * @param server   Connection information for the Apple server
+   * @param listener receives each device as soon as it is read
+   * @return the number of devices reported
    * @throws KeystoreException
    * @throws CommunicationException
    */
-  public List<Device> getDevices(final AppleFeedbackServer server) throws KeystoreException, CommunicationException {
+  public long processDevices(final AppleFeedbackServer server, final FeedbackListener listener) throws KeystoreException, CommunicationException {
     final ConnectionToFeedbackServer connectionHelper = new ConnectionToFeedbackServer(server);
     final SSLSocket socket = connectionHelper.getSSLSocket();
-    return getDevices(socket);
+    return processDevices(socket, listener);
   }
 
   /**
-   * Retrieves the list of devices from an established SSLSocket.
+   * Retrieve all devices which have un-installed the application as a compact batch, without creating any object per device.
    *
-   * @param socket
-   * @return Devices
+   * @param server Connection information for the Apple server
+   * @return a batch of 32-byte tokens and times
+   * @throws KeystoreException
    * @throws CommunicationException
    */
-  private LinkedList<Device> getDevices(final SSLSocket socket) throws CommunicationException {
-
-    // Compute
-    LinkedList<Device> listDev;
-      try (socket) {
-          final InputStream socketStream = socket.getInputStream();
-
-          // Read bytes
-          final byte[] b = new byte[1024];
-          final ByteArrayOutputStream message = new ByteArrayOutputStream();
-          int nbBytes;
-          // socketStream.available can return 0
-          // http://forums.sun.com/thread.jspa?threadID=5428561
-          while ((nbBytes = socketStream.read(b, 0, 1024)) != -1) {
-              message.write(b, 0, nbBytes);
-          }
-
-          listDev = new LinkedList<>();
-          final byte[] listOfDevices = message.toByteArray();
-          final int nbTuples = listOfDevices.length / FEEDBACK_TUPLE_SIZE;
-        logger.debug("Found: [{}]", nbTuples);
-          for (int i = 0; i < nbTuples; i++) {
-              final int offset = i * FEEDBACK_TUPLE_SIZE;
-
-              // Build date
-              final int firstByte;
-              final int secondByte;
-              final int thirdByte;
-              final int fourthByte;
-              final long anUnsignedInt;
-
-              firstByte = 0x000000FF & ((int) listOfDevices[offset]);
-              secondByte = 0x000000FF & ((int) listOfDevices[offset + 1]);
-              thirdByte = 0x000000FF & ((int) listOfDevices[offset + 2]);
-              fourthByte = 0x000000FF & ((int) listOfDevices[offset + 3]);
-              anUnsignedInt = ((long) (firstByte << 24 | secondByte << 16 | thirdByte << 8 | fourthByte)) & 0xFFFFFFFFL;
-              final Timestamp timestamp = new Timestamp(anUnsignedInt * 1000);
-
-              // Build device token length
-              final int deviceTokenLength = listOfDevices[offset + 4] << 8 | listOfDevices[offset + 5];
-
-              // Build device token
-              String deviceToken = "";
-              int octet;
-              for (int j = 0; j < 32; j++) {
-                  octet = 0x000000FF & ((int) listOfDevices[offset + 6 + j]);
-                  deviceToken = deviceToken.concat(String.format("%02x", octet));
-              }
-
-              // Build device and add to list
-              /* Create a basic device, as we do not want to go through the factory and create a device in the actual database... */
-              final Device device = new BasicDevice();
-              device.setToken(deviceToken);
-              device.setLastRegister(timestamp);
-              listDev.add(device);
-            logger.info("FeedbackManager retrieves one device :  {};{};{}.", timestamp, deviceTokenLength, deviceToken);
-          }
-
-          // Close the socket and return the list
-
-      } catch (final Exception e) {
-          logger.debug("Caught exception fetching devices from Feedback Service");
-          throw new CommunicationException("Problem communicating with Feedback service", e);
+  public FeedbackBatch getBatch(final AppleFeedbackServer server) throws KeystoreException, CommunicationException {
+    final ConnectionToFeedbackServer connectionHelper = new ConnectionToFeedbackServer(server);
+    final SSLSocket socket = connectionHelper.getSSLSocket();
+    final FeedbackBatch batch = new FeedbackBatch();
+    try (socket) {
+      final long count = new FeedbackDecoder().decode(socket.getInputStream(), batch);
+      logger.info("FeedbackManager retrieved {} devices", count);
+    } catch (final Exception e) {
+      logger.debug("Caught exception fetching devices from Feedback Service");
+      throw new CommunicationException("Problem communicating with Feedback service", e);
+    }
+    if (blocklist != null) {
+      final byte[] token = new byte[batch.getTokenLength()];
+      for (int i = 0; i < batch.size(); i++) {
+        if (registry != null) {
+          block(batch.getToken(i), batch.getTimestamp(i));
+        } else {
+          batch.getToken(i, token, 0);
+          blocklist.add(token, 0);
+        }
       }
-      // empty
-      return listDev;
+    }
+    return batch;
+  }
+
+  /**
+   * Decodes the devices sent on an established SSLSocket.
+   *
+   * @param socket
+   * @param listener
+   * @return the number of devices
+   * @throws CommunicationException
+   */
+  private long processDevices(final SSLSocket socket, final FeedbackListener listener) throws CommunicationException {
+    try (socket) {
+      // socketStream.available can return 0
+      // http://forums.sun.com/thread.jspa?threadID=5428561
+      final long count = new FeedbackDecoder().decode(socket.getInputStream(), (token, timestamp) -> {
+        logger.debug("FeedbackManager retrieves one device :  {};{}.", timestamp, token);
+        block(token, timestamp);
+        listener.deviceInactive(token, timestamp);
+      });
+      logger.info("FeedbackManager retrieved {} devices", count);
+      return count;
+    } catch (final Exception e) {
+      logger.debug("Caught exception fetching devices from Feedback Service");
+      throw new CommunicationException("Problem communicating with Feedback service", e);
+    }
+  }
+
+  /**
+   * Block a token reported by the Feedback Service, unless a device registered it again after Apple found it inactive.
+   *
+   * @param token     a device token in hexadecimal form
+   * @param timestamp the time (in milliseconds) at which Apple found the application uninstalled from the device
+   * @return true if the token was blocked
+   */
+  boolean block(final CharSequence token, final long timestamp) {
+    if (blocklist == null) {
+      return false;
+    }
+    if (registry != null && registry.isRegisteredSince(token.toString(), timestamp)) {
+      logger.debug("Not blocking {}, registered again since {}", token, timestamp);
+      return false;
+    }
+    return blocklist.add(token);
+  }
+
+  /**
+   * Get the blocklist to which tokens reported by the Feedback Service are added, if any.
+   *
+   * @return a blocklist, or null
+   */
+  public TokenBlocklist getBlocklist() {
+    return blocklist;
+  }
+
+  /**
+   * Add every token reported by the Feedback Service to a blocklist, so that notification managers sharing that blocklist stop pushing to them.
+   * Without a {@link #setRegistry(DeviceRegistry) registry}, tokens are blocked even if a device registered them again since.
+   *
+   * @param blocklist a blocklist, or null
+   */
+  public void setBlocklist(final TokenBlocklist blocklist) {
+    this.blocklist = blocklist;
+  }
+
+  /**
+   * Get the registry consulted before blocking a token, if any.
+   *
+   * @return a registry, or null
+   */
+  public DeviceRegistry getRegistry() {
+    return registry;
+  }
+
+  /**
+   * Consult a registry before blocking a token reported by the Feedback Service: tokens which a device registered again
+   * after Apple found them inactive (because the application was reinstalled) are not blocked.
+   * Give the same blocklist to the registry ({@link DeviceRegistry#setBlocklist(TokenBlocklist)}) so that tokens
+   * registered again later are unblocked as well.
+   *
+   * @param registry a registry, or null
+   */
+  public void setRegistry(final DeviceRegistry registry) {
+    this.registry = registry;
   }
 
   /**
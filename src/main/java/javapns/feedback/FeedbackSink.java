@@ -0,0 +1,25 @@
+package javapns.feedback;
+
+import java.io.IOException;
+
+/**
+ * The destination of devices reported by the Feedback Service, such as a database of devices, used by a {@link FeedbackPoller}.
+ * <p>
+ * <p>A device may reinstall the application after Apple found it uninstalled, so a sink must only remove a device if it did not
+ * register again after the time reported by the Feedback Service (its last registration must be older than that time).</p>
+ *
+ * @see javapns.devices.DeviceRegistry#removeToken(String, long)
+ */
+@FunctionalInterface
+public interface FeedbackSink {
+  /**
+   * Remove a batch of devices reported as inactive, unless they registered again since.
+   *
+   * @param tokens     device tokens in hexadecimal form
+   * @param timestamps the time (in milliseconds) at which each device was found inactive
+   * @param count      the number of devices in the batch (the arrays may be longer)
+   * @return the number of devices actually removed
+   * @throws IOException if the devices cannot be removed
+   */
+  int removeInactive(String[] tokens, long[] timestamps, int count) throws IOException;
+}
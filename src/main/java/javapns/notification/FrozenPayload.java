@@ -0,0 +1,169 @@
+package javapns.notification;
+
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+/**
+ * An immutable payload, serialized once by {@link Payload#freeze()}.
+ * <p>
+ * <p>The JSON text and its encoded bytes are captured when the payload is frozen, so a frozen payload can be shared by any number
+ * of notification threads without locking, and is never serialized again.  Every method that would change the payload throws an
+ * {@link UnsupportedOperationException}.</p>
+ */
+public final class FrozenPayload extends Payload {
+  private static final String FROZEN = "Frozen payloads cannot be changed";
+
+  private final String json;
+  private final byte[] bytes;
+  private final String characterEncoding;
+  private final int expiry;
+  private final int maximumPayloadSize;
+  /* The payload this one was frozen from, reported by PushedNotification.getPayload(); null if restored from text */
+  private final Payload source;
+
+  FrozenPayload(final String json, final byte[] bytes, final String characterEncoding, final int expiry, final int maximumPayloadSize, final Payload source) {
+    this.json = json;
+    this.bytes = bytes;
+    this.characterEncoding = characterEncoding;
+    this.expiry = expiry;
+    this.maximumPayloadSize = maximumPayloadSize;
+    this.source = source;
+  }
+
+  /**
+   * Rebuild a frozen payload from the JSON text of a payload that was already checked and sent once, for example when a journaled message is replayed.
+   * The payload is sent exactly as the text is, whatever the class of the original payload was.
+   *
+   * @param json              the JSON text of a payload
+   * @param characterEncoding the character encoding of the original payload
+   * @param expiry            the number of seconds until the payload expires
+   * @return a frozen payload
+   * @throws UnsupportedEncodingException if the character encoding is not supported
+   */
+  public static FrozenPayload restore(final String json, final String characterEncoding, final int expiry) throws UnsupportedEncodingException {
+    final byte[] bytes = json.getBytes(characterEncoding);
+    return new FrozenPayload(json, bytes, characterEncoding, expiry, bytes.length, null);
+  }
+
+  /**
+   * Get a copy of the JSON object of this payload.  Changing the copy does not change the payload.
+   *
+   * @return a new JSONObject
+   */
+  @Override
+  public JSONObject getPayload() {
+    return new JSONObject(json);
+  }
+
+  @Override
+  public String toString() {
+    return json;
+  }
+
+  /**
+   * Get the bytes of this payload, as they were encoded when it was frozen.
+   *
+   * @return a copy of the bytes
+   */
+  @Override
+  public byte[] getPayloadAsBytes() {
+    return bytes.clone();
+  }
+
+  /**
+   * Get the bytes of this payload without copying them, for sending.
+   *
+   * @return the shared bytes, which must not be changed
+   */
+  @Override
+  byte[] getPayloadAsBytesToSend() {
+    return bytes;
+  }
+
+  /**
+   * Get the payload this one was frozen from.
+   *
+   * @return the original payload, or this payload if it was restored from its text
+   */
+  Payload getSource() {
+    return source != null ? source : this;
+  }
+
+  @Override
+  public int getPayloadSize() {
+    return bytes.length;
+  }
+
+  @Override
+  int getMaximumPayloadSize() {
+    return maximumPayloadSize;
+  }
+
+  @Override
+  public String getCharacterEncoding() {
+    return characterEncoding;
+  }
+
+  @Override
+  public int getExpiry() {
+    return expiry;
+  }
+
+  /**
+   * Get this payload, which is already frozen.
+   *
+   * @return this payload
+   */
+  @Override
+  public FrozenPayload freeze() {
+    return this;
+  }
+
+  @Override
+  public void addCustomDictionary(final String name, final String value) {
+    throw new UnsupportedOperationException(FROZEN);
+  }
+
+  @Override
+  public void addCustomDictionary(final String name, final int value) {
+    throw new UnsupportedOperationException(FROZEN);
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void addCustomDictionary(final String name, final List values) {
+    throw new UnsupportedOperationException(FROZEN);
+  }
+
+  @Override
+  public void addCustomDictionary(final String name, final Object value) {
+    throw new UnsupportedOperationException(FROZEN);
+  }
+
+  @Override
+  protected void put(final String propertyName, final Object propertyValue, final JSONObject object, final boolean opt) {
+    throw new UnsupportedOperationException(FROZEN);
+  }
+
+  @Override
+  public void setPayloadSizeEstimatedWhenAdding(final boolean checked) {
+    throw new UnsupportedOperationException(FROZEN);
+  }
+
+  @Override
+  public void setCharacterEncoding(final String characterEncoding) {
+    throw new UnsupportedOperationException(FROZEN);
+  }
+
+  @Override
+  public void setExpiry(final int seconds) {
+    throw new UnsupportedOperationException(FROZEN);
+  }
+
+  @Override
+  void setPreSendConfiguration(final int preSendConfiguration) {
+    throw new UnsupportedOperationException(FROZEN);
+  }
+}
@@ -0,0 +1,22 @@
+package javapns.notification;
+
+/**
+ * A listener notified of the final outcome of each notification, as soon as that outcome is known.
+ * <p>
+ * <p>A notification is reported once Apple had a chance to send back an error-response packet for it
+ * (i.e. when the manager reads pending responses before closing or restarting its connection).
+ * Notifications that Apple rejected are reported as failed with their {@link ResponsePacket};
+ * notifications that could not be sent at all (invalid token, expired before send, etc.) are reported as failed
+ * with their exception.  Notifications that are automatically re-sent after an error are only reported once, after the re-send.</p>
+ * <p>
+ * <p>Combined with disabling the retention of pushed notifications (see {@link javapns.notification.transmission.NotificationThread#setRetainPushedNotifications(boolean)}),
+ * this allows pushing to very large lists of devices without keeping a PushedNotification object per device in memory.</p>
+ * <p>
+ * <p>Events are fired from the thread that pushes the notifications.  When several threads push notifications,
+ * implementations must therefore be thread-safe.</p>
+ */
+public interface NotificationOutcomeListener {
+  void eventNotificationSuccessful(PushedNotification notification);
+
+  void eventNotificationFailed(PushedNotification notification);
+}
@@ -0,0 +1,237 @@
+package javapns.notification;
+
+import javapns.devices.Device;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * <p>A compact store for the outcomes of a large list of notifications.</p>
+ * <p>
+ * <p>Instead of one PushedNotification object per device, outcomes are recorded in parallel primitive arrays
+ * (identifier, device index, status, transmission attempts, error-response status, expiry and completion time),
+ * which costs a few dozen bytes per notification.  Exceptions are only kept for failed notifications.
+ * The number of notifications with a given {@link STATUS} is maintained as outcomes are recorded.</p>
+ * <p>
+ * <p>PushedNotification objects are only built on demand (see {@link #get(int)} and {@link #getFailedNotifications()}),
+ * using the device and payload providers given at construction time.</p>
+ * <p>
+ * <p>Outcomes must be recorded by a single thread, but can be read concurrently by other threads.</p>
+ */
+public class NotificationResults {
+  private static final STATUS[] STATUSES = STATUS.values();
+
+  private final IntFunction<Device> devices;
+  private final IntFunction<Payload> payloads;
+
+  private final int[] identifiers;
+  private final int[] deviceIndexes;
+  private final byte[] statuses;
+  private final byte[] attempts;
+  private final byte[] responseStatuses;
+  private final long[] expiries;
+  private final long[] timestamps;
+  private final int[] counts = new int[STATUSES.length];
+  private final Map<Integer, Exception> exceptions = new HashMap<>();
+
+  /* Written last when recording an outcome, so that readers see complete rows */
+  private volatile int size = 0;
+
+  /**
+   * Create a store for a fixed number of notifications.
+   *
+   * @param capacity the number of notifications to record (usually the number of devices)
+   * @param devices  provides the device for a device index, to build PushedNotification objects on demand
+   * @param payloads provides the payload for a device index, to build PushedNotification objects on demand
+   */
+  public NotificationResults(final int capacity, final IntFunction<Device> devices, final IntFunction<Payload> payloads) {
+    this.devices = devices;
+    this.payloads = payloads;
+    this.identifiers = new int[capacity];
+    this.deviceIndexes = new int[capacity];
+    this.statuses = new byte[capacity];
+    this.attempts = new byte[capacity];
+    this.responseStatuses = new byte[capacity];
+    this.expiries = new long[capacity];
+    this.timestamps = new long[capacity];
+  }
+
+  /**
+   * Record the final outcome of a notification.
+   *
+   * @param deviceIndex  the index of the device (and payload) the notification was pushed to
+   * @param notification a notification whose outcome is final
+   */
+  public void record(final int deviceIndex, final PushedNotification notification) {
+    final int row = size;
+    if (row == identifiers.length) {
+      throw new IllegalStateException("No room left to record outcome of notification " + notification.getIdentifier());
+    }
+    final STATUS status = STATUS.of(notification);
+    identifiers[row] = notification.getIdentifier();
+    deviceIndexes[row] = deviceIndex;
+    statuses[row] = (byte) status.ordinal();
+    attempts[row] = (byte) Math.min(notification.getTransmissionAttempts(), Byte.MAX_VALUE);
+    final ResponsePacket response = notification.getResponse();
+    responseStatuses[row] = response != null && response.isValidErrorMessage() ? (byte) response.getStatus() : 0;
+    expiries[row] = notification.getExpiry();
+    timestamps[row] = System.currentTimeMillis();
+    if (status != STATUS.SUCCESSFUL && notification.getException() != null) {
+      synchronized (exceptions) {
+        exceptions.put(row, notification.getException());
+      }
+    }
+    counts[status.ordinal()]++;
+    size = row + 1;
+  }
+
+  /**
+   * Get the number of outcomes recorded so far.
+   *
+   * @return the number of recorded notifications
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the number of recorded notifications with a given outcome.
+   *
+   * @param status an outcome
+   * @return the number of notifications with that outcome
+   */
+  public int getCount(final STATUS status) {
+    if (size == 0) {
+      return 0;
+    }
+    return counts[status.ordinal()];
+  }
+
+  public STATUS getStatus(final int row) {
+    return STATUSES[statuses[check(row)]];
+  }
+
+  public int getIdentifier(final int row) {
+    return identifiers[check(row)];
+  }
+
+  public int getDeviceIndex(final int row) {
+    return deviceIndexes[check(row)];
+  }
+
+  public int getTransmissionAttempts(final int row) {
+    return attempts[check(row)];
+  }
+
+  /**
+   * Get the status code of the error-response packet received for a notification.
+   *
+   * @param row the index of a recorded outcome
+   * @return a status code, or 0 if no error-response packet was received
+   */
+  public int getResponseStatus(final int row) {
+    return responseStatuses[check(row)] & 0xFF;
+  }
+
+  public long getExpiry(final int row) {
+    return expiries[check(row)];
+  }
+
+  /**
+   * Get the time at which the outcome of a notification was recorded.
+   *
+   * @param row the index of a recorded outcome
+   * @return a number of milliseconds since the epoch
+   */
+  public long getTimestamp(final int row) {
+    return timestamps[check(row)];
+  }
+
+  private int check(final int row) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + size);
+    }
+    return row;
+  }
+
+  /**
+   * Build a PushedNotification object describing a recorded outcome.
+   *
+   * @param row the index of a recorded outcome
+   * @return a new PushedNotification object
+   */
+  public PushedNotification get(final int row) {
+    final STATUS status = getStatus(row);
+    final int deviceIndex = deviceIndexes[row];
+    final PushedNotification notification = new PushedNotification(devices.apply(deviceIndex), payloads.apply(deviceIndex), identifiers[row]);
+    notification.setTransmissionAttempts(attempts[row]);
+    notification.setExpiry(expiries[row]);
+    notification.setException(getException(row));
+    if (status == STATUS.EXPIRED) {
+      return notification;
+    }
+    final int responseStatus = getResponseStatus(row);
+    notification.setTransmissionCompleted(status == STATUS.SUCCESSFUL || responseStatus != 0);
+    if (responseStatus != 0) {
+      notification.setResponse(new ResponsePacket(8, responseStatus, identifiers[row]));
+    }
+    return notification;
+  }
+
+  private Exception getException(final int row) {
+    synchronized (exceptions) {
+      return exceptions.get(row);
+    }
+  }
+
+  /**
+   * Build PushedNotification objects for all recorded notifications that were not successful.
+   *
+   * @return a list of failed notifications
+   */
+  public PushedNotifications getFailedNotifications() {
+    final int recorded = size;
+    final PushedNotifications filteredList = new PushedNotifications();
+    filteredList.setMaxRetained(recorded);
+    for (int row = 0; row < recorded; row++) {
+      if (statuses[row] != STATUS.SUCCESSFUL.ordinal()) {
+        filteredList.add(get(row));
+      }
+    }
+    return filteredList;
+  }
+
+  /**
+   * Final outcomes recorded for notifications.
+   */
+  public enum STATUS {
+    /**
+     * The notification was streamed to Apple and no error-response packet was received.
+     */
+    SUCCESSFUL,
+
+    /**
+     * The notification could not be sent, or Apple rejected it.
+     */
+    FAILED,
+
+    /**
+     * The notification was dropped without being sent because it reached its expiry date while waiting to be pushed.
+     */
+    EXPIRED;
+
+    /**
+     * Get the outcome of a notification whose outcome is final.
+     *
+     * @param notification a pushed notification
+     * @return the outcome of the notification
+     */
+    public static STATUS of(final PushedNotification notification) {
+      if (notification.isSuccessful()) {
+        return SUCCESSFUL;
+      }
+      return notification.isExpiredBeforeSend() ? EXPIRED : FAILED;
+    }
+  }
+}
@@ -144,6 +144,16 @@ public abstract class Payload {
     return payloadBytesUnchecked;
   }
 
+  /**
+   * Get the bytes of this payload for sending, checking its size.
+   * Unlike {@link #getPayloadAsBytes()}, the returned array may be shared and must not be changed.
+   *
+   * @return bytes ready to be streamed directly to Apple servers
+   */
+  byte[] getPayloadAsBytesToSend() throws Exception {
+    return getPayloadAsBytes();
+  }
+
   /**
    * Get this payload as a byte array using the preconfigured character encoding.
    * This method does NOT check if the payload exceeds the maximum payload length.
@@ -368,6 +378,24 @@ public abstract class Payload {
     return this;
   }
 
+  /**
+   * Serialize this payload once into an immutable copy, which any number of threads can send without locking and without serializing it again.
+   * Use the frozen payload instead of this one when pushing the same payload to many devices from several threads.
+   *
+   * @return an immutable payload with the same content, character encoding and expiry
+   * @throws PayloadMaxSizeExceededException if the payload exceeds the maximum size allowed
+   * @throws IllegalStateException           if this is a test payload, whose alert changes with every notification
+   */
+  public FrozenPayload freeze() throws PayloadMaxSizeExceededException {
+    if (getPreSendConfiguration() != 0) {
+      throw new IllegalStateException("Test payloads change for every notification and cannot be frozen");
+    }
+    final String json = toString();
+    final byte[] bytes = getPayloadAsBytesUnchecked();
+    validateMaximumPayloadSize(bytes.length);
+    return new FrozenPayload(json, bytes, getCharacterEncoding(), getExpiry(), getMaximumPayloadSize(), this);
+  }
+
   int getPreSendConfiguration() {
     return preSendConfiguration;
   }
@@ -7,23 +7,54 @@ import javapns.devices.implementations.basic.BasicDevice;
 /**
  * A one-to-one link between a payload and device.
  * Provides support for a typical payload-per-device scenario.
+ * <p>
+ * <p>An optional collapse key can be given to messages that supersede each other (badge updates, content-available refreshes, etc.).
+ * While such a message is still waiting in a queue, adding another message for the same device with the same collapse key replaces it
+ * instead of queuing a second notification.  When using {@link javapns.notification.transmission.NotificationThreads} in QUEUE mode,
+ * enable sharding by token so that all messages for a device wait in the same queue.</p>
  *
  * @author Sylvain Pedneault
  */
 public class PayloadPerDevice {
   private final Payload payload;
   private final Device device;
+  private final String collapseKey;
 
   public PayloadPerDevice(final Payload payload, final String token) throws InvalidDeviceTokenFormatException {
+    this(payload, token, null);
+  }
+
+  public PayloadPerDevice(final Payload payload, final Device device) {
+    this(payload, device, null);
+  }
+
+  /**
+   * Link a payload to a device, with a collapse key.
+   *
+   * @param payload     a payload
+   * @param token       a device token
+   * @param collapseKey a key identifying messages that supersede each other for the same device, or null
+   * @throws InvalidDeviceTokenFormatException
+   */
+  public PayloadPerDevice(final Payload payload, final String token, final String collapseKey) throws InvalidDeviceTokenFormatException {
     super();
     this.payload = payload;
     this.device = new BasicDevice(token);
+    this.collapseKey = collapseKey;
   }
 
-  public PayloadPerDevice(final Payload payload, final Device device) {
+  /**
+   * Link a payload to a device, with a collapse key.
+   *
+   * @param payload     a payload
+   * @param device      a device
+   * @param collapseKey a key identifying messages that supersede each other for the same device, or null
+   */
+  public PayloadPerDevice(final Payload payload, final Device device, final String collapseKey) {
     super();
     this.payload = payload;
     this.device = device;
+    this.collapseKey = collapseKey;
   }
 
   public Payload getPayload() {
@@ -34,4 +65,13 @@ public class PayloadPerDevice {
     return device;
   }
 
+  /**
+   * Get the key identifying messages that supersede each other for the same device.
+   *
+   * @return a collapse key, or null if this message does not replace previous ones
+   */
+  public String getCollapseKey() {
+    return collapseKey;
+  }
+
 }
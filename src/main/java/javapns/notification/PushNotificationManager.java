@@ -6,9 +6,11 @@ import javapns.communication.exceptions.InvalidCertificateChainException;
 import javapns.communication.exceptions.KeystoreException;
 import javapns.devices.Device;
 import javapns.devices.DeviceFactory;
+import javapns.devices.TokenBlocklist;
 import javapns.devices.exceptions.*;
 import javapns.devices.implementations.basic.BasicDevice;
 import javapns.devices.implementations.basic.BasicDeviceFactory;
+import javapns.notification.exceptions.BlockedTokenException;
 import javapns.notification.exceptions.PayloadIsEmptyException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -73,8 +75,14 @@ public class PushNotificationManager {
   @Deprecated
   private DeviceFactory deviceFactory;
 
+  /* Notifications sent over the current connection whose outcome is not final yet */
   private final LinkedHashMap<Integer, PushedNotification> pushedNotifications = new LinkedHashMap<>();
 
+  private NotificationOutcomeListener outcomeListener;
+
+  /* Tokens never to push to, fed with tokens rejected by Apple */
+  private TokenBlocklist blocklist;
+
   /**
    * Constructs a PushNotificationManager
    */
@@ -248,6 +256,22 @@ public class PushNotificationManager {
     }
   }
 
+  /**
+   * Wait for error-responses to the notifications sent so far and report their outcomes, without closing the connection.
+   * A connection which goes idle should invoke this method, so that the outcomes of its last notifications are not held until the connection is restarted.
+   * This method returns immediately if every notification sent already has a final outcome.
+   *
+   * @return the number of error-response packets received
+   * @throws CommunicationException thrown if a communication error occurs
+   * @throws KeystoreException      thrown if there is a problem with your keystore
+   */
+  public int processPendingResponses() throws CommunicationException, KeystoreException {
+    if (pushedNotifications.isEmpty()) {
+      return 0;
+    }
+    return processedFailedNotifications();
+  }
+
   /**
    * Read and process any pending error-responses.
    * <p>
@@ -268,12 +292,13 @@ public class PushNotificationManager {
         final List<PushedNotification> notificationsToResend = new ArrayList<>();
         boolean foundFirstFail = false;
         for (final PushedNotification notification : pushedNotifications.values()) {
-          if (foundFirstFail || !notification.isSuccessful()) {
-            if (foundFirstFail) {
-              notificationsToResend.add(notification);
-            } else {
+          if (foundFirstFail) {
+            notificationsToResend.add(notification);
+          } else {
+            if (!notification.isSuccessful()) {
               foundFirstFail = true;
             }
+            reportOutcome(notification);
           }
         }
         pushedNotifications.clear();
@@ -289,16 +314,49 @@ public class PushNotificationManager {
         final int remaining = responsesReceived = ResponsePacketReader.processResponses(this);
         if (remaining == 0) {
           logger.debug("No notifications remaining to be resent");
+          reportOutcomes();
           return 0;
         }
       }
+      reportOutcomes();
       return responsesReceived;
     } else {
       logger.debug("Not reading responses because using simple notification format");
+      reportOutcomes();
       return 0;
     }
   }
 
+  /**
+   * Report all notifications sent over the current connection as final, and forget them.
+   */
+  private void reportOutcomes() {
+    for (final PushedNotification notification : pushedNotifications.values()) {
+      reportOutcome(notification);
+    }
+    pushedNotifications.clear();
+  }
+
+  /**
+   * Fire the outcome event matching a notification whose outcome is final.
+   *
+   * @param notification a notification that will not be re-sent
+   */
+  private void reportOutcome(final PushedNotification notification) {
+    if (outcomeListener == null) {
+      return;
+    }
+    try {
+      if (notification.isSuccessful()) {
+        outcomeListener.eventNotificationSuccessful(notification);
+      } else {
+        outcomeListener.eventNotificationFailed(notification);
+      }
+    } catch (final RuntimeException e) {
+      logger.error("Outcome listener failed", e);
+    }
+  }
+
   /**
    * Send a notification to a single device and close the connection.
    *
@@ -399,7 +457,7 @@ public class PushNotificationManager {
   private void sendNotification(final PushedNotification notification, final boolean closeAfter) throws CommunicationException {
     try {
       final Device device = notification.getDevice();
-      final Payload payload = notification.getPayload();
+      final Payload payload = notification.getSentPayload();
       try {
         payload.verifyPayloadIsNotEmpty();
       } catch (final IllegalArgumentException e) {
@@ -408,6 +466,15 @@ public class PushNotificationManager {
         // empty
       }
 
+      final String token = device.getToken();
+      // even though the BasicDevice constructor validates the token, we revalidate it in case we were passed another implementation of Device;
+      // this is done before the notification is registered, so that an invalid token fails alone instead of reaching Apple and closing the connection
+      BasicDevice.validateTokenFormat(token);
+      final TokenBlocklist blocklistLocal = blocklist;
+      if (blocklistLocal != null && blocklistLocal.contains(token)) {
+        throw new BlockedTokenException(token);
+      }
+
       if (notification.getIdentifier() <= 0) {
         notification.setIdentifier(newMessageIdentifier());
       }
@@ -416,9 +483,6 @@ public class PushNotificationManager {
       }
       final int identifier = notification.getIdentifier();
 
-      final String token = device.getToken();
-      // even though the BasicDevice constructor validates the token, we revalidate it in case we were passed another implementation of Device
-      BasicDevice.validateTokenFormat(token);
       final byte[] bytes = getMessage(token, payload, identifier, notification);
 
       /* Special simulation mode to skip actual streaming of message */
@@ -494,6 +558,10 @@ public class PushNotificationManager {
 
       notification.setException(ex);
       logger.error("Delivery error: {}", ex);
+      if (pushedNotifications.get(notification.getIdentifier()) != notification) {
+        /* Not awaiting a response from Apple, so its outcome is already final */
+        reportOutcome(notification);
+      }
       try {
         if (closeAfter) {
           logger.error("Closing connection after error");
@@ -582,9 +650,9 @@ public class PushNotificationManager {
     } catch (final NumberFormatException e1) {
       throw new InvalidDeviceTokenFormatException(upperCasedDeviceToken, e1.getMessage());
     }
-    preconfigurePayload(payload, identifier, upperCasedDeviceToken);
+    final Payload payloadToSend = preconfigurePayload(payload, identifier, upperCasedDeviceToken);
     // Create the ByteArrayOutputStream which will contain the raw interface
-    final byte[] payloadAsBytes = payload.getPayloadAsBytes();
+    final byte[] payloadAsBytes = payloadToSend.getPayloadAsBytesToSend();
     final int size = 1 + (Character.SIZE / Byte.SIZE) + deviceTokenAsBytes.length + (Character.SIZE / Byte.SIZE) + payloadAsBytes.length;
     final ByteArrayOutputStream bao = new ByteArrayOutputStream(size);
 
@@ -736,6 +804,60 @@ public class PushNotificationManager {
     return id;
   }
 
+  /**
+   * Get the blocklist of invalid tokens checked before each notification is sent, if any.
+   *
+   * @return a blocklist, or null
+   */
+  public TokenBlocklist getBlocklist() {
+    return blocklist;
+  }
+
+  /**
+   * Provide a blocklist of invalid tokens.  Notifications to blocked tokens fail immediately with a {@link BlockedTokenException}
+   * instead of being sent, and tokens rejected by Apple (status 8) are added to the blocklist.
+   *
+   * @param blocklist a blocklist (which can be shared by several managers), or null
+   */
+  public void setBlocklist(final TokenBlocklist blocklist) {
+    this.blocklist = blocklist;
+  }
+
+  /**
+   * Add the token of a notification rejected by Apple as invalid to the blocklist, if any.
+   *
+   * @param notification a notification for which Apple returned an error-response packet with status 8
+   */
+  void tokenRejected(final PushedNotification notification) {
+    final TokenBlocklist blocklistLocal = blocklist;
+    if (blocklistLocal != null && notification.getDevice() != null && blocklistLocal.add(notification.getDevice().getToken())) {
+      logger.debug("Blocked invalid token {}", notification.getDevice().getToken());
+    }
+  }
+
+  public NotificationOutcomeListener getOutcomeListener() {
+    return outcomeListener;
+  }
+
+  /**
+   * Provide a listener which will be notified of the final outcome of each notification pushed by this manager.
+   *
+   * @param outcomeListener any object implementing the NotificationOutcomeListener interface
+   */
+  public void setOutcomeListener(final NotificationOutcomeListener outcomeListener) {
+    this.outcomeListener = outcomeListener;
+  }
+
+  /**
+   * Report a notification that was never handed over to this manager (invalid token, expired before send, etc.)
+   * to the outcome listener, if any.
+   *
+   * @param notification a notification that failed before being sent
+   */
+  public void reportFailedNotification(final PushedNotification notification) {
+    reportOutcome(notification);
+  }
+
   Socket getActiveSocket() {
     return socket;
   }
@@ -749,19 +871,25 @@ public class PushNotificationManager {
     return pushedNotifications;
   }
 
-  private void preconfigurePayload(final Payload payload, final int identifier, final String deviceToken) {
+  /**
+   * Get the payload to send for a notification.  A test payload is copied with a debugging alert, so that the payload itself,
+   * which may be shared with other threads, is never changed.
+   */
+  private Payload preconfigurePayload(final Payload payload, final int identifier, final String deviceToken) {
     try {
       final int config = payload.getPreSendConfiguration();
-      if (payload instanceof PushNotificationPayload) {
-        final PushNotificationPayload pnpayload = (PushNotificationPayload) payload;
-        if (config == 1) {
-          pnpayload.getPayload().remove("alert");
-          pnpayload.addAlert(buildDebugAlert(payload, identifier, deviceToken));
-        }
+      if (payload instanceof PushNotificationPayload && config == 1) {
+        final PushNotificationPayload copy = PushNotificationPayload.fromJSON(payload.toString());
+        copy.setExpiry(payload.getExpiry());
+        copy.setCharacterEncoding(payload.getCharacterEncoding());
+        copy.getPayload().remove("alert");
+        copy.addAlert(buildDebugAlert(payload, identifier, deviceToken));
+        return copy;
       }
     } catch (final Exception e) {
       // empty
     }
+    return payload;
   }
 
   private String buildDebugAlert(final Payload payload, final int identifier, final String deviceToken) {
@@ -2,6 +2,7 @@ package javapns.notification;
 
 import javapns.devices.Device;
 import javapns.notification.exceptions.ErrorResponsePacketReceivedException;
+import javapns.notification.exceptions.NotificationExpiredException;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -80,10 +81,21 @@ public class PushedNotification {
 
   /**
    * Returns the payload that was pushed.
+   * A payload frozen before it was pushed (for example by {@link javapns.Push}) is reported as the payload it was frozen from,
+   * so that it can be cast to its original class.
    *
    * @return the payload that was pushed
    */
   public Payload getPayload() {
+    return payload instanceof FrozenPayload ? ((FrozenPayload) payload).getSource() : payload;
+  }
+
+  /**
+   * Returns the payload actually sent, which may be a {@link FrozenPayload}.
+   *
+   * @return the payload that was sent
+   */
+  Payload getSentPayload() {
     return payload;
   }
 
@@ -230,6 +242,16 @@ public class PushedNotification {
     return !response.isValidErrorMessage();
   }
 
+  /**
+   * Indicates if the notification was dropped without being sent because it reached
+   * its expiry date while waiting to be pushed.
+   *
+   * @return true if the notification expired before it could be sent, false otherwise
+   */
+  public boolean isExpiredBeforeSend() {
+    return exception instanceof NotificationExpiredException;
+  }
+
   /**
    * Returns a human-friendly description of this pushed notification.
    */
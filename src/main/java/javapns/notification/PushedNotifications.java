@@ -1,21 +1,49 @@
 package javapns.notification;
 
-import java.util.ArrayList;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
 /**
  * <p>A list of PushedNotification objects.</p>
  * <p>
  * <p>This list can be configured to retain a maximum number of objects.  When that maximum is reached, older objects are removed from the list before new ones are added.</p>
  * <p>
- * <p>Internally, this list extends Vector.</p>
+ * <p>Internally, this list is a fixed-capacity ring buffer: appending and evicting the oldest object are O(1), and appends
+ * from multiple threads do not lock.  Storage is allocated in small segments as objects are added, so a large maxRetained
+ * value does not reserve memory up front.  Iterating over the list does not copy it: an iterator returns the objects that were
+ * in the list when the iteration started, skipping any that get evicted in the meantime.</p>
+ * <p>
+ * <p>Replacing an object is O(1).  Inserting objects other than at the end, removing, sorting and replacing all objects rebuild
+ * the ring, which is O(n) as with an ArrayList (O(n log n) for sorting), and should not be invoked while other threads are adding
+ * objects to the list.  List iterators write through to the list.</p>
  *
  * @author Sylvain Pedneault
  */
-public class PushedNotifications extends ArrayList<PushedNotification> implements List<PushedNotification> {
+public class PushedNotifications extends AbstractList<PushedNotification> implements List<PushedNotification>, RandomAccess, Serializable {
   private static final long serialVersionUID = 1418782231076330494L;
+
+  private static final int SEGMENT_SHIFT = 10;
+  private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+  private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+  /* How long a reader waits for a concurrent writer to publish a slot before treating it as absent */
+  private static final int MAX_SPINS = 1 << 16;
+
   private int maxRetained = 1000;
+  /* Created on first use, so that subclasses which are views over other lists never allocate one */
+  private volatile Ring ring;
 
   /**
    * Construct an empty list of PushedNotification objects.
@@ -25,11 +53,12 @@ public class PushedNotifications extends ArrayList<PushedNotification> implement
 
   /**
    * Construct an empty list of PushedNotification objects with a suggested initial capacity.
+   * Since storage is allocated on demand, the suggested capacity is not used.
    *
    * @param capacity
    */
   public PushedNotifications(final int capacity) {
-    super(capacity);
+    // empty
   }
 
   /**
@@ -37,8 +66,8 @@ public class PushedNotifications extends ArrayList<PushedNotification> implement
    *
    * @param parent
    */
-  private PushedNotifications(final PushedNotifications parent) {
-    this.maxRetained = parent.getMaxRetained();
+  protected PushedNotifications(final PushedNotifications parent) {
+    setMaxRetained(parent.getMaxRetained());
   }
 
   /**
@@ -71,25 +100,243 @@ public class PushedNotifications extends ArrayList<PushedNotification> implement
     return filteredList;
   }
 
+  /**
+   * Filter a list of pushed notifications and return only the ones that were dropped because they expired before they could be sent.
+   *
+   * @return a filtered list containing only notifications that expired before being sent
+   */
+  public PushedNotifications getExpiredNotifications() {
+    final PushedNotifications filteredList = new PushedNotifications(this);
+    for (final PushedNotification notification : this) {
+      if (notification.isExpiredBeforeSend()) {
+        filteredList.add(notification);
+      }
+    }
+    return filteredList;
+  }
+
+  /**
+   * Append a notification, evicting the oldest one if the maximum number of retained objects is reached.
+   * This method can be invoked concurrently by multiple threads without locking.
+   *
+   * @param notification a pushed notification
+   * @return true
+   */
+  @Override
+  public boolean add(final PushedNotification notification) {
+    ring().append(notification);
+    return true;
+  }
+
+  @Override
+  public boolean addAll(final Collection<? extends PushedNotification> notifications) {
+    final Ring current = ring();
+    for (final PushedNotification notification : notifications) {
+      current.append(notification);
+    }
+    return !notifications.isEmpty();
+  }
+
+  @Override
+  public PushedNotification get(final int index) {
+    return ring().get(index);
+  }
+
+  @Override
+  public int size() {
+    return ring().size();
+  }
+
+  @Override
+  public PushedNotification set(final int index, final PushedNotification notification) {
+    return ring().set(index, notification);
+  }
+
+  @Override
+  public Iterator<PushedNotification> iterator() {
+    final Iterator<PushedNotification> iterator = ring().iterator();
+    return new Iterator<PushedNotification>() {
+      private PushedNotification last;
+
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      public PushedNotification next() {
+        last = iterator.next();
+        return last;
+      }
+
+      public void remove() {
+        if (last == null) {
+          throw new IllegalStateException();
+        }
+        PushedNotifications.this.remove(last);
+        last = null;
+      }
+    };
+  }
+
+  /**
+   * Remove the object at a given position.  This rebuilds the ring and is O(n).
+   *
+   * @param index the position of an object
+   * @return the object that was removed
+   */
+  @Override
+  public synchronized PushedNotification remove(final int index) {
+    final PushedNotification[] snapshot = ring().snapshot();
+    if (index < 0 || index >= snapshot.length) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + snapshot.length);
+    }
+    final Ring rebuilt = new Ring(maxRetained);
+    for (int i = 0; i < snapshot.length; i++) {
+      if (i != index) {
+        rebuilt.append(snapshot[i]);
+      }
+    }
+    ring = rebuilt;
+    return snapshot[index];
+  }
+
+  @Override
+  public boolean remove(final Object notification) {
+    final int index = indexOf(notification);
+    if (index < 0) {
+      return false;
+    }
+    remove(index);
+    return true;
+  }
+
+  /**
+   * Remove the objects matching a filter.  This rebuilds the ring and is O(n).
+   *
+   * @param filter a predicate which returns true for objects to remove
+   * @return true if any object was removed
+   */
+  @Override
+  public synchronized boolean removeIf(final Predicate<? super PushedNotification> filter) {
+    final Ring rebuilt = new Ring(maxRetained);
+    boolean removed = false;
+    for (final PushedNotification notification : ring().snapshot()) {
+      if (filter.test(notification)) {
+        removed = true;
+      } else {
+        rebuilt.append(notification);
+      }
+    }
+    if (removed) {
+      ring = rebuilt;
+    }
+    return removed;
+  }
+
+  @Override
+  public boolean removeAll(final Collection<?> notifications) {
+    return removeIf(notifications::contains);
+  }
+
+  @Override
+  public boolean retainAll(final Collection<?> notifications) {
+    return removeIf(notification -> !notifications.contains(notification));
+  }
+
+  /**
+   * Insert an object at a given position.  Appending at the end is O(1) as with {@link #add(PushedNotification)};
+   * inserting anywhere else rebuilds the ring and is O(n).
+   *
+   * @param index        the position of the new object
+   * @param notification a pushed notification
+   */
+  @Override
+  public synchronized void add(final int index, final PushedNotification notification) {
+    final PushedNotification[] snapshot = ring().snapshot();
+    if (index < 0 || index > snapshot.length) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + snapshot.length);
+    }
+    if (index == snapshot.length) {
+      ring().append(notification);
+      return;
+    }
+    final Ring rebuilt = new Ring(maxRetained);
+    for (int i = 0; i < snapshot.length; i++) {
+      if (i == index) {
+        rebuilt.append(notification);
+      }
+      rebuilt.append(snapshot[i]);
+    }
+    ring = rebuilt;
+  }
+
+  /**
+   * Sort the objects of this list.  This rebuilds the ring and is O(n log n).
+   *
+   * @param comparator the order of objects
+   */
+  @Override
+  public synchronized void sort(final Comparator<? super PushedNotification> comparator) {
+    final PushedNotification[] snapshot = ring().snapshot();
+    Arrays.sort(snapshot, comparator);
+    ring = rebuild(snapshot);
+  }
+
+  /**
+   * Replace every object of this list with the result of an operator.  This rebuilds the ring and is O(n).
+   *
+   * @param operator the function giving the replacement of each object
+   */
+  @Override
+  public synchronized void replaceAll(final UnaryOperator<PushedNotification> operator) {
+    final PushedNotification[] snapshot = ring().snapshot();
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = operator.apply(snapshot[i]);
+    }
+    ring = rebuild(snapshot);
+  }
+
+  private Ring rebuild(final PushedNotification[] notifications) {
+    final Ring rebuilt = new Ring(maxRetained);
+    for (final PushedNotification notification : notifications) {
+      rebuilt.append(notification);
+    }
+    return rebuilt;
+  }
+
+  /**
+   * Stream over this list without copying it, in the same way as {@link #iterator()}.
+   */
   @Override
-  public synchronized boolean add(final PushedNotification notification) {
-    prepareAdd(1);
-    return super.add(notification);
+  public Spliterator<PushedNotification> spliterator() {
+    return Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
   }
 
   @Override
-  public synchronized boolean addAll(final Collection<? extends PushedNotification> notifications) {
-    prepareAdd(notifications.size());
-    return super.addAll(notifications);
+  public Object[] toArray() {
+    final PushedNotification[] snapshot = ring().snapshot();
+    return Arrays.copyOf(snapshot, snapshot.length, Object[].class);
   }
 
-  private void prepareAdd(final int n) {
-    final int size = size();
-    if (size + n > maxRetained) {
-      for (int i = 0; i < n; i++) {
-        remove(0);
+  private Ring ring() {
+    Ring current = ring;
+    if (current == null) {
+      synchronized (this) {
+        current = ring;
+        if (current == null) {
+          current = new Ring(maxRetained);
+          ring = current;
+        }
       }
     }
+    return current;
+  }
+
+  /**
+   * Remove all objects from this list.
+   */
+  @Override
+  public synchronized void clear() {
+    ring = null;
   }
 
   /**
@@ -97,17 +344,31 @@ public class PushedNotifications extends ArrayList<PushedNotification> implement
    *
    * @return the maximum number of objects that this list retains
    */
-  private int getMaxRetained() {
+  protected int getMaxRetained() {
     return maxRetained;
   }
 
   /**
    * Set the maximum number of objects that this list retains.
    * When this maximum is reached, older objects are removed from the list before new ones are added.
+   * <p>
+   * Objects already in the list are kept (up to the new maximum).
+   * This method should not be invoked while other threads are adding objects to the list.
    *
    * @param maxRetained the maxRetained value currently configured (default is 1000)
    */
-  public void setMaxRetained(final int maxRetained) {
+  public synchronized void setMaxRetained(final int maxRetained) {
+    if (maxRetained == this.maxRetained) {
+      return;
+    }
+    final Ring current = ring;
+    if (current != null) {
+      final Ring resized = new Ring(maxRetained);
+      for (final PushedNotification notification : current.snapshot()) {
+        resized.append(notification);
+      }
+      this.ring = resized;
+    }
     this.maxRetained = maxRetained;
   }
 
@@ -129,4 +390,168 @@ public class PushedNotifications extends ArrayList<PushedNotification> implement
     result = 31 * result + maxRetained;
     return result;
   }
+
+  /**
+   * A notification stored in the ring, tagged with its sequence number so that readers can tell
+   * an object that is still being published or that was already evicted from the one they expect.
+   */
+  private static final class Slot implements Serializable {
+    private static final long serialVersionUID = -2387218826437462953L;
+
+    private final long sequence;
+    private final PushedNotification notification;
+
+    private Slot(final long sequence, final PushedNotification notification) {
+      this.sequence = sequence;
+      this.notification = notification;
+    }
+  }
+
+  /**
+   * Fixed-capacity ring of slots, allocated lazily by segments.
+   */
+  private static final class Ring implements Serializable {
+    private static final long serialVersionUID = 6152281652961405137L;
+
+    private final int capacity;
+    private final AtomicReferenceArray<AtomicReferenceArray<Slot>> segments;
+    private final AtomicLong tail = new AtomicLong();
+
+    private Ring(final int capacity) {
+      this.capacity = Math.max(capacity, 1);
+      this.segments = new AtomicReferenceArray<>(((this.capacity - 1) >>> SEGMENT_SHIFT) + 1);
+    }
+
+    void append(final PushedNotification notification) {
+      final long sequence = tail.getAndIncrement();
+      final AtomicReferenceArray<Slot> segment = segmentOf(sequence);
+      final int offset = offsetOf(sequence);
+      final Slot slot = new Slot(sequence, notification);
+      while (true) {
+        final Slot current = segment.get(offset);
+        if (current != null && current.sequence > sequence) {
+          return; // a newer notification already took this slot, so ours is evicted
+        }
+        if (segment.compareAndSet(offset, current, slot)) {
+          return;
+        }
+      }
+    }
+
+    private AtomicReferenceArray<Slot> segmentOf(final long sequence) {
+      return segment((int) (sequence % capacity) >>> SEGMENT_SHIFT);
+    }
+
+    private int offsetOf(final long sequence) {
+      return (int) (sequence % capacity) & SEGMENT_MASK;
+    }
+
+    private AtomicReferenceArray<Slot> segment(final int index) {
+      AtomicReferenceArray<Slot> segment = segments.get(index);
+      if (segment == null) {
+        final int length = Math.min(SEGMENT_SIZE, capacity - (index << SEGMENT_SHIFT));
+        segments.compareAndSet(index, null, new AtomicReferenceArray<>(length));
+        segment = segments.get(index);
+      }
+      return segment;
+    }
+
+    int size() {
+      return (int) Math.min(tail.get(), capacity);
+    }
+
+    PushedNotification get(final int index) {
+      return slot(index).notification;
+    }
+
+    PushedNotification set(final int index, final PushedNotification notification) {
+      while (true) {
+        final Slot current = slot(index);
+        if (segmentOf(current.sequence).compareAndSet(offsetOf(current.sequence), current, new Slot(current.sequence, notification))) {
+          return current.notification;
+        }
+      }
+    }
+
+    private Slot slot(final int index) {
+      final long end = tail.get();
+      final long start = Math.max(0, end - capacity);
+      if (index < 0 || index >= end - start) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (end - start));
+      }
+      final Slot slot = read(start + index);
+      if (slot == null) {
+        throw new IndexOutOfBoundsException("Index: " + index + " was evicted or is not published yet");
+      }
+      return slot;
+    }
+
+    /**
+     * Read the slot holding a given sequence number, waiting a little for a concurrent writer to publish it if necessary.
+     * A slot that is still not published after the wait (for example because its writer stalled) is treated as absent.
+     *
+     * @return the slot, or null if the notification was evicted in the meantime or is not published yet
+     */
+    private Slot read(final long sequence) {
+      final AtomicReferenceArray<Slot> segment = segmentOf(sequence);
+      final int offset = offsetOf(sequence);
+      for (int spins = 0; spins < MAX_SPINS; spins++) {
+        final Slot slot = segment.get(offset);
+        if (slot != null && slot.sequence == sequence) {
+          return slot;
+        }
+        if (slot != null && slot.sequence > sequence) {
+          return null;
+        }
+        Thread.onSpinWait();
+      }
+      return null;
+    }
+
+    Iterator<PushedNotification> iterator() {
+      final long end = tail.get();
+      return new Iterator<PushedNotification>() {
+        private long sequence = Math.max(0, end - capacity);
+        private Slot next = advance();
+
+        private Slot advance() {
+          while (sequence < end) {
+            final Slot slot = read(sequence++);
+            if (slot != null) {
+              return slot;
+            }
+            sequence = Math.max(sequence, tail.get() - capacity);
+          }
+          return null;
+        }
+
+        public boolean hasNext() {
+          return next != null;
+        }
+
+        public PushedNotification next() {
+          if (next == null) {
+            throw new NoSuchElementException();
+          }
+          final PushedNotification notification = next.notification;
+          next = advance();
+          return notification;
+        }
+      };
+    }
+
+    PushedNotification[] snapshot() {
+      final long end = tail.get();
+      final long start = Math.max(0, end - capacity);
+      final PushedNotification[] notifications = new PushedNotification[(int) (end - start)];
+      int count = 0;
+      for (long sequence = start; sequence < end; sequence++) {
+        final Slot slot = read(sequence);
+        if (slot != null) {
+          notifications[count++] = slot.notification;
+        }
+      }
+      return count == notifications.length ? notifications : Arrays.copyOf(notifications, count);
+    }
+  }
 }
@@ -26,6 +26,9 @@ public class ResponsePacket {
       notification = notificationManager.getPushedNotifications().get(identifier);
       if (notification != null) {
         notification.setResponse(this);
+        if (status == 8) {
+          notificationManager.tokenRejected(notification);
+        }
       }
     } catch (final Exception e) {
       // empty
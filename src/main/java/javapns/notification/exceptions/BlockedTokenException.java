@@ -0,0 +1,29 @@
+package javapns.notification.exceptions;
+
+/**
+ * Thrown when a notification is addressed to a token found in the blocklist of invalid tokens, and was therefore never sent to Apple.
+ *
+ * @see javapns.devices.TokenBlocklist
+ */
+
+public class BlockedTokenException extends Exception {
+
+  private static final long serialVersionUID = 4326983452346715029L;
+
+  private final String token;
+
+  public BlockedTokenException(final String token) {
+    super("Device token is blocked because Apple reported it as invalid: " + token);
+    this.token = token;
+  }
+
+  /**
+   * Get the blocked token.
+   *
+   * @return a token in hexadecimal form
+   */
+  public String getToken() {
+    return token;
+  }
+
+}
@@ -0,0 +1,27 @@
+package javapns.notification.exceptions;
+
+/**
+ * Thrown when a notification reached its expiry date while waiting to be pushed, and was therefore never sent to Apple.
+ */
+
+public class NotificationExpiredException extends Exception {
+
+  private static final long serialVersionUID = -3165328427460164382L;
+
+  private final long deadline;
+
+  public NotificationExpiredException(final long deadline) {
+    super(String.format("Notification expired before it could be sent (deadline was %tc)", deadline));
+    this.deadline = deadline;
+  }
+
+  /**
+   * Get the absolute date after which the notification could no longer be sent.
+   *
+   * @return a number of milliseconds since the epoch
+   */
+  public long getDeadline() {
+    return deadline;
+  }
+
+}
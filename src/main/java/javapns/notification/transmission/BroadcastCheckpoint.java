@@ -0,0 +1,182 @@
+package javapns.notification.transmission;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+
+/**
+ * <p>The progress of a broadcast pushed by a group of threads in LIST mode, as saved periodically by {@link NotificationThreads}.</p>
+ * <p>
+ * <p>A checkpoint holds, for each thread (shard), the range of devices it was given and a cursor counting the devices it has
+ * already processed, along with a bitmap of all devices (by index in the full list) for which a notification was confirmed.
+ * It takes about one bit per device.  A broadcast which stopped can be resumed with the same devices and number of threads:
+ * devices whose notification was confirmed are then skipped.</p>
+ *
+ * @see NotificationThreads#setCheckpointFile(File, long)
+ * @see NotificationThreads#resume(BroadcastCheckpoint)
+ */
+public class BroadcastCheckpoint {
+  private static final int MAGIC = 0x4A50434B;
+  private static final int VERSION = 1;
+
+  private final int total;
+  private final int[] offsets;
+  private final int[] sizes;
+  private final int[] cursors;
+  private final BitSet confirmed;
+
+  BroadcastCheckpoint(final int total, final int[] offsets, final int[] sizes, final int[] cursors, final BitSet confirmed) {
+    this.total = total;
+    this.offsets = offsets;
+    this.sizes = sizes;
+    this.cursors = cursors;
+    this.confirmed = confirmed;
+  }
+
+  /**
+   * Read a checkpoint from a file.
+   *
+   * @param file a checkpoint file
+   * @return the checkpoint
+   * @throws IOException if the file cannot be read or is not a checkpoint
+   */
+  public static BroadcastCheckpoint read(final File file) throws IOException {
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+        throw new IOException(file + " is not a broadcast checkpoint");
+      }
+      final int total = input.readInt();
+      final int shards = input.readInt();
+      final int[] offsets = new int[shards];
+      final int[] sizes = new int[shards];
+      final int[] cursors = new int[shards];
+      for (int i = 0; i < shards; i++) {
+        offsets[i] = input.readInt();
+        sizes[i] = input.readInt();
+        cursors[i] = input.readInt();
+      }
+      final long[] words = new long[input.readInt()];
+      for (int i = 0; i < words.length; i++) {
+        words[i] = input.readLong();
+      }
+      return new BroadcastCheckpoint(total, offsets, sizes, cursors, BitSet.valueOf(words));
+    }
+  }
+
+  /**
+   * Write this checkpoint to a file.
+   * The checkpoint is first written to a temporary file which then replaces the target file, so that a crash
+   * while writing never leaves a corrupted checkpoint behind.
+   *
+   * @param file the checkpoint file
+   * @throws IOException if the file cannot be written
+   */
+  public void write(final File file) throws IOException {
+    final File temporary = new File(file.getPath() + ".tmp");
+    try (FileOutputStream stream = new FileOutputStream(temporary);
+         DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream))) {
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      output.writeInt(total);
+      output.writeInt(offsets.length);
+      for (int i = 0; i < offsets.length; i++) {
+        output.writeInt(offsets[i]);
+        output.writeInt(sizes[i]);
+        output.writeInt(cursors[i]);
+      }
+      final long[] words = confirmed.toLongArray();
+      output.writeInt(words.length);
+      for (final long word : words) {
+        output.writeLong(word);
+      }
+      output.flush();
+      stream.getFD().sync();
+    }
+    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Get the total number of devices in the broadcast.
+   *
+   * @return a number of devices
+   */
+  public int getTotal() {
+    return total;
+  }
+
+  /**
+   * Get the number of threads (shards) the devices were spread across.
+   *
+   * @return a number of shards
+   */
+  public int getShards() {
+    return offsets.length;
+  }
+
+  /**
+   * Get the index (in the full list of devices) of the first device of a shard.
+   *
+   * @param shard a shard number, starting at 0
+   * @return a device index
+   */
+  public int getOffset(final int shard) {
+    return offsets[shard];
+  }
+
+  /**
+   * Get the number of devices given to a shard.
+   *
+   * @param shard a shard number, starting at 0
+   * @return a number of devices
+   */
+  public int getSize(final int shard) {
+    return sizes[shard];
+  }
+
+  /**
+   * Get the number of devices a shard had processed (whatever the outcome) when the checkpoint was taken.
+   *
+   * @param shard a shard number, starting at 0
+   * @return a number of devices
+   */
+  public int getCursor(final int shard) {
+    return cursors[shard];
+  }
+
+  /**
+   * Indicates if the notification to a device was confirmed.
+   *
+   * @param index the index of a device in the full list of devices
+   * @return true if the device does not need to be notified again
+   */
+  public boolean isConfirmed(final int index) {
+    return confirmed.get(index);
+  }
+
+  /**
+   * Get the number of devices whose notification was confirmed.
+   *
+   * @return a number of devices
+   */
+  public int getConfirmedCount() {
+    return confirmed.cardinality();
+  }
+
+  /**
+   * Get the confirmed devices of a shard.
+   *
+   * @param shard a shard number, starting at 0
+   * @return a new bitmap indexed by position within the shard
+   */
+  BitSet getConfirmed(final int shard) {
+    return confirmed.get(offsets[shard], offsets[shard] + sizes[shard]);
+  }
+}
@@ -0,0 +1,116 @@
+package javapns.notification.transmission;
+
+import javapns.devices.exceptions.InvalidDeviceTokenFormatException;
+import javapns.notification.Payload;
+import javapns.notification.PayloadPerDevice;
+import javapns.notification.PushNotificationPayload;
+import javapns.notification.PushedNotification;
+import javapns.notification.ResponsePacket;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A notification that permanently failed, as recorded in a {@link DeadLetterSink}.
+ * <p>
+ * <p>A dead letter keeps everything needed to push the notification again: the device token, the payload (as UTF-8 JSON bytes)
+ * and its expiry, along with the status of the error-response packet received from Apple (if any) and the number of transmission attempts.</p>
+ */
+public class DeadLetter {
+  private final String token;
+  private final byte[] payload;
+  private final int expiry;
+  private final int responseStatus;
+  private final int transmissionAttempts;
+  private final long timestamp;
+
+  public DeadLetter(final String token, final byte[] payload, final int expiry, final int responseStatus, final int transmissionAttempts, final long timestamp) {
+    this.token = token;
+    this.payload = payload;
+    this.expiry = expiry;
+    this.responseStatus = responseStatus;
+    this.transmissionAttempts = transmissionAttempts;
+    this.timestamp = timestamp;
+  }
+
+  /**
+   * Create a dead letter describing a failed notification.
+   *
+   * @param notification a notification whose outcome is final
+   * @return a dead letter timestamped with the current time
+   * @throws IllegalArgumentException if the notification has no device token, in which case it cannot be pushed again
+   */
+  public static DeadLetter of(final PushedNotification notification) {
+    if (notification.getDevice() == null || notification.getDevice().getToken() == null) {
+      throw new IllegalArgumentException("Notification has no device token");
+    }
+    final ResponsePacket response = notification.getResponse();
+    final Payload payload = notification.getPayload();
+    return new DeadLetter(
+      notification.getDevice().getToken(),
+      payload.toString().getBytes(StandardCharsets.UTF_8),
+      payload.getExpiry(),
+      response != null && response.isValidErrorMessage() ? response.getStatus() : 0,
+      notification.getTransmissionAttempts(),
+      System.currentTimeMillis()
+    );
+  }
+
+  public String getToken() {
+    return token;
+  }
+
+  /**
+   * Get the payload that failed to be pushed.
+   *
+   * @return the payload as UTF-8 JSON bytes
+   */
+  public byte[] getPayload() {
+    return payload.clone();
+  }
+
+  int getPayloadLength() {
+    return payload.length;
+  }
+
+  byte[] getPayloadBytes() {
+    return payload;
+  }
+
+  public int getExpiry() {
+    return expiry;
+  }
+
+  /**
+   * Get the status code of the error-response packet received from Apple.
+   *
+   * @return a status code (see {@link ResponsePacket#getMessage()}), or 0 if no error-response packet was received
+   */
+  public int getResponseStatus() {
+    return responseStatus;
+  }
+
+  public int getTransmissionAttempts() {
+    return transmissionAttempts;
+  }
+
+  /**
+   * Get the time at which the notification was recorded as a dead letter.
+   *
+   * @return a number of milliseconds since the epoch
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Rebuild the message to push again.
+   *
+   * @return a payload/device pair
+   * @throws InvalidDeviceTokenFormatException if the recorded token is not valid
+   */
+  public PayloadPerDevice toPayloadPerDevice() throws InvalidDeviceTokenFormatException {
+    final Payload restored = PushNotificationPayload.fromJSON(new String(payload, StandardCharsets.UTF_8));
+    restored.setExpiry(expiry);
+    return new PayloadPerDevice(restored, token);
+  }
+}
@@ -0,0 +1,31 @@
+package javapns.notification.transmission;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * A store for notifications that permanently failed, so that they survive the program and can be pushed again
+ * once the cause of the failure is fixed (see {@link DeadLetters#replay(DeadLetterSink, java.util.function.Predicate, PushQueue, double)}).
+ * <p>
+ * <p>Implementations must be thread-safe, as several notification threads can write to the same sink.</p>
+ *
+ * @see FileDeadLetterSink
+ * @see NotificationThread#setDeadLetterSink(DeadLetterSink)
+ */
+public interface DeadLetterSink {
+  /**
+   * Record a dead letter.
+   *
+   * @param deadLetter a notification that permanently failed
+   * @throws IOException if the dead letter cannot be recorded
+   */
+  void write(DeadLetter deadLetter) throws IOException;
+
+  /**
+   * Read all recorded dead letters, in the order they were recorded, without loading them all in memory.
+   *
+   * @param action invoked for each dead letter
+   * @throws IOException if the dead letters cannot be read
+   */
+  void forEach(Consumer<DeadLetter> action) throws IOException;
+}
@@ -0,0 +1,61 @@
+package javapns.notification.transmission;
+
+import javapns.devices.exceptions.InvalidDeviceTokenFormatException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+/**
+ * Utility methods for working with dead letters.
+ */
+public final class DeadLetters {
+  private static final Logger logger = LoggerFactory.getLogger(DeadLetters.class);
+
+  private DeadLetters() {}
+
+  /**
+   * Push again selected dead letters by streaming them from a sink into a queue, at a limited rate.
+   * <p>
+   * Dead letters are read one at a time, so a sink holding millions of dead letters can be replayed without loading it in memory.
+   * The rate limit paces additions evenly (one every 1/messagesPerSecond second) so that the queue and Apple servers are not flooded.
+   * <p>
+   * Replayed dead letters are not removed from the sink.
+   *
+   * @param sink              the sink to read dead letters from
+   * @param selector          selects the dead letters to push again (for example, those without an error-response packet)
+   * @param queue             the queue to add messages to
+   * @param messagesPerSecond the maximum number of messages to add per second, or 0 for no limit
+   * @return the number of dead letters replayed
+   * @throws IOException if the sink cannot be read
+   */
+  public static long replay(final DeadLetterSink sink, final Predicate<DeadLetter> selector, final PushQueue queue, final double messagesPerSecond) throws IOException {
+    final long interval = messagesPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / messagesPerSecond) : 0;
+    final AtomicLong replayed = new AtomicLong();
+    final long[] nextSlot = {System.nanoTime()};
+    sink.forEach(deadLetter -> {
+      if (!selector.test(deadLetter)) {
+        return;
+      }
+      if (interval > 0) {
+        long wait;
+        while ((wait = nextSlot[0] - System.nanoTime()) > 0) {
+          LockSupport.parkNanos(wait);
+        }
+        nextSlot[0] = Math.max(nextSlot[0], System.nanoTime() - interval) + interval;
+      }
+      try {
+        queue.add(deadLetter.toPayloadPerDevice());
+        replayed.incrementAndGet();
+      } catch (final InvalidDeviceTokenFormatException e) {
+        logger.warn("Skipping dead letter with an invalid token: {}", e.getMessage());
+      }
+    });
+    logger.debug("Replayed {} dead letters", replayed.get());
+    return replayed.get();
+  }
+}
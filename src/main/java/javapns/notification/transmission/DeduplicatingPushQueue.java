@@ -0,0 +1,323 @@
+package javapns.notification.transmission;
+
+import javapns.devices.Device;
+import javapns.devices.DeviceTokens;
+import javapns.devices.exceptions.InvalidDeviceTokenFormatException;
+import javapns.notification.Payload;
+import javapns.notification.PayloadPerDevice;
+import javapns.notification.PushedNotifications;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+/**
+ * A queue which drops messages identical to a message added recently, before passing other messages to another queue.
+ * <p>
+ * <p>Two messages are identical if they are for the same device (by binary token) and have the same collapse key or,
+ * without a collapse key, the same payload.  Recent messages are remembered in a Bloom filter split in two generations:
+ * a message is a duplicate if it was added during the current or the previous window, and the older generation is cleared
+ * when a window ends.  Checking and remembering a message takes a constant time, and memory is fixed by the number of
+ * messages expected per window, whatever the number of messages actually added.</p>
+ * <p>
+ * <p>Like any Bloom filter, the filter can report a message as a duplicate when it is not (a false positive), with a probability
+ * chosen when the queue is created.  That probability grows if more messages than expected are added within a window;
+ * {@link #getFalsePositiveProbability()} reports its current value.</p>
+ */
+public class DeduplicatingPushQueue implements PushQueue {
+  private static final double DEFAULT_FALSE_POSITIVE_PROBABILITY = 0.01;
+
+  private final PushQueue queue;
+  private final long window;
+  private final LongSupplier clock;
+  private final int bits;
+  private final int hashes;
+
+  /* Both generations of the filter, guarded by this */
+  private long[] current;
+  private long[] previous;
+  private int currentBitsSet;
+  private int previousBitsSet;
+  private long windowEnd;
+
+  private long duplicates;
+  private long passed;
+  private double estimatedFalsePositives;
+
+  /**
+   * Create a queue suppressing duplicates with a 1% probability of false positives.
+   *
+   * @param queue                     the queue to pass messages which are not duplicates to
+   * @param window                    the number of milliseconds during which a message is remembered (at least; at most twice as long)
+   * @param expectedMessagesPerWindow the number of messages expected to be added within a window
+   */
+  public DeduplicatingPushQueue(final PushQueue queue, final long window, final int expectedMessagesPerWindow) {
+    this(queue, window, expectedMessagesPerWindow, DEFAULT_FALSE_POSITIVE_PROBABILITY);
+  }
+
+  /**
+   * Create a queue suppressing duplicates.
+   *
+   * @param queue                     the queue to pass messages which are not duplicates to
+   * @param window                    the number of milliseconds during which a message is remembered (at least; at most twice as long)
+   * @param expectedMessagesPerWindow the number of messages expected to be added within a window
+   * @param falsePositiveProbability  the acceptable probability of dropping a message which is not a duplicate, when the expected number of messages is added
+   */
+  public DeduplicatingPushQueue(final PushQueue queue, final long window, final int expectedMessagesPerWindow, final double falsePositiveProbability) {
+    this(queue, window, expectedMessagesPerWindow, falsePositiveProbability, System::currentTimeMillis);
+  }
+
+  DeduplicatingPushQueue(final PushQueue queue, final long window, final int expectedMessagesPerWindow, final double falsePositiveProbability, final LongSupplier clock) {
+    if (window <= 0 || expectedMessagesPerWindow <= 0) {
+      throw new IllegalArgumentException("Window and expected messages per window must be positive");
+    }
+    if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
+      throw new IllegalArgumentException("False positive probability must be between 0 and 1");
+    }
+    this.queue = queue;
+    this.window = window;
+    this.clock = clock;
+    final double optimalBits = -expectedMessagesPerWindow * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2));
+    this.bits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, Math.ceil(optimalBits)));
+    this.hashes = (int) Math.max(1, Math.round(bits / (double) expectedMessagesPerWindow * Math.log(2)));
+    this.current = new long[(bits + 63) >>> 6];
+    this.previous = new long[current.length];
+    this.windowEnd = clock.getAsLong() + window;
+  }
+
+  public PushQueue add(final Payload payload, final String token) throws InvalidDeviceTokenFormatException {
+    return add(new PayloadPerDevice(payload, token));
+  }
+
+  public PushQueue add(final Payload payload, final Device device) {
+    return add(new PayloadPerDevice(payload, device));
+  }
+
+  public PushQueue add(final PayloadPerDevice message) {
+    return add(message, NotificationPriority.NORMAL);
+  }
+
+  public PushQueue add(final Payload payload, final String token, final NotificationPriority priority) throws InvalidDeviceTokenFormatException {
+    return add(new PayloadPerDevice(payload, token), priority);
+  }
+
+  public PushQueue add(final Payload payload, final Device device, final NotificationPriority priority) {
+    return add(new PayloadPerDevice(payload, device), priority);
+  }
+
+  /**
+   * Pass a message to the underlying queue, unless an identical message was added recently.
+   *
+   * @param message  a payload/device pair
+   * @param priority the lane to queue the message in
+   * @return the queue to which the message was added, or this queue if the message was dropped as a duplicate
+   */
+  public PushQueue add(final PayloadPerDevice message, final NotificationPriority priority) {
+    if (!remember(key(message))) {
+      return this;
+    }
+    return queue.add(message, priority);
+  }
+
+  /**
+   * Compute a 128-bit key identifying a message for deduplication: a hash of the binary token followed by
+   * the collapse key or, without a collapse key, the payload bytes.
+   *
+   * @param message a payload/device pair
+   * @return the two 64-bit halves of the key
+   */
+  static long[] key(final PayloadPerDevice message) {
+    final byte[] token = tokenBytes(message.getDevice().getToken());
+    final String collapseKey = message.getCollapseKey();
+    final byte[] content = (collapseKey != null ? collapseKey : message.getPayload().toString()).getBytes(StandardCharsets.UTF_8);
+    /* The token length and a marker keep a collapse key from matching a payload with the same bytes */
+    final byte[] data = new byte[2 + token.length + content.length];
+    data[0] = (byte) token.length;
+    System.arraycopy(token, 0, data, 1, token.length);
+    data[1 + token.length] = (byte) (collapseKey != null ? 1 : 0);
+    System.arraycopy(content, 0, data, 2 + token.length, content.length);
+    return murmur3(data);
+  }
+
+  private static byte[] tokenBytes(final String token) {
+    if (token == null) {
+      return new byte[0];
+    }
+    try {
+      return DeviceTokens.toBinary(token);
+    } catch (final InvalidDeviceTokenFormatException e) {
+      return token.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * MurmurHash3 (x64, 128 bits, seed 0) of a byte array.
+   */
+  private static long[] murmur3(final byte[] data) {
+    final long c1 = 0x87c37b91114253d5L;
+    final long c2 = 0x4cf5ad432745937fL;
+    final ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    long h1 = 0;
+    long h2 = 0;
+    while (buffer.remaining() >= 16) {
+      h1 ^= Long.rotateLeft(buffer.getLong() * c1, 31) * c2;
+      h1 = (Long.rotateLeft(h1, 27) + h2) * 5 + 0x52dce729;
+      h2 ^= Long.rotateLeft(buffer.getLong() * c2, 33) * c1;
+      h2 = (Long.rotateLeft(h2, 31) + h1) * 5 + 0x38495ab5;
+    }
+    long k1 = 0;
+    long k2 = 0;
+    final int offset = buffer.position();
+    for (int i = buffer.remaining() - 1; i >= 0; i--) {
+      final long b = data[offset + i] & 0xFFL;
+      if (i >= 8) {
+        k2 |= b << ((i - 8) * 8);
+      } else {
+        k1 |= b << (i * 8);
+      }
+    }
+    h1 ^= Long.rotateLeft(k1 * c1, 31) * c2;
+    h2 ^= Long.rotateLeft(k2 * c2, 33) * c1;
+    h1 ^= data.length;
+    h2 ^= data.length;
+    h1 += h2;
+    h2 += h1;
+    h1 = mix(h1);
+    h2 = mix(h2);
+    h1 += h2;
+    h2 += h1;
+    return new long[]{h1, h2};
+  }
+
+  private static long mix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  /**
+   * Check if a key was remembered in the current or previous window, and remember it in the current window.
+   *
+   * @param key a message key
+   * @return true if the key was not remembered (the message is not a duplicate)
+   */
+  private synchronized boolean remember(final long[] key) {
+    rotate(clock.getAsLong());
+    final long h1 = key[0];
+    final long h2 = key[1] | 1;
+    boolean inCurrent = true;
+    boolean inPrevious = true;
+    for (int i = 0; i < hashes; i++) {
+      final int bit = (int) Long.remainderUnsigned(h1 + i * h2, bits);
+      final long mask = 1L << bit;
+      final int word = bit >>> 6;
+      inPrevious &= (previous[word] & mask) != 0;
+      if ((current[word] & mask) == 0) {
+        inCurrent = false;
+        current[word] |= mask;
+        currentBitsSet++;
+      }
+    }
+    if (inCurrent || inPrevious) {
+      duplicates++;
+      estimatedFalsePositives += falsePositiveProbability();
+      return false;
+    }
+    passed++;
+    return true;
+  }
+
+  private void rotate(final long now) {
+    if (now < windowEnd) {
+      return;
+    }
+    final long[] cleared = previous;
+    if (now >= windowEnd + window) {
+      /* More than a whole window went by without any message: both generations are stale */
+      Arrays.fill(current, 0);
+      currentBitsSet = 0;
+    }
+    Arrays.fill(cleared, 0);
+    previous = current;
+    previousBitsSet = currentBitsSet;
+    current = cleared;
+    currentBitsSet = 0;
+    windowEnd = now + window;
+  }
+
+  private double falsePositiveProbability() {
+    final double currentFill = Math.pow(currentBitsSet / (double) bits, hashes);
+    final double previousFill = Math.pow(previousBitsSet / (double) bits, hashes);
+    return currentFill + previousFill - currentFill * previousFill;
+  }
+
+  /**
+   * Get the probability that a message which is not a duplicate would currently be dropped, given how full the filter is.
+   *
+   * @return a probability between 0 and 1
+   */
+  public synchronized double getFalsePositiveProbability() {
+    return falsePositiveProbability();
+  }
+
+  /**
+   * Get the number of messages dropped as duplicates.
+   *
+   * @return a number of messages
+   */
+  public synchronized long getDuplicates() {
+    return duplicates;
+  }
+
+  /**
+   * Get the number of messages passed to the underlying queue.
+   *
+   * @return a number of messages
+   */
+  public synchronized long getPassed() {
+    return passed;
+  }
+
+  /**
+   * Get the expected number of messages dropped as duplicates although they were not, computed from the
+   * probability of a false positive at the time each message was dropped.
+   *
+   * @return an estimated number of messages
+   */
+  public synchronized double getEstimatedFalsePositives() {
+    return estimatedFalsePositives;
+  }
+
+  /**
+   * Get the queue to which messages which are not duplicates are passed.
+   *
+   * @return a queue
+   */
+  public PushQueue getQueue() {
+    return queue;
+  }
+
+  public PushQueue start() {
+    queue.start();
+    return this;
+  }
+
+  public List<Exception> getCriticalExceptions() {
+    return queue.getCriticalExceptions();
+  }
+
+  public PushedNotifications getPushedNotifications() {
+    return queue.getPushedNotifications();
+  }
+
+  public void clearPushedNotifications() {
+    queue.clearPushedNotifications();
+  }
+}
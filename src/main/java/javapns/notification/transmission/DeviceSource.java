@@ -0,0 +1,34 @@
+package javapns.notification.transmission;
+
+import javapns.devices.Device;
+
+import java.util.Iterator;
+
+/**
+ * Devices pulled lazily from an iterator by one or more LIST-mode threads.
+ * Threads take devices in small batches, so that contention on the iterator stays low
+ * while no more than a few devices per thread are held in memory at any time.
+ */
+final class DeviceSource {
+  static final int BATCH_SIZE = 64;
+
+  private final Iterator<? extends Device> iterator;
+
+  DeviceSource(final Iterator<? extends Device> iterator) {
+    this.iterator = iterator;
+  }
+
+  /**
+   * Take the next devices from the iterator.
+   *
+   * @param batch an array to fill with devices
+   * @return the number of devices put in the array, or 0 if there are no devices left
+   */
+  synchronized int next(final Device[] batch) {
+    int count = 0;
+    while (count < batch.length && iterator.hasNext()) {
+      batch[count++] = iterator.next();
+    }
+    return count;
+  }
+}
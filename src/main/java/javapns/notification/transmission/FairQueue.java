@@ -0,0 +1,102 @@
+package javapns.notification.transmission;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.function.Predicate;
+
+/**
+ * Weighted fair queuing across flows (one per application of a {@link PushRouter}).
+ * <p>
+ * <p>Each flow is a FIFO queue with a virtual start tag.  The flow with the smallest tag is served next, and serving a message
+ * advances its tag by the inverse of the flow's weight, so busy flows are served in proportion to their weights however many
+ * messages each has waiting.  A flow that becomes busy again starts at the current virtual time, so it cannot save up credit while idle
+ * and then take over the workers.  Flows are few, so they are scanned linearly.</p>
+ * <p>
+ * <p>This class is not thread-safe; callers hold their own lock.</p>
+ *
+ * @param <K> the type of flow keys
+ * @param <T> the type of messages
+ */
+final class FairQueue<K, T> {
+  private static final long SCALE = 1 << 20;
+
+  private final Map<K, Flow<T>> flows = new LinkedHashMap<>();
+  private long virtualTime;
+  private int size;
+
+  /**
+   * Set the weight of a flow, creating it if necessary.
+   *
+   * @param key    a flow
+   * @param weight a positive weight relative to the other flows
+   */
+  void setWeight(final K key, final int weight) {
+    if (weight <= 0) {
+      throw new IllegalArgumentException("Weight must be positive");
+    }
+    flows.computeIfAbsent(key, k -> new Flow<>()).cost = SCALE / weight;
+  }
+
+  void add(final K key, final T message) {
+    final Flow<T> flow = flows.get(key);
+    if (flow == null) {
+      throw new IllegalArgumentException("Unknown flow: " + key);
+    }
+    if (flow.messages.isEmpty()) {
+      flow.tag = Math.max(flow.tag, virtualTime);
+    }
+    flow.messages.add(message);
+    size++;
+  }
+
+  /**
+   * Find the flow to serve next among the eligible ones.
+   *
+   * @param eligible indicates whether a flow can be served now
+   * @return a flow with messages waiting, or null if no eligible flow has any
+   */
+  K next(final Predicate<K> eligible) {
+    K next = null;
+    long nextTag = Long.MAX_VALUE;
+    for (final Map.Entry<K, Flow<T>> entry : flows.entrySet()) {
+      final Flow<T> flow = entry.getValue();
+      if (!flow.messages.isEmpty() && flow.tag < nextTag && eligible.test(entry.getKey())) {
+        next = entry.getKey();
+        nextTag = flow.tag;
+      }
+    }
+    return next;
+  }
+
+  /**
+   * Take the next message of a flow, charging the flow for it.
+   *
+   * @param key a flow with messages waiting
+   * @return a message
+   */
+  T poll(final K key) {
+    final Flow<T> flow = flows.get(key);
+    final T message = flow.messages.remove();
+    virtualTime = flow.tag;
+    flow.tag += flow.cost;
+    size--;
+    return message;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int size(final K key) {
+    final Flow<T> flow = flows.get(key);
+    return flow == null ? 0 : flow.messages.size();
+  }
+
+  private static final class Flow<T> {
+    private final Queue<T> messages = new ArrayDeque<>();
+    private long cost = SCALE;
+    private long tag;
+  }
+}
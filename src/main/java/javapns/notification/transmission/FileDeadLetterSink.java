@@ -0,0 +1,243 @@
+package javapns.notification.transmission;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * A dead-letter sink which appends dead letters to a local binary file.
+ * <p>
+ * <p>Each dead letter is written to the file before {@link #write(DeadLetter)} returns, so that it survives the program.
+ * Writes are made durable in groups by a background thread that forces the file to disk every few milliseconds, so that
+ * threads writing many dead letters at once (when many notifications fail together) share the cost of a single disk sync
+ * instead of waiting for one each.  Closing the sink forces all dead letters to disk.</p>
+ * <p>
+ * <p>Each record carries its length and a checksum: reading the file back streams dead letters
+ * one at a time, and stops at an incomplete record at the end of the file (if the program died while writing it)
+ * or at a corrupted record.</p>
+ */
+public class FileDeadLetterSink implements DeadLetterSink, Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(FileDeadLetterSink.class);
+
+  private static final long DEFAULT_FLUSH_INTERVAL = 5;
+
+  /* Each record starts with the length of its body and a checksum of its body */
+  private static final int RECORD_HEADER = 8;
+  /* Timestamp, status, attempts, expiry, token length and payload length */
+  private static final int MIN_BODY = 8 + 4 + 4 + 4 + 2 + 4;
+  /* Far above any token and payload Apple accepts, so that a corrupted length cannot cause a huge allocation */
+  private static final int MAX_BODY = 1024 * 1024;
+
+  private final File file;
+  private final long flushInterval;
+  private final CRC32 crc = new CRC32();
+  private final Thread flusher;
+  private FileOutputStream output;
+  private long written = 0;
+  private long durable = 0;
+  private boolean closed = false;
+
+  /**
+   * Create a sink writing to a file, with group commits every 5 milliseconds.  Dead letters already in the file are kept.
+   *
+   * @param file the file to append dead letters to (created if necessary)
+   * @throws IOException if the file cannot be opened
+   */
+  public FileDeadLetterSink(final File file) throws IOException {
+    this(file, DEFAULT_FLUSH_INTERVAL);
+  }
+
+  /**
+   * Create a sink writing to a file.  Dead letters already in the file are kept.
+   *
+   * @param file          the file to append dead letters to (created if necessary)
+   * @param flushInterval the number of milliseconds between group commits
+   * @throws IOException if the file cannot be opened
+   */
+  public FileDeadLetterSink(final File file, final long flushInterval) throws IOException {
+    this.file = file;
+    this.flushInterval = flushInterval;
+    this.output = new FileOutputStream(file, true);
+    this.flusher = new Thread(this::flushContinuously, "JavaPNS dead letter flusher");
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  public synchronized void write(final DeadLetter deadLetter) throws IOException {
+    if (closed) {
+      throw new IOException("Dead letter sink is closed");
+    }
+    final byte[] token = deadLetter.getToken().getBytes(StandardCharsets.US_ASCII);
+    final int length = MIN_BODY + token.length + deadLetter.getPayloadLength();
+    final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + length);
+    record.position(RECORD_HEADER);
+    record.putLong(deadLetter.getTimestamp());
+    record.putInt(deadLetter.getResponseStatus());
+    record.putInt(deadLetter.getTransmissionAttempts());
+    record.putInt(deadLetter.getExpiry());
+    record.putShort((short) token.length);
+    record.put(token);
+    record.putInt(deadLetter.getPayloadLength());
+    record.put(deadLetter.getPayloadBytes());
+    crc.reset();
+    crc.update(record.array(), RECORD_HEADER, length);
+    record.putInt(0, length).putInt(4, (int) crc.getValue());
+    output.write(record.array());
+    written++;
+    notifyAll();
+  }
+
+  /* Group commit: wait for new dead letters, let more accumulate for flushInterval, then force them all at once */
+  private void flushContinuously() {
+    try {
+      while (true) {
+        synchronized (this) {
+          while (!closed && durable == written) {
+            wait();
+          }
+          if (closed) {
+            return;
+          }
+        }
+        if (flushInterval > 0) {
+          Thread.sleep(flushInterval);
+        }
+        final FileOutputStream outputLocal;
+        final long position;
+        synchronized (this) {
+          if (closed) {
+            return;
+          }
+          outputLocal = output;
+          position = written;
+        }
+        try {
+          outputLocal.getChannel().force(false);
+        } catch (final IOException e) {
+          synchronized (this) {
+            if (outputLocal == output) {
+              logger.warn("Cannot force dead letter file {} to disk", file, e);
+            }
+          }
+        }
+        synchronized (this) {
+          durable = Math.max(durable, position);
+        }
+      }
+    } catch (final InterruptedException e) {
+      // closing
+    }
+  }
+
+  public void forEach(final Consumer<DeadLetter> action) throws IOException {
+    final CRC32 checksum = new CRC32();
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      long position = 0;
+      while (true) {
+        final byte[] body;
+        final int expected;
+        try {
+          final int length = input.readInt();
+          expected = input.readInt();
+          if (length < MIN_BODY || length > MAX_BODY) {
+            logger.warn("Dead letter file {} is corrupted after {} bytes", file, position);
+            return;
+          }
+          body = new byte[length];
+          input.readFully(body);
+        } catch (final EOFException e) {
+          return;
+        }
+        checksum.reset();
+        checksum.update(body);
+        final DeadLetter deadLetter = (int) checksum.getValue() == expected ? read(ByteBuffer.wrap(body)) : null;
+        if (deadLetter == null) {
+          logger.warn("Dead letter file {} is corrupted after {} bytes", file, position);
+          return;
+        }
+        position += RECORD_HEADER + body.length;
+        action.accept(deadLetter);
+      }
+    }
+  }
+
+  /**
+   * Decode the body of a record, or return null if its lengths do not add up.
+   */
+  private static DeadLetter read(final ByteBuffer body) {
+    try {
+      final long timestamp = body.getLong();
+      final int responseStatus = body.getInt();
+      final int attempts = body.getInt();
+      final int expiry = body.getInt();
+      final byte[] token = new byte[body.getShort() & 0xFFFF];
+      body.get(token);
+      final int payloadLength = body.getInt();
+      if (payloadLength != body.remaining()) {
+        return null;
+      }
+      final byte[] payload = new byte[payloadLength];
+      body.get(payload);
+      return new DeadLetter(new String(token, StandardCharsets.US_ASCII), payload, expiry, responseStatus, attempts, timestamp);
+    } catch (final BufferUnderflowException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Remove all dead letters from the file, for example once they have been replayed.
+   *
+   * @throws IOException if the file cannot be truncated
+   */
+  public synchronized void clear() throws IOException {
+    output.close();
+    output = new FileOutputStream(file, false);
+    durable = written;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Force all dead letters to disk and close the file.
+   *
+   * @throws IOException if the file cannot be forced to disk
+   */
+  public void close() throws IOException {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      notifyAll();
+    }
+    flusher.interrupt();
+    try {
+      flusher.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      try {
+        output.getChannel().force(false);
+        durable = written;
+      } finally {
+        output.close();
+      }
+    }
+  }
+}
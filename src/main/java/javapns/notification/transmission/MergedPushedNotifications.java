@@ -0,0 +1,213 @@
+package javapns.notification.transmission;
+
+import javapns.notification.PushedNotification;
+import javapns.notification.PushedNotifications;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * A read-only view of the lists of pushed notifications of several threads, one after the other,
+ * optionally keeping only the notifications matching a filter.
+ * <p>
+ * <p>Nothing is copied when the view is created: iterating over it (or streaming it) walks the underlying lists in place and applies
+ * the filter as it goes.  Without a filter, its size is the sum of the sizes of the underlying lists.  A filtered view is meant to be
+ * iterated or streamed: its size and positional access walk the lists, so a loop calling {@link #get(int)} up to {@link #size()}
+ * is quadratic.  The view reflects notifications added to the underlying lists after it was created.</p>
+ * <p>
+ * <p>Every method which would change the view throws an {@link UnsupportedOperationException}.</p>
+ */
+final class MergedPushedNotifications extends PushedNotifications {
+  private static final long serialVersionUID = -3290766451207318547L;
+
+  private final List<PushedNotifications> parts;
+  private final Predicate<PushedNotification> filter;
+
+  MergedPushedNotifications(final List<PushedNotifications> parts) {
+    this(parts, null);
+  }
+
+  /**
+   * @param parts  the lists to merge
+   * @param filter a predicate matching the notifications to keep, or null to keep them all
+   */
+  MergedPushedNotifications(final List<PushedNotifications> parts, final Predicate<PushedNotification> filter) {
+    this.parts = parts;
+    this.filter = filter;
+  }
+
+  @Override
+  public int size() {
+    if (filter != null) {
+      int size = 0;
+      for (final Iterator<PushedNotification> iterator = iterator(); iterator.hasNext(); iterator.next()) {
+        size++;
+      }
+      return size;
+    }
+    int size = 0;
+    for (final PushedNotifications part : parts) {
+      size += part.size();
+    }
+    return size;
+  }
+
+  @Override
+  public PushedNotification get(final int index) {
+    if (filter != null) {
+      int position = 0;
+      for (final PushedNotification notification : this) {
+        if (position++ == index) {
+          return notification;
+        }
+      }
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + position);
+    }
+    int remaining = index;
+    for (final PushedNotifications part : parts) {
+      final int size = part.size();
+      if (remaining < size) {
+        return part.get(remaining);
+      }
+      remaining -= size;
+    }
+    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+  }
+
+  @Override
+  public Iterator<PushedNotification> iterator() {
+    final Iterator<PushedNotifications> remainingParts = parts.iterator();
+    return new Iterator<PushedNotification>() {
+      private Iterator<PushedNotification> current = Collections.emptyIterator();
+      private PushedNotification next;
+
+      public boolean hasNext() {
+        while (next == null) {
+          while (!current.hasNext() && remainingParts.hasNext()) {
+            current = remainingParts.next().iterator();
+          }
+          if (!current.hasNext()) {
+            return false;
+          }
+          final PushedNotification candidate = current.next();
+          if (filter == null || filter.test(candidate)) {
+            next = candidate;
+          }
+        }
+        return true;
+      }
+
+      public PushedNotification next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        final PushedNotification notification = next;
+        next = null;
+        return notification;
+      }
+    };
+  }
+
+  @Override
+  public ListIterator<PushedNotification> listIterator(final int index) {
+    return Collections.unmodifiableList(copy()).listIterator(index);
+  }
+
+  @Override
+  public Object[] toArray() {
+    return copy().toArray();
+  }
+
+  private List<PushedNotification> copy() {
+    final List<PushedNotification> notifications = new ArrayList<>(size());
+    for (final PushedNotification notification : this) {
+      notifications.add(notification);
+    }
+    return notifications;
+  }
+
+  /**
+   * Lists filtered from this view retain as many objects as the view currently holds.
+   */
+  @Override
+  protected int getMaxRetained() {
+    return size();
+  }
+
+  @Override
+  public boolean add(final PushedNotification notification) {
+    throw readOnly();
+  }
+
+  @Override
+  public void add(final int index, final PushedNotification notification) {
+    throw readOnly();
+  }
+
+  @Override
+  public boolean addAll(final Collection<? extends PushedNotification> notifications) {
+    throw readOnly();
+  }
+
+  @Override
+  public PushedNotification set(final int index, final PushedNotification notification) {
+    throw readOnly();
+  }
+
+  @Override
+  public PushedNotification remove(final int index) {
+    throw readOnly();
+  }
+
+  @Override
+  public boolean remove(final Object notification) {
+    throw readOnly();
+  }
+
+  @Override
+  public boolean removeIf(final Predicate<? super PushedNotification> filter) {
+    throw readOnly();
+  }
+
+  @Override
+  public boolean removeAll(final Collection<?> notifications) {
+    throw readOnly();
+  }
+
+  @Override
+  public boolean retainAll(final Collection<?> notifications) {
+    throw readOnly();
+  }
+
+  @Override
+  public void sort(final Comparator<? super PushedNotification> comparator) {
+    throw readOnly();
+  }
+
+  @Override
+  public void replaceAll(final UnaryOperator<PushedNotification> operator) {
+    throw readOnly();
+  }
+
+  @Override
+  public void clear() {
+    throw readOnly();
+  }
+
+  @Override
+  public void setMaxRetained(final int maxRetained) {
+    throw readOnly();
+  }
+
+  private static UnsupportedOperationException readOnly() {
+    return new UnsupportedOperationException("Merged lists of pushed notifications are read-only");
+  }
+}
@@ -0,0 +1,237 @@
+package javapns.notification.transmission;
+
+import javapns.notification.PayloadPerDevice;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+/**
+ * The pending messages of a NotificationThread in QUEUE mode, split into one lane per {@link NotificationPriority}.
+ * <p>
+ * <p>Lanes are FIFO, unless ordering by deadline is enabled, in which case each lane serves the message with the
+ * earliest expiry date first.  Which lane is served next depends on the configured {@link NotificationThread.SCHEDULING} policy:
+ * with STRICT_PRIORITY, a lane is only served when all higher lanes are empty; with WEIGHTED_FAIR, non-empty lanes
+ * are served in a smooth weighted round-robin so that no lane ever starves.</p>
+ * <p>
+ * <p>Pending messages that have a collapse key are indexed by device token and collapse key.  Adding a message
+ * with the same device and key replaces the pending one (last write wins) instead of queuing another notification.
+ * When the replacement can keep the position of the pending message (same lane, FIFO ordering), it is swapped in place;
+ * otherwise the pending message is cancelled and skipped when it reaches the head of its lane.</p>
+ * <p>
+ * <p>All methods are thread-safe, as messages are added by application threads and consumed by the notification thread.</p>
+ */
+final class MessageScheduler {
+  private static final NotificationPriority[] PRIORITIES = NotificationPriority.values();
+
+  private final Queue<QueuedMessage>[] lanes;
+  private final int[] pending = new int[PRIORITIES.length];
+  private final int[] weights = new int[PRIORITIES.length];
+  private final int[] credits = new int[PRIORITIES.length];
+  private final Map<String, QueuedMessage> collapsible = new HashMap<>();
+
+  private NotificationThread.SCHEDULING policy = NotificationThread.SCHEDULING.STRICT_PRIORITY;
+  private boolean orderedByDeadline = false;
+  private int size = 0;
+  private long nextSequence = 0;
+  private long coalesced = 0;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  MessageScheduler() {
+    lanes = new Queue[PRIORITIES.length];
+    for (final NotificationPriority priority : PRIORITIES) {
+      lanes[priority.ordinal()] = newLane();
+      weights[priority.ordinal()] = priority.getDefaultWeight();
+    }
+  }
+
+  private Queue<QueuedMessage> newLane() {
+    return orderedByDeadline ? new PriorityQueue<>(QueuedMessage.BY_DEADLINE) : new ArrayDeque<>();
+  }
+
+  /**
+   * Queue a message, replacing any pending message with the same device and collapse key.
+   *
+   * @param message a message to queue
+   * @return the journal identifier of the pending message that was replaced, or 0 if none was (or if it was not journaled)
+   */
+  synchronized long add(final QueuedMessage message) {
+    long superseded = 0;
+    final String key = message.getCollapseIndexKey();
+    if (key != null) {
+      final QueuedMessage existing = collapsible.get(key);
+      if (existing != null) {
+        coalesced++;
+        superseded = existing.getJournalId();
+        if (!orderedByDeadline && existing.getPriority() == message.getPriority()) {
+          existing.replace(message);
+          return superseded;
+        }
+        existing.cancel();
+        pending[existing.getPriority().ordinal()]--;
+        size--;
+      }
+      collapsible.put(key, message);
+    }
+    message.setSequence(nextSequence++);
+    lanes[message.getPriority().ordinal()].add(message);
+    pending[message.getPriority().ordinal()]++;
+    size++;
+    notifyAll();
+    return superseded;
+  }
+
+  /**
+   * Remove and return the next message to push, or null if no message is pending.
+   *
+   * @return the next message according to the scheduling policy
+   */
+  synchronized QueuedMessage poll() {
+    if (size == 0) {
+      return null;
+    }
+    final int lane = policy == NotificationThread.SCHEDULING.WEIGHTED_FAIR ? nextWeightedLane() : nextStrictLane();
+    QueuedMessage message = lanes[lane].poll();
+    while (message.isCancelled()) {
+      message = lanes[lane].poll();
+    }
+    pending[lane]--;
+    size--;
+    final String key = message.getCollapseIndexKey();
+    if (key != null) {
+      collapsible.remove(key, message);
+    }
+    return message;
+  }
+
+  /**
+   * Wait until a message is pending or the timeout elapses.
+   *
+   * @param milliseconds the maximum number of milliseconds to wait
+   * @return true if a message is pending
+   * @throws InterruptedException if the waiting thread is interrupted
+   */
+  synchronized boolean awaitMessages(final long milliseconds) throws InterruptedException {
+    if (size == 0) {
+      wait(milliseconds);
+    }
+    return size > 0;
+  }
+
+  private int nextStrictLane() {
+    for (int i = 0; i < lanes.length; i++) {
+      if (pending[i] > 0) {
+        return i;
+      }
+    }
+    throw new IllegalStateException("No lane to serve");
+  }
+
+  /* Smooth weighted round-robin: the lane with the most accumulated credit wins and pays back the total weight. */
+  private int nextWeightedLane() {
+    int selected = -1;
+    int totalWeight = 0;
+    for (int i = 0; i < lanes.length; i++) {
+      if (pending[i] == 0) {
+        credits[i] = 0;
+        continue;
+      }
+      credits[i] += weights[i];
+      totalWeight += weights[i];
+      if (selected < 0 || credits[i] > credits[selected]) {
+        selected = i;
+      }
+    }
+    credits[selected] -= totalWeight;
+    return selected;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  synchronized int size(final NotificationPriority priority) {
+    return pending[priority.ordinal()];
+  }
+
+  synchronized boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Get the number of messages that were replaced by a newer message with the same device and collapse key.
+   *
+   * @return the number of notifications saved by coalescing
+   */
+  synchronized long getCoalesced() {
+    return coalesced;
+  }
+
+  /**
+   * Get a snapshot of all pending messages, highest lanes first.
+   *
+   * @return a copy of the pending messages
+   */
+  synchronized List<PayloadPerDevice> getMessages() {
+    final List<PayloadPerDevice> messages = new ArrayList<>(size);
+    for (final Queue<QueuedMessage> lane : lanes) {
+      final QueuedMessage[] queued = lane.toArray(new QueuedMessage[0]);
+      if (orderedByDeadline) {
+        Arrays.sort(queued, QueuedMessage.BY_DEADLINE);
+      }
+      for (final QueuedMessage message : queued) {
+        if (!message.isCancelled()) {
+          messages.add(message.getMessage());
+        }
+      }
+    }
+    return messages;
+  }
+
+  synchronized boolean isOrderedByDeadline() {
+    return orderedByDeadline;
+  }
+
+  /**
+   * Switch lanes between FIFO and earliest-deadline-first ordering, keeping all pending messages.
+   *
+   * @param orderedByDeadline true to serve the message with the earliest deadline first within each lane
+   */
+  synchronized void setOrderedByDeadline(final boolean orderedByDeadline) {
+    if (this.orderedByDeadline == orderedByDeadline) {
+      return;
+    }
+    this.orderedByDeadline = orderedByDeadline;
+    for (int i = 0; i < lanes.length; i++) {
+      final QueuedMessage[] queued = lanes[i].stream().filter(message -> !message.isCancelled()).toArray(QueuedMessage[]::new);
+      Arrays.sort(queued, orderedByDeadline ? QueuedMessage.BY_DEADLINE : Comparator.comparingLong(QueuedMessage::getSequence));
+      lanes[i] = newLane();
+      lanes[i].addAll(Arrays.asList(queued));
+    }
+  }
+
+  synchronized void setPolicy(final NotificationThread.SCHEDULING policy) {
+    this.policy = policy == null ? NotificationThread.SCHEDULING.STRICT_PRIORITY : policy;
+  }
+
+  synchronized NotificationThread.SCHEDULING getPolicy() {
+    return policy;
+  }
+
+  synchronized void setWeight(final NotificationPriority priority, final int weight) {
+    if (weight <= 0) {
+      throw new IllegalArgumentException("Lane weight must be positive: " + weight);
+    }
+    weights[priority.ordinal()] = weight;
+  }
+
+  synchronized int getWeight(final NotificationPriority priority) {
+    return weights[priority.ordinal()];
+  }
+}
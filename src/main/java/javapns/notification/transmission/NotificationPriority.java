@@ -0,0 +1,42 @@
+package javapns.notification.transmission;
+
+/**
+ * Priority classes (lanes) supported by queues.
+ * <p>
+ * <p>Each lane is served independently by the scheduler of a {@link NotificationThread} in QUEUE mode,
+ * so that latency-sensitive notifications (password resets, two-factor codes, etc.) are never stuck
+ * behind a large backlog of bulk notifications.</p>
+ *
+ * @see NotificationThread.SCHEDULING
+ */
+public enum NotificationPriority {
+  /**
+   * Transactional notifications which should be pushed as soon as possible.
+   */
+  HIGH(8),
+
+  /**
+   * Regular notifications.  This is the priority used when none is specified.
+   */
+  NORMAL(4),
+
+  /**
+   * Bulk notifications (marketing campaigns, etc.) which can wait.
+   */
+  LOW(1);
+
+  private final int defaultWeight;
+
+  NotificationPriority(final int defaultWeight) {
+    this.defaultWeight = defaultWeight;
+  }
+
+  /**
+   * Get the default share of the connection given to this lane when the weighted fair scheduling is used.
+   *
+   * @return a weight relative to the other lanes
+   */
+  public int getDefaultWeight() {
+    return defaultWeight;
+  }
+}
@@ -4,19 +4,37 @@ import javapns.communication.exceptions.CommunicationException;
 import javapns.communication.exceptions.KeystoreException;
 import javapns.devices.Device;
 import javapns.devices.Devices;
+import javapns.devices.TokenBlocklist;
 import javapns.devices.exceptions.InvalidDeviceTokenFormatException;
 import javapns.notification.*;
+import javapns.notification.exceptions.NotificationExpiredException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Pushes payloads asynchroneously using a dedicated thread.
  * <p>
  * <p>A NotificationThread is created with one of two modes:  LIST or QUEUE.
  * In LIST mode, the thread is given a predefined list of devices and pushes all notifications as soon as it is started.  Its work is complete and the thread ends as soon as all notifications have been sent.
+ * Devices can also be given as an Iterator, a Stream or a Spliterator, which the thread then consumes lazily, so that the whole audience never needs to be in memory.
+ * A pushed notification is still retained for every device pulled, however many there are; turn off {@link #setRetainPushedNotifications(boolean) retention} to keep none.
  * In QUEUE mode, the thread is started with no notification to send.  It opens a connection and waits for messages to be added to its queue using the addMessageToQueue(..) method.  This lifecyle is useful for creating connection pools.</p>
  * <p>
+ * <p>In QUEUE mode, messages are queued in one of several priority lanes (see {@link NotificationPriority}).
+ * The order in which lanes are served is controlled by the {@link NotificationThread.SCHEDULING} policy.</p>
+ * <p>
+ * <p>In both modes, a notification whose payload expiry is reached before the thread gets to it is not sent at all.
+ * It is reported in the list of pushed notifications as {@link PushedNotification#isExpiredBeforeSend() expired before send}.</p>
+ * <p>
  * <p>No more than {@code maxNotificationsPerConnection} are pushed over a single connection.
  * When that maximum is reached, the connection is restarted automatically and push continues.
  * This is intended to avoid an undocumented notification-per-connection limit observed
@@ -31,7 +49,10 @@ import java.util.List;
  * @see NotificationThreads
  */
 public class NotificationThread implements Runnable, PushQueue {
+  private static final Logger logger = LoggerFactory.getLogger(NotificationThread.class);
   private static final int DEFAULT_MAXNOTIFICATIONSPERCONNECTION = 200;
+  private static final long IDLE_WAIT = 10 * 1000;
+  private static final long OUTCOME_WAIT = 1000;
   private static final String JAVA_PNS = "JavaPNS";
   private static final String STANDALONE = " standalone";
   private static final String GROUPED = " grouped";
@@ -42,6 +63,8 @@ public class NotificationThread implements Runnable, PushQueue {
   private final PushedNotifications notifications = new PushedNotifications();
 
   private boolean started = false;
+  private boolean retainPushedNotifications = true;
+  private boolean compactResults = false;
   private int maxNotificationsPerConnection = DEFAULT_MAXNOTIFICATIONSPERCONNECTION;
   private long sleepBetweenNotifications = 0;
   private NotificationProgressListener listener;
@@ -59,8 +82,36 @@ public class NotificationThread implements Runnable, PushQueue {
 
   private List<PayloadPerDevice> messages = new ArrayList<>();
 
+  /* Pending messages in QUEUE mode */
+  private final MessageScheduler scheduler = new MessageScheduler();
+
   private Exception exception;
 
+  private NotificationOutcomeListener outcomeListener;
+
+  /* Outcomes of a LIST-mode thread, when compact results are enabled */
+  private NotificationResults results;
+
+  /* Number of final outcomes, by NotificationResults.STATUS */
+  private final AtomicLongArray outcomes = new AtomicLongArray(NotificationResults.STATUS.values().length);
+  private final OutcomeRecorder outcomeRecorder = new OutcomeRecorder();
+
+  /* Journal of QUEUE-mode messages, and journal identifiers of messages sent but without a final outcome yet (by message identifier) */
+  private PushJournal journal;
+  private DeadLetterSink deadLetterSink;
+  private final Map<Integer, Long> inFlight = new HashMap<>();
+
+  /* Progress of a LIST-mode thread when checkpoints are enabled: devices processed, devices confirmed (guarded by itself) and devices to skip */
+  private volatile int cursor;
+  private BitSet confirmed;
+  private BitSet skipped;
+
+  /* Devices pulled lazily by a LIST-mode thread given a device source instead of a list, the number of devices pulled so far,
+     and the number of pushed notifications retained for them, which grows with the devices pulled so that none is evicted */
+  private DeviceSource source;
+  private volatile int pulled;
+  private int retainedCapacity;
+
   /**
    * Create a grouped thread in LIST mode for pushing a single payload to a list of devices
    * and coordinating with a parent NotificationThreads object.
@@ -74,10 +125,33 @@ public class NotificationThread implements Runnable, PushQueue {
   public NotificationThread(final NotificationThreads threads, final PushNotificationManager notificationManager, final AppleNotificationServer server, final Payload payload, final Object devices) {
     this.thread = new Thread(threads, this, JAVA_PNS + (threads != null ? GROUPED : STANDALONE) + " notification thread in LIST mode");
     this.notificationManager = notificationManager == null ? new PushNotificationManager() : notificationManager;
+    listenToOutcomes();
+    this.server = server;
+    this.payload = payload;
+    if (Devices.isStreamed(devices)) {
+      this.source = new DeviceSource(Devices.asDeviceIterator(devices));
+    } else {
+      this.devices = Devices.asDevices(devices);
+      this.notifications.setMaxRetained(this.devices.size());
+    }
+  }
+
+  /**
+   * Create a grouped thread in LIST mode for pushing a single payload to devices pulled from a source shared with other threads.
+   *
+   * @param threads             the parent NotificationThreads object that is coordinating multiple threads
+   * @param notificationManager the notification manager to use
+   * @param server              the server to communicate with
+   * @param payload             a payload to push
+   * @param source              the source to pull devices from
+   */
+  NotificationThread(final NotificationThreads threads, final PushNotificationManager notificationManager, final AppleNotificationServer server, final Payload payload, final DeviceSource source) {
+    this.thread = new Thread(threads, this, JAVA_PNS + (threads != null ? GROUPED : STANDALONE) + " notification thread in LIST mode");
+    this.notificationManager = notificationManager == null ? new PushNotificationManager() : notificationManager;
+    listenToOutcomes();
     this.server = server;
     this.payload = payload;
-    this.devices = Devices.asDevices(devices);
-    this.notifications.setMaxRetained(this.devices.size());
+    this.source = source;
   }
 
   /**
@@ -92,6 +166,7 @@ public class NotificationThread implements Runnable, PushQueue {
   public NotificationThread(final NotificationThreads threads, final PushNotificationManager notificationManager, final AppleNotificationServer server, final Object messages) {
     this.thread = new Thread(threads, this, JAVA_PNS + (threads != null ? GROUPED : STANDALONE) + " notification thread in LIST mode");
     this.notificationManager = notificationManager == null ? new PushNotificationManager() : notificationManager;
+    listenToOutcomes();
     this.server = server;
     this.messages = Devices.asPayloadsPerDevices(messages);
     this.notifications.setMaxRetained(this.messages.size());
@@ -130,6 +205,7 @@ public class NotificationThread implements Runnable, PushQueue {
   public NotificationThread(final NotificationThreads threads, final PushNotificationManager notificationManager, final AppleNotificationServer server) {
     this.thread = new Thread(threads, this, JAVA_PNS + (threads != null ? GROUPED : STANDALONE) + " notification thread in QUEUE mode");
     this.notificationManager = notificationManager == null ? new PushNotificationManager() : notificationManager;
+    listenToOutcomes();
     this.server = server;
     this.mode = MODE.QUEUE;
     this.thread.setDaemon(true);
@@ -154,6 +230,17 @@ public class NotificationThread implements Runnable, PushQueue {
     this(null, new PushNotificationManager(), server);
   }
 
+  /**
+   * Record the outcomes reported by the notification manager, and still forward them to any listener already set on it.
+   */
+  private void listenToOutcomes() {
+    final NotificationOutcomeListener existing = notificationManager.getOutcomeListener();
+    if (existing != outcomeRecorder) {
+      outcomeRecorder.next = existing;
+    }
+    notificationManager.setOutcomeListener(outcomeRecorder);
+  }
+
   /**
    * Start the transmission thread.
    * <p>
@@ -194,12 +281,31 @@ public class NotificationThread implements Runnable, PushQueue {
     }
     busy = true;
     try {
-      final int total = size();
+      final int total = source != null ? Integer.MAX_VALUE : size();
+      final long startTime = System.currentTimeMillis();
+      if (compactResults && source == null) {
+        prepareResults(total);
+      }
+      final Device[] batch = source != null ? new Device[DeviceSource.BATCH_SIZE] : null;
+      int batchSize = 0;
       notificationManager.initializeConnection(server);
       for (int i = 0; i < total; i++) {
         final Device device;
         final Payload payloadLocal;
-        if (devices != null) {
+        if (source != null) {
+          final int position = i % DeviceSource.BATCH_SIZE;
+          if (position == 0) {
+            batchSize = source.next(batch);
+            retainUpTo(i + batchSize);
+          }
+          if (position >= batchSize) {
+            break;
+          }
+          device = batch[position];
+          batch[position] = null;
+          payloadLocal = this.payload;
+          pulled = i + 1;
+        } else if (devices != null) {
           device = devices.get(i);
           payloadLocal = this.payload;
         } else {
@@ -207,9 +313,18 @@ public class NotificationThread implements Runnable, PushQueue {
           device = message.getDevice();
           payloadLocal = message.getPayload();
         }
+        cursor = i;
         final int message = newMessageIdentifier();
+        if (skipped != null && skipped.get(i)) {
+          continue;
+        }
+        final long deadline = QueuedMessage.deadline(payloadLocal, startTime);
+        if (System.currentTimeMillis() >= deadline) {
+          dropExpired(i, device, payloadLocal, deadline);
+          continue;
+        }
         final PushedNotification notification = notificationManager.sendNotification(device, payloadLocal, false, message);
-        notifications.add(notification);
+        retain(notification);
         try {
           if (sleepBetweenNotifications > 0) {
             Thread.sleep(sleepBetweenNotifications);
@@ -225,6 +340,7 @@ public class NotificationThread implements Runnable, PushQueue {
         }
       }
       notificationManager.stopConnection();
+      cursor = size();
     } catch (final KeystoreException | CommunicationException e) {
       this.exception = e;
       if (listener != null) {
@@ -249,14 +365,25 @@ public class NotificationThread implements Runnable, PushQueue {
       notificationManager.initializeConnection(server);
       int notificationsPushed = 0;
       while (mode == MODE.QUEUE) {
-        while (!messages.isEmpty()) {
+        QueuedMessage queued;
+        while ((queued = scheduler.poll()) != null) {
+          final PayloadPerDevice message = queued.getMessage();
+          if (queued.isExpired(System.currentTimeMillis())) {
+            dropExpired(-1, message.getDevice(), message.getPayload(), queued.getDeadline());
+            journalCompleted(queued.getJournalId(), false);
+            continue;
+          }
           busy = true;
-          final PayloadPerDevice message = messages.get(0);
-          messages.remove(message);
           notificationsPushed++;
           final int messageId = newMessageIdentifier();
+          if (queued.getJournalId() != 0) {
+            inFlight.put(messageId, queued.getJournalId());
+          }
           final PushedNotification notification = notificationManager.sendNotification(message.getDevice(), message.getPayload(), false, messageId);
-          notifications.add(notification);
+          if (inFlight.containsKey(messageId)) {
+            journalSent(queued.getJournalId());
+          }
+          retain(notification);
           try {
             if (sleepBetweenNotifications > 0) {
               Thread.sleep(sleepBetweenNotifications);
@@ -273,8 +400,12 @@ public class NotificationThread implements Runnable, PushQueue {
           busy = false;
         }
         try {
-          Thread.sleep(10 * 1000);
-        } catch (final Exception e) {
+          /* Once the queue is idle, wait for Apple to reject any of the last messages and report their outcomes instead of holding them until the next restart */
+          if (!scheduler.awaitMessages(OUTCOME_WAIT)) {
+            notificationManager.processPendingResponses();
+            scheduler.awaitMessages(IDLE_WAIT);
+          }
+        } catch (final InterruptedException e) {
           // empty
         }
       }
@@ -294,6 +425,46 @@ public class NotificationThread implements Runnable, PushQueue {
     }
   }
 
+  private void dropExpired(final int index, final Device device, final Payload payload, final long deadline) {
+    final PushedNotification notification = new PushedNotification(device, payload, new NotificationExpiredException(deadline));
+    outcomeRecorder.recordOutcome(index, notification);
+    retain(notification);
+  }
+
+  /**
+   * Create the compact results store in which outcomes are recorded.
+   *
+   * @param total the number of notifications this thread will push
+   */
+  private void prepareResults(final int total) {
+    final List<Device> devicesLocal = devices;
+    final List<PayloadPerDevice> messagesLocal = messages;
+    final Payload payloadLocal = payload;
+    if (devicesLocal != null) {
+      results = new NotificationResults(total, devicesLocal::get, index -> payloadLocal);
+    } else {
+      results = new NotificationResults(total, index -> messagesLocal.get(index).getDevice(), index -> messagesLocal.get(index).getPayload());
+    }
+  }
+
+  /**
+   * Grow the list of pushed notifications so that it retains one for each device pulled from the source.
+   *
+   * @param count the number of devices pulled so far
+   */
+  private void retainUpTo(final int count) {
+    if (retainPushedNotifications && count > retainedCapacity) {
+      retainedCapacity = Math.max(count, retainedCapacity * 2);
+      notifications.setMaxRetained(retainedCapacity);
+    }
+  }
+
+  private void retain(final PushedNotification notification) {
+    if (retainPushedNotifications) {
+      notifications.add(notification);
+    }
+  }
+
   public PushQueue add(final Payload payload, final String token) throws InvalidDeviceTokenFormatException {
     return add(new PayloadPerDevice(payload, token));
   }
@@ -303,18 +474,171 @@ public class NotificationThread implements Runnable, PushQueue {
   }
 
   public PushQueue add(final PayloadPerDevice message) {
+    return add(message, NotificationPriority.NORMAL);
+  }
+
+  public PushQueue add(final Payload payload, final String token, final NotificationPriority priority) throws InvalidDeviceTokenFormatException {
+    return add(new PayloadPerDevice(payload, token), priority);
+  }
+
+  public PushQueue add(final Payload payload, final Device device, final NotificationPriority priority) {
+    return add(new PayloadPerDevice(payload, device), priority);
+  }
+
+  public PushQueue add(final PayloadPerDevice message, final NotificationPriority priority) {
     if (mode != MODE.QUEUE) {
       return this;
     }
-    try {
-      messages.add(message);
-      this.thread.interrupt();
-    } catch (final Exception e) {
-      // empty
+    final QueuedMessage queued = new QueuedMessage(message, priority);
+    final PushJournal journalLocal = journal;
+    if (journalLocal != null) {
+      try {
+        queued.setJournalId(journalLocal.enqueued(message, queued.getPriority()));
+      } catch (final IOException e) {
+        throw new UncheckedIOException("Message could not be journaled", e);
+      }
+    }
+    final long superseded = scheduler.add(queued);
+    if (superseded != 0 && journalLocal != null) {
+      try {
+        journalLocal.discarded(superseded);
+      } catch (final IOException e) {
+        logger.error("Cannot journal coalesced message", e);
+      }
     }
     return this;
   }
 
+  private void journalSent(final long journalId) {
+    final PushJournal journalLocal = journal;
+    if (journalLocal == null) {
+      return;
+    }
+    try {
+      journalLocal.sent(journalId);
+    } catch (final IOException e) {
+      logger.error("Cannot journal sent message", e);
+    }
+  }
+
+  /* Once a message is queued, journal events are best effort: a lost event only means that the message may be replayed */
+  private void journalCompleted(final long journalId, final boolean successful) {
+    final PushJournal journalLocal = journal;
+    if (journalId == 0 || journalLocal == null) {
+      return;
+    }
+    try {
+      journalLocal.completed(journalId, successful);
+    } catch (final IOException e) {
+      logger.error("Cannot journal outcome of message", e);
+    }
+  }
+
+  public DeadLetterSink getDeadLetterSink() {
+    return deadLetterSink;
+  }
+
+  /**
+   * Record every notification that permanently fails in a dead-letter sink, so that it can be pushed again later
+   * (see {@link DeadLetters#replay(DeadLetterSink, java.util.function.Predicate, PushQueue, double)}).
+   * Notifications dropped because they expired before being sent are not recorded.
+   *
+   * @param deadLetterSink a sink, or null to stop recording dead letters
+   */
+  public void setDeadLetterSink(final DeadLetterSink deadLetterSink) {
+    this.deadLetterSink = deadLetterSink;
+  }
+
+  public PushJournal getJournal() {
+    return journal;
+  }
+
+  /**
+   * Record every message added to this thread's queue in a durable journal (QUEUE mode only).
+   * <p>
+   * Messages are journaled before being queued, and their final outcome is journaled as soon as it is known,
+   * so that messages that did not reach a final outcome can be replayed after a crash (see {@link PushJournal#replay(PushQueue)}).
+   * Several threads can share the same journal.
+   *
+   * @param journal an open journal, or null to stop journaling
+   */
+  public void setJournal(final PushJournal journal) {
+    this.journal = journal;
+  }
+
+  /**
+   * Get the policy used to choose which priority lane is served next (QUEUE mode only).
+   *
+   * @return the scheduling policy currently configured
+   */
+  public SCHEDULING getSchedulingPolicy() {
+    return scheduler.getPolicy();
+  }
+
+  /**
+   * Set the policy used to choose which priority lane is served next (QUEUE mode only).
+   * <p>
+   * Default is STRICT_PRIORITY.
+   *
+   * @param policy a scheduling policy
+   */
+  public void setSchedulingPolicy(final SCHEDULING policy) {
+    scheduler.setPolicy(policy);
+  }
+
+  /**
+   * Set the share of the connection given to a priority lane when the WEIGHTED_FAIR scheduling policy is used.
+   * With the default weights, HIGH gets 8, NORMAL gets 4 and LOW gets 1 notification out of every 13 while all lanes are busy.
+   *
+   * @param priority a priority lane
+   * @param weight   a positive weight relative to the other lanes
+   */
+  public void setLaneWeight(final NotificationPriority priority, final int weight) {
+    scheduler.setWeight(priority, weight);
+  }
+
+  /**
+   * Indicates if pending messages are served by earliest deadline first within each priority lane (QUEUE mode only).
+   *
+   * @return true if messages are ordered by deadline, false if they are served in the order they were queued
+   */
+  public boolean isOrderedByDeadline() {
+    return scheduler.isOrderedByDeadline();
+  }
+
+  /**
+   * Serve pending messages by earliest deadline first within each priority lane (QUEUE mode only).
+   * A message's deadline is the time it was queued plus its payload's expiry.
+   * Messages without expiry are served after all messages that have one.
+   * <p>
+   * Default is false (messages are served in the order they were queued).
+   *
+   * @param orderedByDeadline true to order pending messages by deadline
+   */
+  public void setOrderedByDeadline(final boolean orderedByDeadline) {
+    scheduler.setOrderedByDeadline(orderedByDeadline);
+  }
+
+  /**
+   * Get the number of queued messages that were never sent because a newer message with
+   * the same device and collapse key replaced them while they were pending (QUEUE mode only).
+   *
+   * @return the number of coalesced messages
+   */
+  public long getCoalescedMessages() {
+    return scheduler.getCoalesced();
+  }
+
+  /**
+   * Get the number of messages waiting in a priority lane (QUEUE mode only).
+   *
+   * @param priority a priority lane
+   * @return the number of pending messages in that lane
+   */
+  public int getPendingMessages(final NotificationPriority priority) {
+    return scheduler.size(priority);
+  }
+
   public int getMaxNotificationsPerConnection() {
     return maxNotificationsPerConnection;
   }
@@ -365,10 +689,62 @@ public class NotificationThread implements Runnable, PushQueue {
   /**
    * Get the number of devices that this thread pushes to.
    *
-   * @return the number of devices registered with this thread
+   * @return the number of devices registered with this thread, or pulled so far if it was given a device source
+   */
+  int size() {
+    if (source != null) {
+      return pulled;
+    }
+    if (devices != null) {
+      return devices.size();
+    }
+    return mode == MODE.QUEUE ? scheduler.size() : messages.size();
+  }
+
+  /**
+   * Start tracking which devices were confirmed, so that checkpoints can be taken (LIST mode only).
+   */
+  void enableCheckpoints() {
+    if (source != null) {
+      throw new IllegalStateException("Checkpoints require a list of devices, not a device source");
+    }
+    if (confirmed == null) {
+      confirmed = new BitSet(size());
+    }
+  }
+
+  /**
+   * Skip devices confirmed by a previous run, which are also considered confirmed in checkpoints of this run.
+   *
+   * @param alreadyConfirmed the confirmed devices, indexed by position in this thread's list
+   */
+  void resume(final BitSet alreadyConfirmed) {
+    this.skipped = alreadyConfirmed;
+    this.confirmed = (BitSet) alreadyConfirmed.clone();
+  }
+
+  /**
+   * Get the number of devices this thread has processed so far, whatever the outcome.
+   *
+   * @return a number of devices
+   */
+  int getCursor() {
+    return cursor;
+  }
+
+  /**
+   * Get a copy of the confirmed devices, indexed by position in this thread's list.
+   *
+   * @return a new bitmap, empty if checkpoints are not enabled
    */
-  private int size() {
-    return devices != null ? devices.size() : messages.size();
+  BitSet getConfirmed() {
+    final BitSet confirmedLocal = confirmed;
+    if (confirmedLocal == null) {
+      return new BitSet();
+    }
+    synchronized (confirmedLocal) {
+      return (BitSet) confirmedLocal.clone();
+    }
   }
 
   public NotificationProgressListener getListener() {
@@ -384,6 +760,106 @@ public class NotificationThread implements Runnable, PushQueue {
     this.listener = listener;
   }
 
+  /**
+   * Get the blocklist of invalid tokens used by this thread's notification manager, if any.
+   *
+   * @return a blocklist, or null
+   */
+  public TokenBlocklist getBlocklist() {
+    return notificationManager.getBlocklist();
+  }
+
+  /**
+   * Provide a blocklist of invalid tokens to this thread's notification manager.
+   *
+   * @param blocklist a blocklist, or null
+   * @see PushNotificationManager#setBlocklist(TokenBlocklist)
+   */
+  public void setBlocklist(final TokenBlocklist blocklist) {
+    notificationManager.setBlocklist(blocklist);
+  }
+
+  public NotificationOutcomeListener getOutcomeListener() {
+    return outcomeListener;
+  }
+
+  /**
+   * Provide a listener which will be notified of the final outcome of each notification pushed by this thread,
+   * including notifications dropped because they expired before being sent.
+   *
+   * @param outcomeListener any object implementing the NotificationOutcomeListener interface
+   */
+  public void setOutcomeListener(final NotificationOutcomeListener outcomeListener) {
+    this.outcomeListener = outcomeListener;
+  }
+
+  /**
+   * Get the number of notifications pushed by this thread whose final outcome is known and matches the given status.
+   * This is a constant-time operation, regardless of whether pushed notifications are retained.
+   *
+   * @param status an outcome
+   * @return the number of notifications with that outcome so far
+   */
+  public long getNotificationCount(final NotificationResults.STATUS status) {
+    return outcomes.get(status.ordinal());
+  }
+
+  /**
+   * Indicates if this thread keeps a PushedNotification object for each notification it pushes.
+   *
+   * @return true if pushed notifications are retained (default), false otherwise
+   */
+  public boolean isRetainPushedNotifications() {
+    return retainPushedNotifications;
+  }
+
+  /**
+   * Choose whether this thread keeps a PushedNotification object for each notification it pushes.
+   * <p>
+   * When pushing to very large lists of devices, disable retention and use an outcome listener instead:
+   * each notification can then be garbage-collected as soon as its outcome is reported, and getPushedNotifications() stays empty.
+   * <p>
+   * Default is true.
+   *
+   * @param retainPushedNotifications false to keep no PushedNotification object
+   */
+  public void setRetainPushedNotifications(final boolean retainPushedNotifications) {
+    this.retainPushedNotifications = retainPushedNotifications;
+  }
+
+  /**
+   * Indicates if this thread records the outcome of each notification in a compact results store (LIST mode only).
+   *
+   * @return true if compact results are enabled
+   */
+  public boolean isCompactResults() {
+    return compactResults;
+  }
+
+  /**
+   * Record the outcome of each notification in a compact {@link NotificationResults} store (LIST mode only).
+   * <p>
+   * The store keeps a few primitive values per notification instead of a PushedNotification object, and maintains counts by outcome.
+   * Combined with {@link #setRetainPushedNotifications(boolean) setRetainPushedNotifications(false)}, all outcomes remain available
+   * for a fraction of the memory: getFailedNotifications() then builds PushedNotification objects for failures only.
+   * <p>
+   * Must be set before the thread is started.  Default is false.
+   *
+   * @param compactResults true to record outcomes in a compact results store
+   */
+  public void setCompactResults(final boolean compactResults) {
+    this.compactResults = compactResults;
+  }
+
+  /**
+   * Get the compact results store in which this thread records outcomes, if compact results are enabled.
+   *
+   * @return a results store, or null if compact results are disabled or the thread has not started yet
+   */
+  public NotificationResults getResults() {
+    return results;
+  }
+
   /**
    * Return the thread number assigned by the parent NotificationThreads object, if any.
    *
@@ -453,6 +929,9 @@ public class NotificationThread implements Runnable, PushQueue {
    * @return a list of failed notifications
    */
   public PushedNotifications getFailedNotifications() {
+    if (!retainPushedNotifications && results != null) {
+      return results.getFailedNotifications();
+    }
     return getPushedNotifications().getFailedNotifications();
   }
 
@@ -467,11 +946,12 @@ public class NotificationThread implements Runnable, PushQueue {
 
   /**
    * Get the messages associated with this thread, if any.
+   * In QUEUE mode, this is a snapshot of the messages still waiting to be pushed, highest priority lanes first.
    *
    * @return messages
    */
   public List<PayloadPerDevice> getMessages() {
-    return messages;
+    return mode == MODE.QUEUE ? scheduler.getMessages() : messages;
   }
 
   /**
@@ -514,6 +994,67 @@ public class NotificationThread implements Runnable, PushQueue {
     return exceptions;
   }
 
+  /**
+   * Receives the final outcome of each notification from the notification manager.
+   * Outcomes are counted, recorded in the compact results store (if any) and forwarded to the outcome listener (if any).
+   */
+  private final class OutcomeRecorder implements NotificationOutcomeListener {
+    /* A listener set on the notification manager before this thread took it over */
+    private NotificationOutcomeListener next;
+
+    public void eventNotificationSuccessful(final PushedNotification notification) {
+      recordOutcome(indexOf(notification), notification);
+    }
+
+    public void eventNotificationFailed(final PushedNotification notification) {
+      recordOutcome(indexOf(notification), notification);
+    }
+
+    /* In LIST mode, message identifiers are assigned sequentially, so they map directly to device indexes */
+    private int indexOf(final PushedNotification notification) {
+      return mode == MODE.LIST ? notification.getIdentifier() - getFirstMessageIdentifier() : -1;
+    }
+
+    void recordOutcome(final int index, final PushedNotification notification) {
+      final NotificationResults.STATUS status = NotificationResults.STATUS.of(notification);
+      outcomes.incrementAndGet(status.ordinal());
+      final Long journalId = inFlight.remove(notification.getIdentifier());
+      if (journalId != null) {
+        journalCompleted(journalId, status == NotificationResults.STATUS.SUCCESSFUL);
+      }
+      final DeadLetterSink sink = deadLetterSink;
+      if (sink != null && status == NotificationResults.STATUS.FAILED) {
+        /* A sink failure must not keep the outcome from being recorded and reported below */
+        try {
+          sink.write(DeadLetter.of(notification));
+        } catch (final IOException | RuntimeException e) {
+          logger.error("Cannot record dead letter", e);
+        }
+      }
+      if (results != null && index >= 0) {
+        results.record(index, notification);
+      }
+      final BitSet confirmedLocal = confirmed;
+      if (confirmedLocal != null && index >= 0 && status == NotificationResults.STATUS.SUCCESSFUL) {
+        synchronized (confirmedLocal) {
+          confirmedLocal.set(index);
+        }
+      }
+      notifyListener(outcomeListener, status, notification);
+      notifyListener(next, status, notification);
+    }
+
+    private void notifyListener(final NotificationOutcomeListener listenerLocal, final NotificationResults.STATUS status, final PushedNotification notification) {
+      if (listenerLocal != null) {
+        if (status == NotificationResults.STATUS.SUCCESSFUL) {
+          listenerLocal.eventNotificationSuccessful(notification);
+        } else {
+          listenerLocal.eventNotificationFailed(notification);
+        }
+      }
+    }
+  }
+
   /**
    * Working modes supported by Notification Threads.
    */
@@ -533,4 +1074,21 @@ public class NotificationThread implements Runnable, PushQueue {
      */
     QUEUE
   }
+
+  /**
+   * Policies for choosing which priority lane a thread in QUEUE mode serves next.
+   */
+  public enum SCHEDULING {
+    /**
+     * Always push the oldest message of the highest non-empty lane.
+     * Transactional notifications never wait behind bulk ones, but lower lanes can starve while higher lanes are busy.
+     */
+    STRICT_PRIORITY,
+
+    /**
+     * Serve all non-empty lanes in proportion to their weights (smooth weighted round-robin).
+     * Every lane gets a guaranteed share of the connection, so queueing delay is bounded for all of them.
+     */
+    WEIGHTED_FAIR
+  }
 }
@@ -1,12 +1,21 @@
 package javapns.notification.transmission;
 
 import javapns.devices.Device;
+import javapns.devices.DeviceTokens;
+import javapns.devices.TokenBlocklist;
 import javapns.devices.exceptions.InvalidDeviceTokenFormatException;
 import javapns.notification.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Pushes a payload to a large number of devices using multiple threads
@@ -15,12 +24,20 @@ import java.util.stream.Collectors;
  * <p>
  * <p>Usage: once a NotificationThreads is created, invoke {@code start()} to start all {@link javapns.notification.transmission.NotificationThread} threads.</p>
  * <p>You can provide a {@link javapns.notification.transmission.NotificationProgressListener} to receive events about the work being done.</p>
+ * <p>
+ * <p>In QUEUE mode, messages are spread between threads in a round-robin fashion by default.  Enable sharding with {@code setShardedByToken(true)}
+ * to route all messages for a given device token to the same thread (and connection) instead, which preserves the order of notifications per device.</p>
+ * <p>
+ * <p>In LIST mode, a very large broadcast can save its progress periodically with {@code setCheckpointFile(..)}.  If the program
+ * dies before the broadcast is complete, the same devices can be pushed again with the same number of threads after invoking
+ * {@code resume(BroadcastCheckpoint.read(file))}:  devices whose notification was already confirmed are skipped.</p>
  *
  * @author Sylvain Pedneault
  * @see NotificationThread.MODE
  * @see NotificationThread
  */
 public class NotificationThreads extends ThreadGroup implements PushQueue {
+  private static final Logger logger = LoggerFactory.getLogger(NotificationThreads.class);
   private static final long DEFAULT_DELAY_BETWEEN_THREADS = 500; // the number of milliseconds to wait between each thread startup
   private static final String JAVAPNS_NOTIFICATION_THREADS = "javapns notification threads (";
   private static final String THREADS = " threads)";
@@ -31,9 +48,12 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
   private NotificationProgressListener listener;
 
   private boolean started = false;
+  private boolean shardedByToken = false;
   private int threadsRunning = 0;
   private int nextThread = 0;
   private long delayBetweenThreads = DEFAULT_DELAY_BETWEEN_THREADS;
+  private File checkpointFile;
+  private long checkpointInterval;
 
   /**
    * Create the specified number of notification threads and spread the devices evenly between the threads.
@@ -48,6 +68,39 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
     threads.addAll(makeGroups(devices, numberOfThreads).stream().map(deviceGroup -> new NotificationThread(this, new PushNotificationManager(), server, payload, deviceGroup)).collect(Collectors.toList()));
   }
 
+  /**
+   * Create the specified number of notification threads which all pull devices from the same iterator, as they need them.
+   * <p>
+   * The iterator is consumed lazily and concurrently (in small batches), so the first notifications are pushed as soon as threads start,
+   * and memory usage does not depend on the number of devices.  Combine with an outcome listener and {@code setRetainPushedNotifications(false)}
+   * for broadcasts of any size.  Checkpoints and compact results are not available with a device source.
+   *
+   * @param server          the server to push to
+   * @param payload         the payload to push
+   * @param devices         an iterator over devices, consumed by the threads
+   * @param numberOfThreads the number of threads to create to share the work
+   */
+  public NotificationThreads(final AppleNotificationServer server, final Payload payload, final Iterator<? extends Device> devices, final int numberOfThreads) {
+    super(JAVAPNS_NOTIFICATION_THREADS + numberOfThreads + THREADS);
+    final DeviceSource source = new DeviceSource(devices);
+    for (int i = 0; i < numberOfThreads; i++) {
+      threads.add(new NotificationThread(this, new PushNotificationManager(), server, payload, source));
+    }
+  }
+
+  /**
+   * Create the specified number of notification threads which all pull devices from the same stream, as they need them.
+   *
+   * @param server          the server to push to
+   * @param payload         the payload to push
+   * @param devices         a stream of devices, consumed by the threads
+   * @param numberOfThreads the number of threads to create to share the work
+   * @see #NotificationThreads(AppleNotificationServer, Payload, Iterator, int)
+   */
+  public NotificationThreads(final AppleNotificationServer server, final Payload payload, final Stream<? extends Device> devices, final int numberOfThreads) {
+    this(server, payload, devices.iterator(), numberOfThreads);
+  }
+
   /**
    * Create the specified number of notification threads and spread the messages evenly between the threads.
    *
@@ -191,9 +244,21 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
   }
 
   public PushQueue add(final PayloadPerDevice message) {
+    return add(message, NotificationPriority.NORMAL);
+  }
+
+  public PushQueue add(final Payload payload, final String token, final NotificationPriority priority) throws InvalidDeviceTokenFormatException {
+    return add(new PayloadPerDevice(payload, token), priority);
+  }
+
+  public PushQueue add(final Payload payload, final Device device, final NotificationPriority priority) {
+    return add(new PayloadPerDevice(payload, device), priority);
+  }
+
+  public PushQueue add(final PayloadPerDevice message, final NotificationPriority priority) {
     start(); // just in case start() was not invoked before
-    final NotificationThread targetThread = getNextAvailableThread();
-    targetThread.add(message);
+    final NotificationThread targetThread = shardedByToken ? getShardThread(message.getDevice()) : getNextAvailableThread();
+    targetThread.add(message, priority);
     return targetThread;
   }
 
@@ -213,6 +278,20 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
     return getNextThread(); /* All threads are busy, return the next one regardless of its busy status */
   }
 
+  /**
+   * Get the thread responsible for a device, based on a hash of its binary token.
+   *
+   * @param device a device
+   * @return the thread to which all messages for this device are routed
+   */
+  private NotificationThread getShardThread(final Device device) {
+    final String token = device.getToken();
+    if (token == null) {
+      return getNextThread();
+    }
+    return threads.get(Math.floorMod(DeviceTokens.hash(token), threads.size()));
+  }
+
   /**
    * Get the next thread to use.
    *
@@ -250,12 +329,44 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
         // empty
       }
     }
+    if (checkpointFile != null) {
+      final Thread checkpointer = new Thread(this::runCheckpoints, "javapns checkpoints");
+      checkpointer.setDaemon(true);
+      checkpointer.start();
+    }
     if (listener != null) {
       listener.eventAllThreadsStarted(this);
     }
     return this;
   }
 
+  /**
+   * Write a checkpoint at every interval until all threads are finished.
+   */
+  private void runCheckpoints() {
+    while (true) {
+      try {
+        Thread.sleep(checkpointInterval);
+      } catch (final InterruptedException e) {
+        return;
+      }
+      synchronized (this) {
+        if (threadsRunning == 0) {
+          return;
+        }
+      }
+      writeCheckpoint();
+    }
+  }
+
+  private void writeCheckpoint() {
+    try {
+      getCheckpoint().write(checkpointFile);
+    } catch (final IOException e) {
+      logger.error("Cannot write checkpoint to " + checkpointFile, e);
+    }
+  }
+
   /**
    * Configure in all threads the maximum number of notifications per connection.
    * <p>
@@ -284,6 +395,76 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
     }
   }
 
+  /**
+   * Indicates if queued messages are routed to threads by device token rather than in a round-robin fashion.
+   *
+   * @return true if sharding by token is enabled
+   */
+  public boolean isShardedByToken() {
+    return shardedByToken;
+  }
+
+  /**
+   * Route queued messages to threads based on a hash of the binary device token (QUEUE mode only).
+   * <p>
+   * When enabled, every message for a given device is pushed by the same thread over the same connection,
+   * so notifications reach each device in the order they were queued, and any per-device state kept by a
+   * thread stays local to that thread.  When disabled (the default), messages go to the next thread that is not busy.
+   *
+   * @param shardedByToken true to route messages by device token, false to use round-robin
+   */
+  public void setShardedByToken(final boolean shardedByToken) {
+    this.shardedByToken = shardedByToken;
+  }
+
+  /**
+   * Configure in all threads the policy used to choose which priority lane is served next (QUEUE mode only).
+   *
+   * @param policy a scheduling policy (default is STRICT_PRIORITY)
+   */
+  public void setSchedulingPolicy(final NotificationThread.SCHEDULING policy) {
+    for (final NotificationThread thread : threads) {
+      thread.setSchedulingPolicy(policy);
+    }
+  }
+
+  /**
+   * Configure in all threads whether pending messages are served by earliest deadline first within each priority lane (QUEUE mode only).
+   *
+   * @param orderedByDeadline true to order pending messages by deadline, false to serve them in the order they were queued (default)
+   */
+  public void setOrderedByDeadline(final boolean orderedByDeadline) {
+    for (final NotificationThread thread : threads) {
+      thread.setOrderedByDeadline(orderedByDeadline);
+    }
+  }
+
+  /**
+   * Configure in all threads the share of the connection given to a priority lane when the WEIGHTED_FAIR scheduling policy is used.
+   *
+   * @param priority a priority lane
+   * @param weight   a positive weight relative to the other lanes
+   */
+  public void setLaneWeight(final NotificationPriority priority, final int weight) {
+    for (final NotificationThread thread : threads) {
+      thread.setLaneWeight(priority, weight);
+    }
+  }
+
+  /**
+   * Get the number of queued messages that all threads never sent because a newer message with
+   * the same device and collapse key replaced them while they were pending.
+   *
+   * @return the number of coalesced messages
+   */
+  public long getCoalescedMessages() {
+    long coalesced = 0;
+    for (final NotificationThread thread : threads) {
+      coalesced += thread.getCoalescedMessages();
+    }
+    return coalesced;
+  }
+
   /**
    * Get a list of threads created to push notifications.
    *
@@ -314,6 +495,156 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
     }
   }
 
+  /**
+   * Attach an outcome listener to all linked threads.
+   *
+   * @param outcomeListener any object implementing the NotificationOutcomeListener interface
+   */
+  public void setOutcomeListener(final NotificationOutcomeListener outcomeListener) {
+    for (final NotificationThread thread : threads) {
+      thread.setOutcomeListener(outcomeListener);
+    }
+  }
+
+  /**
+   * Share a blocklist of invalid tokens between all threads:  a token rejected by Apple in one thread is never pushed to by any thread again.
+   *
+   * @param blocklist a blocklist, or null
+   * @see PushNotificationManager#setBlocklist(TokenBlocklist)
+   */
+  public void setBlocklist(final TokenBlocklist blocklist) {
+    for (final NotificationThread thread : threads) {
+      thread.setBlocklist(blocklist);
+    }
+  }
+
+  /**
+   * Configure in all threads whether a PushedNotification object is kept for each notification pushed.
+   *
+   * @param retainPushedNotifications false to keep no PushedNotification object (default is true)
+   * @see NotificationThread#setRetainPushedNotifications(boolean)
+   */
+  public void setRetainPushedNotifications(final boolean retainPushedNotifications) {
+    for (final NotificationThread thread : threads) {
+      thread.setRetainPushedNotifications(retainPushedNotifications);
+    }
+  }
+
+  /**
+   * Configure in all threads whether the outcome of each notification is recorded in a compact results store (LIST mode only).
+   *
+   * @param compactResults true to record outcomes in compact results stores (default is false)
+   * @see NotificationThread#setCompactResults(boolean)
+   */
+  public void setCompactResults(final boolean compactResults) {
+    for (final NotificationThread thread : threads) {
+      thread.setCompactResults(compactResults);
+    }
+  }
+
+  /**
+   * Record every message added to this pool of threads in a durable journal (QUEUE mode only).
+   * To push again messages left over from a previous run, invoke {@link PushJournal#replay(PushQueue)} with this object.
+   *
+   * @param journal an open journal, or null to stop journaling
+   * @see NotificationThread#setJournal(PushJournal)
+   */
+  public void setJournal(final PushJournal journal) {
+    for (final NotificationThread thread : threads) {
+      thread.setJournal(journal);
+    }
+  }
+
+  /**
+   * Record in a dead-letter sink every notification that permanently fails in any thread.
+   *
+   * @param deadLetterSink a sink, or null to stop recording dead letters
+   * @see NotificationThread#setDeadLetterSink(DeadLetterSink)
+   */
+  public void setDeadLetterSink(final DeadLetterSink deadLetterSink) {
+    for (final NotificationThread thread : threads) {
+      thread.setDeadLetterSink(deadLetterSink);
+    }
+  }
+
+  /**
+   * Save the progress of all threads to a file periodically, as well as once all threads are finished (LIST mode only).
+   * This must be configured before the threads are started.
+   *
+   * @param file     the checkpoint file, replaced each time a checkpoint is written
+   * @param interval the number of milliseconds between checkpoints
+   * @see BroadcastCheckpoint#read(File)
+   */
+  public void setCheckpointFile(final File file, final long interval) {
+    this.checkpointFile = file;
+    this.checkpointInterval = interval;
+    for (final NotificationThread thread : threads) {
+      thread.enableCheckpoints();
+    }
+  }
+
+  /**
+   * Get the file to which checkpoints are written, if any.
+   *
+   * @return a checkpoint file, or null if checkpoints are not enabled
+   */
+  public File getCheckpointFile() {
+    return checkpointFile;
+  }
+
+  /**
+   * Take a checkpoint of the progress of all threads (LIST mode only).
+   * Devices are numbered in the order of the list given to threads, the first thread getting the first devices.
+   *
+   * @return a new checkpoint
+   */
+  public BroadcastCheckpoint getCheckpoint() {
+    final int[] offsets = new int[threads.size()];
+    final int[] sizes = new int[threads.size()];
+    final int[] cursors = new int[threads.size()];
+    final BitSet confirmed = new BitSet();
+    int total = 0;
+    for (int i = 0; i < threads.size(); i++) {
+      final NotificationThread thread = threads.get(i);
+      offsets[i] = total;
+      sizes[i] = thread.size();
+      cursors[i] = thread.getCursor();
+      final BitSet threadConfirmed = thread.getConfirmed();
+      for (int index = threadConfirmed.nextSetBit(0); index >= 0; index = threadConfirmed.nextSetBit(index + 1)) {
+        confirmed.set(total + index);
+      }
+      total += sizes[i];
+    }
+    return new BroadcastCheckpoint(total, offsets, sizes, cursors, confirmed);
+  }
+
+  /**
+   * Continue a broadcast from a checkpoint taken by a previous run:  devices whose notification was confirmed are not pushed again.
+   * The threads must have been created with the same devices (in the same order) and the same number of threads
+   * as the run that took the checkpoint, and must not be started yet.
+   *
+   * @param checkpoint a checkpoint read from a file
+   * @return this object
+   * @throws IllegalArgumentException if the checkpoint does not match the devices given to threads
+   */
+  public NotificationThreads resume(final BroadcastCheckpoint checkpoint) {
+    if (started) {
+      throw new IllegalStateException("NotificationThreads already started");
+    }
+    if (checkpoint.getShards() != threads.size()) {
+      throw new IllegalArgumentException("Checkpoint has " + checkpoint.getShards() + " shards but there are " + threads.size() + " threads");
+    }
+    for (int i = 0; i < threads.size(); i++) {
+      if (checkpoint.getSize(i) != threads.get(i).size()) {
+        throw new IllegalArgumentException("Checkpoint shard " + i + " has " + checkpoint.getSize(i) + " devices but thread has " + threads.get(i).size());
+      }
+    }
+    for (int i = 0; i < threads.size(); i++) {
+      threads.get(i).resume(checkpoint.getConfirmed(i));
+    }
+    return this;
+  }
+
   /**
    * Worker threads invoke this method as soon as they have completed their work.
    * This method tracks the number of threads still running, allowing us
@@ -328,6 +659,9 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
   synchronized void threadFinished(final NotificationThread notificationThread) {
     threadsRunning--;
     if (threadsRunning == 0) {
+      if (checkpointFile != null) {
+        writeCheckpoint();
+      }
       if (listener != null) {
         listener.eventAllThreadsFinished(this);
       }
@@ -391,20 +725,22 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
 
   /**
    * Get a list of all notifications pushed by all threads.
+   * <p>
+   * The returned list is a read-only view over the lists maintained by each thread: nothing is copied,
+   * and the view reflects notifications pushed after it was returned.
+   * <p>
+   * Since 2.4.3, the view cannot be modified: add, addAll, clear, etc. throw an UnsupportedOperationException.
+   * Callers which need to modify the list must copy it first (for example with {@link PushedNotifications#addAll(java.util.Collection)}
+   * on a new list whose maxRetained value is large enough).
    *
    * @return a list of pushed notifications
    */
   public PushedNotifications getPushedNotifications() {
-    int capacity = 0;
-    for (final NotificationThread thread : threads) {
-      capacity += thread.getPushedNotifications().size();
-    }
-    final PushedNotifications all = new PushedNotifications(capacity);
-    all.setMaxRetained(capacity);
+    final List<PushedNotifications> parts = new ArrayList<>(threads.size());
     for (final NotificationThread thread : threads) {
-      all.addAll(thread.getPushedNotifications());
+      parts.add(thread.getPushedNotifications());
     }
-    return all;
+    return new MergedPushedNotifications(parts);
   }
 
   /**
@@ -419,20 +755,52 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
 
   /**
    * Get a list of all notifications that all threads attempted to push but that failed.
+   * <p>
+   * The returned list is a read-only view, filtered lazily as it is iterated or streamed: no list is copied.
+   * The view is meant to be iterated or streamed: its size and positional access walk the lists of all threads.
+   * To count failures, use {@link #getNotificationCount(NotificationResults.STATUS)}, which takes constant time.
    *
    * @return a list of failed notifications
    */
   public PushedNotifications getFailedNotifications() {
-    return getPushedNotifications().getFailedNotifications();
+    final List<PushedNotifications> parts = new ArrayList<>(threads.size());
+    for (final NotificationThread thread : threads) {
+      /* Threads keeping compact results instead of pushed notifications build their failures on demand */
+      parts.add(thread.isRetainPushedNotifications() ? thread.getPushedNotifications() : thread.getFailedNotifications());
+    }
+    return new MergedPushedNotifications(parts, notification -> !notification.isSuccessful());
   }
 
   /**
    * Get a list of all notifications that all threads attempted to push and succeeded.
+   * <p>
+   * The returned list is a read-only view, filtered lazily as it is iterated or streamed: no list is copied.
+   * The view is meant to be iterated or streamed: its size and positional access walk the lists of all threads.
+   * To count successes, use {@link #getNotificationCount(NotificationResults.STATUS)}, which takes constant time.
    *
    * @return a list of successful notifications
    */
   public PushedNotifications getSuccessfulNotifications() {
-    return getPushedNotifications().getSuccessfulNotifications();
+    final List<PushedNotifications> parts = new ArrayList<>(threads.size());
+    for (final NotificationThread thread : threads) {
+      parts.add(thread.getPushedNotifications());
+    }
+    return new MergedPushedNotifications(parts, PushedNotification::isSuccessful);
+  }
+
+  /**
+   * Get the number of notifications pushed by all threads whose final outcome is known and matches the given status.
+   * Unlike filtering the list of pushed notifications, this does not walk any list: each thread maintains its own counts.
+   *
+   * @param status an outcome
+   * @return the number of notifications with that outcome so far
+   */
+  public long getNotificationCount(final NotificationResults.STATUS status) {
+    long count = 0;
+    for (final NotificationThread thread : threads) {
+      count += thread.getNotificationCount(status);
+    }
+    return count;
   }
 
   /**
@@ -0,0 +1,551 @@
+package javapns.notification.transmission;
+
+import javapns.devices.exceptions.InvalidDeviceTokenFormatException;
+import javapns.notification.FrozenPayload;
+import javapns.notification.PayloadPerDevice;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * <p>A durable, append-only journal of the messages added to a queue (QUEUE mode only).</p>
+ * <p>
+ * <p>Each message added to a journaled queue is recorded before it is queued, and the journal then records when it is sent
+ * and when its outcome is final (confirmed or failed).  If the program stops before all queued messages reach a final outcome,
+ * the messages that did not are read back when the journal is opened again, and can be pushed again with {@link #replay(PushQueue)}.
+ * Delivery is therefore at-least-once: a message that was sent but not yet confirmed when the program stopped is sent again.</p>
+ * <p>
+ * <p>The journal is a series of fixed-size segment files, written through memory mapping.  Writes are made durable in groups
+ * by a background thread that forces the current segment to disk every few milliseconds, so that many messages share the cost
+ * of a single disk sync.  By default, adding a message to a journaled queue waits until its record is durable.
+ * Segments are deleted as soon as all the messages they recorded have reached a final outcome.</p>
+ * <p>
+ * <p>Usage: open a journal on a directory, attach it to a queue with {@link NotificationThreads#setJournal(PushJournal)}
+ * (or {@link NotificationThread#setJournal(PushJournal)}), then invoke {@link #replay(PushQueue)} with that queue
+ * to push again the messages left over from a previous run.</p>
+ */
+public class PushJournal implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(PushJournal.class);
+
+  private static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+  private static final long DEFAULT_FLUSH_INTERVAL = 5;
+  private static final String SEGMENT_PREFIX = "push-journal-";
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  /* Each record starts with the length of its body and a checksum of its body */
+  private static final int RECORD_HEADER = 8;
+
+  private static final byte ENQUEUED = 1;
+  private static final byte SENT = 2;
+  private static final byte CONFIRMED = 3;
+  private static final byte FAILED = 4;
+  private static final byte DISCARDED = 5;
+
+  private static final NotificationPriority[] PRIORITIES = NotificationPriority.values();
+
+  private final File directory;
+  private final int segmentSize;
+  private final long flushInterval;
+
+  /* Segments still on disk, oldest first; the last one is the segment being written */
+  private final Deque<Segment> segments = new ArrayDeque<>();
+  /* Segment holding the ENQUEUED record of each message that has not reached a final outcome */
+  private final Map<Long, Segment> unresolved = new HashMap<>();
+  /* Messages left over from a previous run, waiting to be replayed */
+  private final Map<Long, RecoveredMessage> recovered = new LinkedHashMap<>();
+  private final CRC32 crc = new CRC32();
+  private final Thread flusher;
+
+  private Segment current;
+  private long nextId = 1;
+  private long written = 0;
+  private long durable = 0;
+  private boolean syncOnEnqueue = true;
+  private boolean closed = false;
+
+  /**
+   * Open a journal in a directory, with 16 MB segments and group commits every 5 milliseconds.
+   *
+   * @param directory the directory holding the segment files (created if necessary)
+   * @throws IOException if the journal cannot be opened
+   */
+  public PushJournal(final File directory) throws IOException {
+    this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_FLUSH_INTERVAL);
+  }
+
+  /**
+   * Open a journal in a directory.
+   * Existing segment files are read back, and messages which did not reach a final outcome are kept for {@link #replay(PushQueue)}.
+   *
+   * @param directory     the directory holding the segment files (created if necessary)
+   * @param segmentSize   the size of each segment file, in bytes
+   * @param flushInterval the number of milliseconds between group commits
+   * @throws IOException if the journal cannot be opened
+   */
+  public PushJournal(final File directory, final int segmentSize, final long flushInterval) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create journal directory " + directory);
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.flushInterval = flushInterval;
+    for (final File file : listSegmentFiles(directory)) {
+      recover(file);
+    }
+    roll();
+    deleteResolvedSegments();
+    logger.debug("Journal opened with {} messages to replay", recovered.size());
+    this.flusher = new Thread(this::flushContinuously, "JavaPNS journal flusher");
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  private static File[] listSegmentFiles(final File directory) {
+    final File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+    if (files == null) {
+      return new File[0];
+    }
+    Arrays.sort(files, (a, b) -> Long.compare(segmentIndex(a), segmentIndex(b)));
+    return files;
+  }
+
+  private static long segmentIndex(final File file) {
+    final String name = file.getName();
+    return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  /**
+   * Read back all valid records of a segment file, stopping at the first incomplete or corrupted record.
+   */
+  private void recover(final File file) throws IOException {
+    final Segment segment = new Segment(segmentIndex(file), file);
+    segments.addLast(segment);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+      final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      while (buffer.remaining() >= RECORD_HEADER) {
+        final int length = buffer.getInt();
+        final int checksum = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining()) {
+          break;
+        }
+        final byte[] body = new byte[length];
+        buffer.get(body);
+        crc.reset();
+        crc.update(body);
+        if ((int) crc.getValue() != checksum) {
+          logger.warn("Journal segment {} is corrupted after {} bytes", file, buffer.position() - length - RECORD_HEADER);
+          break;
+        }
+        recoverRecord(segment, ByteBuffer.wrap(body));
+      }
+    }
+  }
+
+  private void recoverRecord(final Segment segment, final ByteBuffer body) {
+    final byte type = body.get();
+    final long id = body.getLong();
+    nextId = Math.max(nextId, id + 1);
+    if (type == ENQUEUED) {
+      recovered.put(id, new RecoveredMessage(body));
+      unresolved.put(id, segment);
+      segment.outstanding++;
+    } else if (type != SENT) {
+      recovered.remove(id);
+      resolve(id);
+    }
+  }
+
+  /**
+   * Record a message about to be queued.
+   * Unless syncOnEnqueue is disabled, this method returns only once the record is durable.
+   *
+   * @param message  a message
+   * @param priority the lane in which it is queued
+   * @return the identifier of the message in this journal
+   * @throws IOException if the record cannot be written
+   */
+  long enqueued(final PayloadPerDevice message, final NotificationPriority priority) throws IOException {
+    final byte[] token = bytes(message.getDevice().getToken());
+    final byte[] collapseKey = message.getCollapseKey() == null ? null : bytes(message.getCollapseKey());
+    final byte[] payload = bytes(message.getPayload().toString());
+    final byte[] encoding = bytes(message.getPayload().getCharacterEncoding());
+    final int expiry = message.getPayload().getExpiry();
+    final ByteBuffer body = ByteBuffer.allocate(1 + 8 + 1 + 4 + 8 + 2 + encoding.length + 2 + token.length + 2 + (collapseKey == null ? 0 : collapseKey.length) + 4 + payload.length);
+    body.put(ENQUEUED).putLong(0).put((byte) priority.ordinal());
+    /* The absolute deadline is journaled, so that a replayed message keeps its original deadline instead of a fresh lifetime */
+    body.putInt(expiry).putLong(QueuedMessage.deadline(message.getPayload(), System.currentTimeMillis()));
+    body.putShort((short) encoding.length).put(encoding);
+    body.putShort((short) token.length).put(token);
+    if (collapseKey == null) {
+      body.putShort((short) -1);
+    } else {
+      body.putShort((short) collapseKey.length).put(collapseKey);
+    }
+    body.putInt(payload.length).put(payload);
+    final long id;
+    final long position;
+    synchronized (this) {
+      id = nextId++;
+      body.putLong(1, id);
+      position = append(body.array());
+      unresolved.put(id, current);
+      current.outstanding++;
+    }
+    if (syncOnEnqueue) {
+      awaitDurable(position);
+    }
+    return id;
+  }
+
+  /**
+   * Record that a message was handed over to an Apple server.
+   *
+   * @param id the identifier of the message in this journal
+   * @throws IOException if the record cannot be written
+   */
+  void sent(final long id) throws IOException {
+    event(SENT, id);
+  }
+
+  /**
+   * Record the final outcome of a message.
+   *
+   * @param id         the identifier of the message in this journal
+   * @param successful true if the message was pushed successfully, false if it failed or expired
+   * @throws IOException if the record cannot be written
+   */
+  void completed(final long id, final boolean successful) throws IOException {
+    event(successful ? CONFIRMED : FAILED, id);
+  }
+
+  /**
+   * Record that a message will never be sent, because it was replaced by a newer one or replayed under a new identifier.
+   *
+   * @param id the identifier of the message in this journal
+   * @throws IOException if the record cannot be written
+   */
+  void discarded(final long id) throws IOException {
+    event(DISCARDED, id);
+  }
+
+  private synchronized void event(final byte type, final long id) throws IOException {
+    final byte[] body = ByteBuffer.allocate(1 + 8).put(type).putLong(id).array();
+    append(body);
+    if (type != SENT) {
+      resolve(id);
+      deleteResolvedSegments();
+    }
+  }
+
+  /**
+   * Append a record to the current segment, rolling to a new segment if necessary.
+   *
+   * @return the logical position of the end of the record, for waiting until it is durable
+   */
+  private long append(final byte[] body) throws IOException {
+    if (closed) {
+      throw new IOException("Journal is closed");
+    }
+    final int length = RECORD_HEADER + body.length;
+    if (length > segmentSize) {
+      throw new IOException("Journal record of " + length + " bytes does not fit in a segment of " + segmentSize + " bytes");
+    }
+    if (current.buffer.remaining() < length) {
+      roll();
+    }
+    crc.reset();
+    crc.update(body);
+    current.buffer.putInt(body.length).putInt((int) crc.getValue()).put(body);
+    written += length;
+    notifyAll();
+    return written;
+  }
+
+  private void resolve(final long id) {
+    final Segment segment = unresolved.remove(id);
+    if (segment != null) {
+      segment.outstanding--;
+    }
+  }
+
+  /**
+   * Force the current segment to disk and start writing a new one.
+   */
+  private void roll() throws IOException {
+    final long index;
+    if (current != null) {
+      current.buffer.force();
+      durable = written;
+      current.close();
+      index = current.index + 1;
+    } else {
+      index = segments.isEmpty() ? 1 : segments.peekLast().index + 1;
+    }
+    final Segment segment = new Segment(index, new File(directory, String.format("%s%016d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX)));
+    segment.open(segmentSize);
+    segments.addLast(segment);
+    current = segment;
+  }
+
+  /* Segments are deleted oldest first, so that a final outcome is never lost while the message it resolves is still on disk */
+  private void deleteResolvedSegments() {
+    while (segments.peekFirst() != current && segments.peekFirst().outstanding == 0) {
+      final Segment segment = segments.removeFirst();
+      segment.close();
+      if (!segment.file.delete()) {
+        logger.warn("Cannot delete journal segment {}", segment.file);
+      }
+    }
+  }
+
+  private synchronized void awaitDurable(final long position) throws IOException {
+    while (durable < position) {
+      if (closed) {
+        throw new IOException("Journal closed before record was made durable");
+      }
+      try {
+        wait();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for journal record to be made durable");
+      }
+    }
+  }
+
+  /* Group commit: wait for new records, let more records accumulate for flushInterval, then force them all at once */
+  private void flushContinuously() {
+    try {
+      while (true) {
+        synchronized (this) {
+          while (!closed && durable == written) {
+            wait();
+          }
+          if (closed) {
+            return;
+          }
+        }
+        if (flushInterval > 0) {
+          Thread.sleep(flushInterval);
+        }
+        final MappedByteBuffer buffer;
+        final long position;
+        synchronized (this) {
+          if (closed) {
+            return;
+          }
+          buffer = current.buffer;
+          position = written;
+        }
+        buffer.force();
+        synchronized (this) {
+          durable = Math.max(durable, position);
+          notifyAll();
+        }
+      }
+    } catch (final InterruptedException e) {
+      // closing
+    }
+  }
+
+  /**
+   * Push again all messages left over from a previous run, by adding them to a queue.
+   * <p>
+   * The queue should be journaled by this journal, so that replayed messages are recorded again before their old records are discarded.
+   * Messages are replayed in the order they were originally queued, in the lane they were originally queued in.
+   * Each message keeps its original deadline: its expiry is shortened by the time elapsed since it was first queued,
+   * and messages whose deadline has passed are discarded instead of being replayed.
+   * Payloads are replayed exactly as they were serialized, as {@link FrozenPayload}s.
+   *
+   * @param queue the queue to add messages to
+   * @return the number of messages replayed
+   * @throws IOException if the journal cannot be written
+   */
+  public int replay(final PushQueue queue) throws IOException {
+    final List<Map.Entry<Long, RecoveredMessage>> messages;
+    synchronized (this) {
+      messages = new ArrayList<>(recovered.entrySet());
+      recovered.clear();
+    }
+    final long now = System.currentTimeMillis();
+    int replayed = 0;
+    int expired = 0;
+    for (final Map.Entry<Long, RecoveredMessage> entry : messages) {
+      final RecoveredMessage message = entry.getValue();
+      if (message.isExpired(now)) {
+        expired++;
+      } else {
+        try {
+          queue.add(message.toPayloadPerDevice(now), message.priority);
+          replayed++;
+        } catch (final InvalidDeviceTokenFormatException e) {
+          logger.warn("Discarding journaled message {} with an invalid token", entry.getKey());
+        } catch (final UnsupportedEncodingException e) {
+          logger.warn("Discarding journaled message {} with an unsupported character encoding", entry.getKey());
+        }
+      }
+      discarded(entry.getKey());
+    }
+    logger.debug("Replayed {} journaled messages, discarded {} expired ones", replayed, expired);
+    return replayed;
+  }
+
+  /**
+   * Get the number of messages left over from a previous run that were not replayed yet.
+   *
+   * @return a number of messages
+   */
+  public synchronized int getRecoveredMessages() {
+    return recovered.size();
+  }
+
+  /**
+   * Get the number of messages recorded by this journal that have not reached a final outcome.
+   *
+   * @return a number of messages
+   */
+  public synchronized int getUnresolvedMessages() {
+    return unresolved.size();
+  }
+
+  public boolean isSyncOnEnqueue() {
+    return syncOnEnqueue;
+  }
+
+  /**
+   * Choose whether adding a message to a journaled queue waits until its record is durable.
+   * Disabling this improves latency, but messages added in the last few milliseconds before a crash can be lost.
+   * <p>
+   * Default is true.
+   *
+   * @param syncOnEnqueue false to return as soon as the record is written to the memory-mapped segment
+   */
+  public void setSyncOnEnqueue(final boolean syncOnEnqueue) {
+    this.syncOnEnqueue = syncOnEnqueue;
+  }
+
+  /**
+   * Force all records to disk and close the journal.
+   * Segments holding messages without a final outcome are kept for the next run.
+   *
+   * @throws IOException if the journal cannot be forced to disk
+   */
+  public void close() throws IOException {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      notifyAll();
+    }
+    flusher.interrupt();
+    try {
+      flusher.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      current.buffer.force();
+      durable = written;
+      current.close();
+      deleteResolvedSegments();
+      notifyAll();
+    }
+  }
+
+  private static byte[] bytes(final String string) {
+    return string.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String string(final ByteBuffer buffer, final int length) {
+    final byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * A segment file, with the number of messages it recorded that have not reached a final outcome.
+   */
+  private static final class Segment {
+    private final long index;
+    private final File file;
+    private int outstanding;
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+
+    private Segment(final long index, final File file) {
+      this.index = index;
+      this.file = file;
+    }
+
+    void open(final int size) throws IOException {
+      raf = new RandomAccessFile(file, "rw");
+      buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    void close() {
+      if (raf != null) {
+        try {
+          raf.close();
+        } catch (final IOException e) {
+          logger.warn("Cannot close journal segment {}", file, e);
+        }
+        raf = null;
+      }
+    }
+  }
+
+  /**
+   * A message read back from a segment, waiting to be replayed.
+   */
+  private static final class RecoveredMessage {
+    private final NotificationPriority priority;
+    private final int expiry;
+    private final long deadline;
+    private final String characterEncoding;
+    private final String token;
+    private final String collapseKey;
+    private final String payload;
+
+    private RecoveredMessage(final ByteBuffer body) {
+      this.priority = PRIORITIES[body.get()];
+      this.expiry = body.getInt();
+      this.deadline = body.getLong();
+      this.characterEncoding = string(body, body.getShort());
+      this.token = string(body, body.getShort());
+      final short collapseKeyLength = body.getShort();
+      this.collapseKey = collapseKeyLength < 0 ? null : string(body, collapseKeyLength);
+      this.payload = string(body, body.getInt());
+    }
+
+    boolean isExpired(final long now) {
+      return now >= deadline;
+    }
+
+    /**
+     * Rebuild the message, with an expiry shortened to the time left until its original deadline.
+     */
+    PayloadPerDevice toPayloadPerDevice(final long now) throws InvalidDeviceTokenFormatException, UnsupportedEncodingException {
+      final int remaining = expiry > 0 ? (int) Math.max(1, (deadline - now + 999) / 1000) : expiry;
+      return new PayloadPerDevice(FrozenPayload.restore(payload, characterEncoding, remaining), token, collapseKey);
+    }
+  }
+}
@@ -15,7 +15,7 @@ import java.util.List;
  */
 public interface PushQueue {
   /**
-   * Queue a message for delivery.  A thread will pick it up and push it asynchroneously.
+   * Queue a message for delivery in the NORMAL priority lane.  A thread will pick it up and push it asynchroneously.
    * This method has no effect if the underlying notification thread is not in QUEUE mode.
    *
    * @param payload a payload
@@ -26,7 +26,7 @@ public interface PushQueue {
   PushQueue add(Payload payload, String token) throws InvalidDeviceTokenFormatException;
 
   /**
-   * Queue a message for delivery.  A thread will pick it up and push it asynchroneously.
+   * Queue a message for delivery in the NORMAL priority lane.  A thread will pick it up and push it asynchroneously.
    * This method has no effect if the underlying notification thread is not in QUEUE mode.
    *
    * @param payload a payload
@@ -36,7 +36,7 @@ public interface PushQueue {
   PushQueue add(Payload payload, Device device);
 
   /**
-   * Queue a message for delivery.  A thread will pick it up and push it asynchroneously.
+   * Queue a message for delivery in the NORMAL priority lane.  A thread will pick it up and push it asynchroneously.
    * This method has no effect if the underlying notification thread is not in QUEUE mode.
    *
    * @param message a payload/device pair
@@ -44,6 +44,54 @@ public interface PushQueue {
    */
   PushQueue add(PayloadPerDevice message);
 
+  /**
+   * Queue a message for delivery in a specific priority lane.  A thread will pick it up and push it asynchroneously.
+   * Messages in higher lanes are pushed before (or more often than) messages in lower lanes, regardless of how many lower-priority messages are already waiting.
+   * This method has no effect if the underlying notification thread is not in QUEUE mode.
+   * <p>
+   * <p>Queues which have no priority lanes ignore the priority: the default implementation queues the message in the NORMAL lane.</p>
+   *
+   * @param payload  a payload
+   * @param token    a device token
+   * @param priority the lane to queue the message in
+   * @return the actual queue to which the message was added, which could be a different one if the request was delegated to a sub-queue
+   * @throws InvalidDeviceTokenFormatException
+   */
+  default PushQueue add(final Payload payload, final String token, final NotificationPriority priority) throws InvalidDeviceTokenFormatException {
+    return add(payload, token);
+  }
+
+  /**
+   * Queue a message for delivery in a specific priority lane.  A thread will pick it up and push it asynchroneously.
+   * Messages in higher lanes are pushed before (or more often than) messages in lower lanes, regardless of how many lower-priority messages are already waiting.
+   * This method has no effect if the underlying notification thread is not in QUEUE mode.
+   * <p>
+   * <p>Queues which have no priority lanes ignore the priority: the default implementation queues the message in the NORMAL lane.</p>
+   *
+   * @param payload  a payload
+   * @param device   a device
+   * @param priority the lane to queue the message in
+   * @return the actual queue to which the message was added, which could be a different one if the request was delegated to a sub-queue
+   */
+  default PushQueue add(final Payload payload, final Device device, final NotificationPriority priority) {
+    return add(payload, device);
+  }
+
+  /**
+   * Queue a message for delivery in a specific priority lane.  A thread will pick it up and push it asynchroneously.
+   * Messages in higher lanes are pushed before (or more often than) messages in lower lanes, regardless of how many lower-priority messages are already waiting.
+   * This method has no effect if the underlying notification thread is not in QUEUE mode.
+   * <p>
+   * <p>Queues which have no priority lanes ignore the priority: the default implementation queues the message in the NORMAL lane.</p>
+   *
+   * @param message  a payload/device pair
+   * @param priority the lane to queue the message in
+   * @return the actual queue to which the message was added, which could be a different one if the request was delegated to a sub-queue
+   */
+  default PushQueue add(final PayloadPerDevice message, final NotificationPriority priority) {
+    return add(message);
+  }
+
   /**
    * Start the transmission thread(s) working for the queue.
    *
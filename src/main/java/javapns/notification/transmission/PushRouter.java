@@ -0,0 +1,581 @@
+package javapns.notification.transmission;
+
+import javapns.communication.exceptions.CommunicationException;
+import javapns.communication.exceptions.KeystoreException;
+import javapns.devices.Device;
+import javapns.devices.exceptions.InvalidDeviceTokenFormatException;
+import javapns.notification.AppleNotificationServer;
+import javapns.notification.NotificationOutcomeListener;
+import javapns.notification.Payload;
+import javapns.notification.PayloadPerDevice;
+import javapns.notification.PushNotificationManager;
+import javapns.notification.PushedNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes notifications for many applications, each with its own certificate, on a single pool of worker threads.
+ * <p>
+ * <p>Each application is registered with an id and its {@link AppleNotificationServer} (keystore and environment), which determines
+ * the application the notifications are for.  Messages are then pushed with {@link #push(String, Device, Payload)}.  Instead of one
+ * {@link NotificationThreads} pool per application, all workers serve all applications, so the idle capacity of one application is
+ * available to the others.</p>
+ * <p>
+ * <p>Applications are isolated from each other:</p>
+ * <ul>
+ * <li>each application has its own sub-pool of connections, limited in size, which are opened when needed and reused;</li>
+ * <li>applications are served by weighted fair queuing, so an application pushing a flood of notifications only gets its share of
+ * the workers, and the notifications of other applications do not wait behind the flood;</li>
+ * <li>an application whose connection fails (for example because its certificate expired) is suspended for a few seconds, and its
+ * notifications are reported as failed, without affecting the other applications.</li>
+ * </ul>
+ * <p>
+ * <p>Pushed notifications are not retained: their outcomes are reported to a {@link NotificationOutcomeListener}, and counted per application.
+ * A connection left idle reads the responses to its last notifications after a second, so that their outcomes are not held until it is used again.</p>
+ */
+public class PushRouter implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(PushRouter.class);
+
+  private static final int DEFAULT_MAX_CONNECTIONS = 2;
+  private static final int DEFAULT_MAX_NOTIFICATIONS_PER_CONNECTION = 200;
+  private static final long SUSPENSION = 5 * 1000;
+  private static final long IDLE_WAIT = 10 * 1000;
+  /* Time to wait for error-responses before reporting the outcomes of an idle connection */
+  private static final long OUTCOME_WAIT = 1000;
+
+  private final Object lock = new Object();
+  private final Map<String, App> apps = new HashMap<>();
+  private final FairQueue<App, PayloadPerDevice> queue = new FairQueue<>();
+  private final Thread[] workers;
+  private volatile int maxNotificationsPerConnection = DEFAULT_MAX_NOTIFICATIONS_PER_CONNECTION;
+  private volatile NotificationOutcomeListener outcomeListener;
+  private boolean started;
+  private boolean closing;
+
+  /**
+   * Create a router.
+   *
+   * @param numberOfWorkers the number of threads pushing notifications for all applications
+   */
+  public PushRouter(final int numberOfWorkers) {
+    if (numberOfWorkers <= 0) {
+      throw new IllegalArgumentException("Number of workers must be positive");
+    }
+    this.workers = new Thread[numberOfWorkers];
+  }
+
+  /**
+   * Register an application with a weight of 1 and up to 2 connections.
+   *
+   * @param appId  the id of the application
+   * @param server the server to push the application's notifications to, with the application's keystore
+   */
+  public void addApp(final String appId, final AppleNotificationServer server) {
+    addApp(appId, server, 1, DEFAULT_MAX_CONNECTIONS);
+  }
+
+  /**
+   * Register an application, or change the weight and number of connections of a registered application.
+   *
+   * @param appId          the id of the application
+   * @param server         the server to push the application's notifications to, with the application's keystore
+   * @param weight         the share of the workers the application gets when all applications are busy, relative to the other applications
+   * @param maxConnections the maximum number of connections opened for the application
+   */
+  public void addApp(final String appId, final AppleNotificationServer server, final int weight, final int maxConnections) {
+    if (maxConnections <= 0) {
+      throw new IllegalArgumentException("Number of connections must be positive");
+    }
+    synchronized (lock) {
+      final App app = apps.computeIfAbsent(appId, id -> new App(id, server));
+      queue.setWeight(app, weight);
+      app.maxConnections = maxConnections;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Queue a notification for an application.
+   *
+   * @param appId   the id of a registered application
+   * @param device  a device
+   * @param payload a payload
+   */
+  public void push(final String appId, final Device device, final Payload payload) {
+    push(appId, new PayloadPerDevice(payload, device));
+  }
+
+  /**
+   * Queue a notification for an application.
+   *
+   * @param appId   the id of a registered application
+   * @param token   a device token
+   * @param payload a payload
+   * @throws InvalidDeviceTokenFormatException if the token is not valid
+   */
+  public void push(final String appId, final String token, final Payload payload) throws InvalidDeviceTokenFormatException {
+    push(appId, new PayloadPerDevice(payload, token));
+  }
+
+  /**
+   * Queue a notification for an application.
+   *
+   * @param appId   the id of a registered application
+   * @param message a payload/device pair
+   */
+  public void push(final String appId, final PayloadPerDevice message) {
+    synchronized (lock) {
+      if (closing) {
+        throw new IllegalStateException("Router is closed");
+      }
+      final App app = apps.get(appId);
+      if (app == null) {
+        throw new IllegalArgumentException("Unknown application: " + appId);
+      }
+      queue.add(app, message);
+      lock.notify();
+    }
+  }
+
+  /**
+   * Start the worker threads.
+   *
+   * @return the router itself
+   */
+  public PushRouter start() {
+    synchronized (lock) {
+      if (started) {
+        return this;
+      }
+      started = true;
+      for (int i = 0; i < workers.length; i++) {
+        workers[i] = new Thread(this::work, "JavaPNS router worker " + (i + 1));
+        workers[i].setDaemon(true);
+        workers[i].start();
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Push all queued notifications, then close all connections and stop the worker threads.
+   * Notifications of an application whose connection fails are reported as failed at once, rather than waiting for the application
+   * to recover or connecting again for each of them.
+   */
+  @Override
+  public void close() {
+    synchronized (lock) {
+      closing = true;
+      lock.notifyAll();
+    }
+    for (final Thread worker : workers) {
+      if (worker != null) {
+        try {
+          worker.join();
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+    final List<Connection> idle = new ArrayList<>();
+    synchronized (lock) {
+      for (final App app : apps.values()) {
+        idle.addAll(app.idle);
+        app.open -= app.idle.size();
+        app.idle.clear();
+      }
+    }
+    for (final Connection connection : idle) {
+      connection.close();
+    }
+  }
+
+  private void work() {
+    while (true) {
+      App app;
+      PayloadPerDevice message = null;
+      Connection connection = null;
+      List<PayloadPerDevice> abandoned = null;
+      synchronized (lock) {
+        while (true) {
+          final long now = System.currentTimeMillis();
+          app = queue.next(candidate -> candidate.canSend(now));
+          if (app != null) {
+            break;
+          }
+          if (closing) {
+            app = takeSuspended(now);
+            if (app != null) {
+              abandoned = new ArrayList<>(queue.size(app));
+              while (queue.size(app) > 0) {
+                abandoned.add(queue.poll(app));
+              }
+              break;
+            }
+          }
+          connection = takeUnreported(now);
+          if (connection != null) {
+            app = connection.app;
+            break;
+          }
+          if (closing && queue.size() == 0) {
+            return;
+          }
+          try {
+            lock.wait(nextWakeUp(now));
+          } catch (final InterruptedException e) {
+            return;
+          }
+        }
+        if (connection == null && abandoned == null) {
+          message = queue.poll(app);
+          connection = app.idle.poll();
+          if (connection == null) {
+            app.open++;
+          }
+        }
+      }
+      if (abandoned != null) {
+        abandon(app, abandoned);
+        continue;
+      }
+      if (message == null) {
+        drain(app, connection);
+        continue;
+      }
+      boolean reportedByManager = false;
+      try {
+        if (connection == null) {
+          connection = new Connection(app);
+        }
+        /* From now on, the connection's manager owns the notification and reports its outcome, even if sending fails */
+        reportedByManager = true;
+        connection.send(message);
+        release(app, connection);
+      } catch (final KeystoreException | CommunicationException | RuntimeException e) {
+        if (connection != null) {
+          connection.close();
+        }
+        failed(app, reportedByManager ? null : message, e);
+      }
+    }
+  }
+
+  /**
+   * Take a suspended application with queued notifications, while closing.
+   */
+  private App takeSuspended(final long now) {
+    for (final App app : apps.values()) {
+      if (app.suspendedUntil > now && queue.size(app) > 0) {
+        return app;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Report the notifications still queued for a suspended application as failed, instead of connecting again for each of them.
+   */
+  private void abandon(final App app, final List<PayloadPerDevice> messages) {
+    final Exception exception;
+    synchronized (lock) {
+      exception = app.criticalException;
+      lock.notifyAll();
+    }
+    logger.warn("Router closing, reporting {} notifications of suspended application {} as failed", messages.size(), app.id);
+    for (final PayloadPerDevice message : messages) {
+      app.outcomes.eventNotificationFailed(new PushedNotification(message.getDevice(), message.getPayload(), exception));
+    }
+  }
+
+  /**
+   * Get the time to wait for, while no application can be served: until an application is no longer suspended,
+   * an idle connection must report its outcomes, or a message is queued.
+   */
+  private long nextWakeUp(final long now) {
+    long wait = IDLE_WAIT;
+    for (final App app : apps.values()) {
+      if (app.suspendedUntil > now && queue.size(app) > 0) {
+        wait = Math.min(wait, app.suspendedUntil - now);
+      }
+      for (final Connection connection : app.idle) {
+        if (connection.unreported) {
+          wait = Math.min(wait, connection.lastSend + OUTCOME_WAIT - now);
+        }
+      }
+    }
+    return Math.max(1, wait);
+  }
+
+  /**
+   * Take an idle connection whose last notifications were sent long enough ago to read their responses.
+   */
+  private Connection takeUnreported(final long now) {
+    for (final App app : apps.values()) {
+      for (final Iterator<Connection> iterator = app.idle.iterator(); iterator.hasNext(); ) {
+        final Connection connection = iterator.next();
+        if (connection.unreported && now - connection.lastSend >= OUTCOME_WAIT) {
+          iterator.remove();
+          return connection;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Report the outcomes of the notifications sent on an idle connection, and give the connection back to its application.
+   */
+  private void drain(final App app, final Connection connection) {
+    try {
+      connection.drain();
+      release(app, connection);
+    } catch (final KeystoreException | CommunicationException | RuntimeException e) {
+      logger.debug("Cannot read responses of an idle connection for application {}", app.id, e);
+      connection.close();
+      synchronized (lock) {
+        app.open--;
+        lock.notifyAll();
+      }
+    }
+  }
+
+  private void release(final App app, final Connection connection) {
+    synchronized (lock) {
+      app.idle.push(connection);
+      lock.notify();
+    }
+  }
+
+  /**
+   * Suspend an application whose connection failed.
+   *
+   * @param message the notification being pushed, if the connection failed before its manager took it over; null otherwise
+   */
+  private void failed(final App app, final PayloadPerDevice message, final Exception exception) {
+    synchronized (lock) {
+      app.open--;
+      app.suspendedUntil = System.currentTimeMillis() + SUSPENSION;
+      app.criticalException = exception;
+      lock.notifyAll();
+    }
+    logger.warn("Connection for application {} failed, suspending it for {} ms: {}", app.id, SUSPENSION, exception.toString());
+    logger.debug("Connection for application {} failed", app.id, exception);
+    if (message != null) {
+      app.outcomes.eventNotificationFailed(new PushedNotification(message.getDevice(), message.getPayload(), exception));
+    }
+  }
+
+  private App app(final String appId) {
+    synchronized (lock) {
+      final App app = apps.get(appId);
+      if (app == null) {
+        throw new IllegalArgumentException("Unknown application: " + appId);
+      }
+      return app;
+    }
+  }
+
+  /**
+   * Get the number of notifications waiting to be pushed for an application.
+   *
+   * @param appId the id of a registered application
+   * @return a number of notifications
+   */
+  public int getPendingMessages(final String appId) {
+    final App app = app(appId);
+    synchronized (lock) {
+      return queue.size(app);
+    }
+  }
+
+  /**
+   * Get the number of connections currently open for an application.
+   *
+   * @param appId the id of a registered application
+   * @return a number of connections
+   */
+  public int getOpenConnections(final String appId) {
+    final App app = app(appId);
+    synchronized (lock) {
+      return app.open;
+    }
+  }
+
+  /**
+   * Get the number of notifications of an application that Apple accepted.
+   *
+   * @param appId the id of a registered application
+   * @return a number of notifications
+   */
+  public long getSuccessfulNotifications(final String appId) {
+    return app(appId).successful.get();
+  }
+
+  /**
+   * Get the number of notifications of an application that failed.
+   *
+   * @param appId the id of a registered application
+   * @return a number of notifications
+   */
+  public long getFailedNotifications(final String appId) {
+    return app(appId).failed.get();
+  }
+
+  /**
+   * Get the last connection failure of an application.
+   *
+   * @param appId the id of a registered application
+   * @return an exception, or null if no connection of the application failed
+   */
+  public Exception getCriticalException(final String appId) {
+    final App app = app(appId);
+    synchronized (lock) {
+      return app.criticalException;
+    }
+  }
+
+  public int getMaxNotificationsPerConnection() {
+    return maxNotificationsPerConnection;
+  }
+
+  /**
+   * Set the number of notifications pushed on a connection before it is restarted, which is when responses from Apple are read.
+   *
+   * @param maxNotificationsPerConnection a number of notifications (default is 200)
+   */
+  public void setMaxNotificationsPerConnection(final int maxNotificationsPerConnection) {
+    if (maxNotificationsPerConnection <= 0) {
+      throw new IllegalArgumentException("Number of notifications per connection must be positive");
+    }
+    this.maxNotificationsPerConnection = maxNotificationsPerConnection;
+  }
+
+  public NotificationOutcomeListener getOutcomeListener() {
+    return outcomeListener;
+  }
+
+  /**
+   * Set a listener notified of the outcome of every notification, for all applications.
+   * Events are fired from the worker threads, so the listener must be thread-safe.
+   *
+   * @param outcomeListener a listener, or null
+   */
+  public void setOutcomeListener(final NotificationOutcomeListener outcomeListener) {
+    this.outcomeListener = outcomeListener;
+  }
+
+  /**
+   * Create the manager of a new connection.
+   *
+   * @return a notification manager
+   */
+  PushNotificationManager newManager() {
+    return new PushNotificationManager();
+  }
+
+  /**
+   * A registered application and its sub-pool of connections.  Fields other than counters are guarded by the router's lock.
+   */
+  private final class App {
+    private final String id;
+    private final AppleNotificationServer server;
+    private final Deque<Connection> idle = new ArrayDeque<>();
+    private final AtomicLong successful = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final NotificationOutcomeListener outcomes = new NotificationOutcomeListener() {
+      @Override
+      public void eventNotificationSuccessful(final PushedNotification notification) {
+        successful.incrementAndGet();
+        final NotificationOutcomeListener listener = outcomeListener;
+        if (listener != null) {
+          listener.eventNotificationSuccessful(notification);
+        }
+      }
+
+      @Override
+      public void eventNotificationFailed(final PushedNotification notification) {
+        failed.incrementAndGet();
+        final NotificationOutcomeListener listener = outcomeListener;
+        if (listener != null) {
+          listener.eventNotificationFailed(notification);
+        }
+      }
+    };
+    private int maxConnections;
+    private int open;
+    private long suspendedUntil;
+    private Exception criticalException;
+
+    App(final String id, final AppleNotificationServer server) {
+      this.id = id;
+      this.server = server;
+    }
+
+    /**
+     * Indicates if a worker can push a notification of this application now: a connection is idle or another one can be opened,
+     * and the application is not suspended.
+     */
+    boolean canSend(final long now) {
+      return (!idle.isEmpty() || open < maxConnections) && now >= suspendedUntil;
+    }
+
+    @Override
+    public String toString() {
+      return id;
+    }
+  }
+
+  /**
+   * A connection of an application, used by one worker at a time.
+   */
+  private final class Connection {
+    private final App app;
+    private final PushNotificationManager manager = newManager();
+    private int sent;
+    /* Whether notifications were sent since responses were last read, and when the last one was sent; guarded by the router's lock while idle */
+    private boolean unreported;
+    private long lastSend;
+
+    Connection(final App app) throws KeystoreException, CommunicationException {
+      this.app = app;
+      manager.setOutcomeListener(app.outcomes);
+      manager.initializeConnection(app.server);
+    }
+
+    void send(final PayloadPerDevice message) throws KeystoreException, CommunicationException {
+      manager.sendNotification(message.getDevice(), message.getPayload(), false);
+      unreported = true;
+      lastSend = System.currentTimeMillis();
+      if (++sent >= maxNotificationsPerConnection) {
+        manager.restartConnection(app.server);
+        sent = 0;
+        unreported = false;
+      }
+    }
+
+    void drain() throws KeystoreException, CommunicationException {
+      manager.processPendingResponses();
+      unreported = false;
+    }
+
+    void close() {
+      try {
+        manager.stopConnection();
+      } catch (final Exception e) {
+        logger.debug("Error closing connection for application {}", app.id, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package javapns.notification.transmission;
+
+import javapns.notification.Payload;
+import javapns.notification.PayloadPerDevice;
+
+import java.util.Comparator;
+
+/**
+ * A message waiting in the scheduler of a NotificationThread, along with its scheduling attributes.
+ */
+final class QueuedMessage {
+  /* Earliest deadline first, then first in first out */
+  static final Comparator<QueuedMessage> BY_DEADLINE = Comparator.comparingLong(QueuedMessage::getDeadline).thenComparingLong(QueuedMessage::getSequence);
+
+  private PayloadPerDevice message;
+  private final NotificationPriority priority;
+  private long deadline;
+  private long sequence;
+  private long journalId;
+  private boolean cancelled;
+
+  QueuedMessage(final PayloadPerDevice message, final NotificationPriority priority) {
+    this.message = message;
+    this.priority = priority == null ? NotificationPriority.NORMAL : priority;
+    this.deadline = deadline(message.getPayload(), System.currentTimeMillis());
+  }
+
+  /**
+   * Compute the absolute date after which a payload should no longer be sent.
+   *
+   * @param payload     a payload
+   * @param enqueueTime the time at which the payload was handed over for delivery
+   * @return a number of milliseconds since the epoch, or Long.MAX_VALUE if the payload does not expire
+   */
+  static long deadline(final Payload payload, final long enqueueTime) {
+    final int expiry = payload == null ? 0 : payload.getExpiry();
+    return expiry > 0 ? enqueueTime + expiry * 1000L : Long.MAX_VALUE;
+  }
+
+  PayloadPerDevice getMessage() {
+    return message;
+  }
+
+  /**
+   * Replace the message in place, keeping its position in the lane.
+   *
+   * @param replacement a newer message with the same device and collapse key
+   */
+  void replace(final QueuedMessage replacement) {
+    this.message = replacement.message;
+    this.deadline = replacement.deadline;
+    this.journalId = replacement.journalId;
+  }
+
+  /**
+   * Get the key under which this message is indexed among pending messages.
+   *
+   * @return a key combining the device token and the collapse key, or null if the message has no collapse key
+   */
+  String getCollapseIndexKey() {
+    final String collapseKey = message.getCollapseKey();
+    final String token = message.getDevice() == null ? null : message.getDevice().getToken();
+    if (collapseKey == null || token == null) {
+      return null;
+    }
+    return token.toLowerCase() + '/' + collapseKey;
+  }
+
+  boolean isCancelled() {
+    return cancelled;
+  }
+
+  void cancel() {
+    this.cancelled = true;
+  }
+
+  NotificationPriority getPriority() {
+    return priority;
+  }
+
+  long getDeadline() {
+    return deadline;
+  }
+
+  boolean isExpired(final long now) {
+    return now >= deadline;
+  }
+
+  long getSequence() {
+    return sequence;
+  }
+
+  void setSequence(final long sequence) {
+    this.sequence = sequence;
+  }
+
+  /**
+   * Get the identifier of this message in the journal of its thread.
+   *
+   * @return a journal identifier, or 0 if the message is not journaled
+   */
+  long getJournalId() {
+    return journalId;
+  }
+
+  void setJournalId(final long journalId) {
+    this.journalId = journalId;
+  }
+}
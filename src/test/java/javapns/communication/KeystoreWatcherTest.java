@@ -0,0 +1,196 @@
+package javapns.communication;
+
+import org.bouncycastle.x509.X509V1CertificateGenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import javax.security.auth.x500.X500Principal;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class KeystoreWatcherTest {
+  private static final String PASSWORD = "secret";
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  /* A local TLS stand-in for Apple: requires a client certificate and reports the subject of each client, then each byte it reads */
+  private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+  private SSLServerSocket serverSocket;
+
+  @Before
+  public void startServer() throws Exception {
+    final SSLContext context = SSLContext.getInstance("TLS");
+    final KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    kmf.init(load(keystore("CN=Stand-in")), PASSWORD.toCharArray());
+    final TrustManager trustingClients = new X509TrustManager() {
+      @Override
+      public void checkClientTrusted(final X509Certificate[] chain, final String authType) {
+      }
+
+      @Override
+      public void checkServerTrusted(final X509Certificate[] chain, final String authType) {
+      }
+
+      @Override
+      public X509Certificate[] getAcceptedIssuers() {
+        return new X509Certificate[0];
+      }
+    };
+    context.init(kmf.getKeyManagers(), new TrustManager[]{trustingClients}, null);
+    serverSocket = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0);
+    serverSocket.setNeedClientAuth(true);
+    final Thread acceptor = new Thread(() -> {
+      while (!serverSocket.isClosed()) {
+        try {
+          final SSLSocket socket = (SSLSocket) serverSocket.accept();
+          final Thread reader = new Thread(() -> {
+            try {
+              socket.startHandshake();
+              final String client = ((X509Certificate) socket.getSession().getPeerCertificates()[0]).getSubjectX500Principal().getName();
+              received.add(client);
+              int b;
+              while ((b = socket.getInputStream().read()) >= 0) {
+                received.add(client + ":" + b);
+              }
+            } catch (final Exception e) {
+              received.add(e.toString());
+            }
+          });
+          reader.setDaemon(true);
+          reader.start();
+        } catch (final Exception e) {
+          // closed
+        }
+      }
+    });
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  @After
+  public void stopServer() throws Exception {
+    serverSocket.close();
+  }
+
+  @Test
+  public void newConnectionsUseTheNewCertificateWhileOpenOnesDrain() throws Exception {
+
+    final File file = folder.newFile("keystore.p12");
+    Files.write(file.toPath(), keystore("CN=Old"));
+    final AppleServerBasicImpl server = new AppleServerBasicImpl(file, PASSWORD, ConnectionToAppleServer.KEYSTORE_TYPE_PKCS12) {
+    };
+    final ConnectionToAppleServer connection = connection(server);
+    final KeystoreWatcher watcher = new KeystoreWatcher(file, PASSWORD, server);
+
+    final SSLSocket before = connection.getSSLSocket();
+    before.startHandshake();
+    assertThat(received.poll(5, TimeUnit.SECONDS), is("CN=Old"));
+
+    Files.write(file.toPath(), keystore("CN=New"));
+    assertThat(watcher.check(), is(true));
+    assertThat(watcher.check(), is(false));
+
+    final SSLSocket after = connection.getSSLSocket();
+    after.startHandshake();
+    assertThat(received.poll(5, TimeUnit.SECONDS), is("CN=New"));
+
+    before.getOutputStream().write(1);
+    before.getOutputStream().flush();
+    assertThat(received.poll(5, TimeUnit.SECONDS), is("CN=Old:1"));
+    assertThat(watcher.getReloads(), is(1L));
+
+  }
+
+  @Test
+  public void invalidKeystoreIsIgnored() throws Exception {
+
+    final File file = folder.newFile("keystore.p12");
+    final byte[] original = keystore("CN=Old");
+    Files.write(file.toPath(), original);
+    final AppleServerBasicImpl server = new AppleServerBasicImpl(file, PASSWORD, ConnectionToAppleServer.KEYSTORE_TYPE_PKCS12) {
+    };
+    final KeystoreWatcher watcher = new KeystoreWatcher(file, PASSWORD, server);
+
+    Files.write(file.toPath(), new byte[]{1, 2, 3});
+    assertThat(watcher.check(), is(false));
+    assertThat(watcher.check(), is(false));
+    assertThat(watcher.getFailedReloads(), is(1L));
+    assertThat(server.getKeystoreGeneration(), is(1L));
+
+    Files.write(file.toPath(), original);
+    assertThat(watcher.check(), is(false));
+    assertThat(watcher.getReloads(), is(0L));
+    assertThat(server.getKeystoreGeneration(), is(1L));
+
+    final SSLSocket socket = connection(server).getSSLSocket();
+    socket.startHandshake();
+    assertThat(received.poll(5, TimeUnit.SECONDS), is("CN=Old"));
+
+  }
+
+  private ConnectionToAppleServer connection(final AppleServer server) throws Exception {
+    final int port = serverSocket.getLocalPort();
+    return new ConnectionToAppleServer(server) {
+      @Override
+      public String getServerHost() {
+        return "localhost";
+      }
+
+      @Override
+      protected int getServerPort() {
+        return port;
+      }
+    };
+  }
+
+  @SuppressWarnings("deprecation")
+  private static byte[] keystore(final String subject) throws Exception {
+    final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    final KeyPair keys = generator.generateKeyPair();
+    final X509V1CertificateGenerator certificates = new X509V1CertificateGenerator();
+    certificates.setSerialNumber(BigInteger.valueOf(System.nanoTime()));
+    certificates.setIssuerDN(new X500Principal(subject));
+    certificates.setSubjectDN(new X500Principal(subject));
+    certificates.setNotBefore(new Date(System.currentTimeMillis() - 60 * 1000));
+    certificates.setNotAfter(new Date(System.currentTimeMillis() + 60 * 60 * 1000));
+    certificates.setPublicKey(keys.getPublic());
+    certificates.setSignatureAlgorithm("SHA256withRSA");
+    final X509Certificate certificate = certificates.generate(keys.getPrivate());
+
+    final KeyStore keystore = KeyStore.getInstance(ConnectionToAppleServer.KEYSTORE_TYPE_PKCS12);
+    keystore.load(null, null);
+    keystore.setKeyEntry("key", keys.getPrivate(), PASSWORD.toCharArray(), new Certificate[]{certificate});
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    keystore.store(output, PASSWORD.toCharArray());
+    return output.toByteArray();
+  }
+
+  private static KeyStore load(final byte[] keystore) throws Exception {
+    return KeystoreManager.loadKeystore(keystore, ConnectionToAppleServer.KEYSTORE_TYPE_PKCS12, PASSWORD.toCharArray());
+  }
+}
@@ -0,0 +1,142 @@
+package javapns.devices;
+
+import javapns.devices.exceptions.DuplicateDeviceException;
+import javapns.devices.implementations.basic.BasicDevice;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static javapns.devices.TestTokens.TOKEN;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class DeviceRegistryTest {
+
+  private static final String OTHER_TOKEN = TOKEN.replace('0', 'f');
+
+  @Test
+  public void findsDevicesByTokenAfterTheirTokenChanges() throws Exception {
+
+    final DeviceRegistry registry = new DeviceRegistry();
+    registry.addDevice("phone", TOKEN.toUpperCase());
+
+    assertThat(registry.findByToken(TOKEN).getDeviceId(), is("phone"));
+    assertThat(registry.getDevice("phone").getToken(), is(TOKEN));
+
+    registry.register("phone", OTHER_TOKEN);
+
+    assertThat(registry.findByToken(TOKEN), is(nullValue()));
+    assertThat(registry.findByToken(OTHER_TOKEN).getDeviceId(), is("phone"));
+    assertThat(registry.size(), is(1));
+
+  }
+
+  @Test
+  public void removesThePreviousOwnerOfATokenRegisteredUnderAnotherId() throws Exception {
+
+    final DeviceRegistry registry = new DeviceRegistry();
+    registry.register("alice", TOKEN);
+    registry.register("bob", OTHER_TOKEN);
+
+    registry.register("bob", TOKEN.toUpperCase());
+
+    assertThat(registry.size(), is(1));
+    assertThat(registry.snapshot().get(0).getDeviceId(), is("bob"));
+    assertThat(registry.findByToken(TOKEN).getDeviceId(), is("bob"));
+    assertThat(registry.findByToken(OTHER_TOKEN), is(nullValue()));
+
+    registry.addDevice("carol", TOKEN);
+
+    assertThat(registry.size(), is(1));
+    assertThat(registry.removeToken(TOKEN, Long.MAX_VALUE), is(true));
+    assertThat(registry.size(), is(0));
+
+  }
+
+  @Test(expected = DuplicateDeviceException.class)
+  public void rejectsDuplicateIds() throws Exception {
+
+    final DeviceRegistry registry = new DeviceRegistry();
+    registry.addDevice("phone", TOKEN);
+
+    registry.addDevice("phone", OTHER_TOKEN);
+
+  }
+
+  @Test
+  public void keepsDevicesRegisteredAgainAfterFeedback() throws Exception {
+
+    final DeviceRegistry registry = new DeviceRegistry();
+    registry.addDevice("phone", TOKEN);
+    registry.addDevice("tablet", OTHER_TOKEN);
+    final long registered = registry.getDevice("phone").getLastRegister().getTime();
+    final List<Device> inactive = new ArrayList<>();
+    inactive.add(inactive(OTHER_TOKEN, registered + 60000));
+    inactive.add(inactive(TOKEN, registered - 1));
+
+    assertThat(registry.removeInactive(inactive), is(1));
+    assertThat(registry.snapshot().size(), is(1));
+    assertThat(registry.snapshot().get(0).getDeviceId(), is("phone"));
+
+  }
+
+  private static Device inactive(final String token, final long since) throws Exception {
+    final BasicDevice device = new BasicDevice(token);
+    device.setLastRegister(new Timestamp(since));
+    return device;
+  }
+
+  @Test
+  public void unblocksTokensWhenTheyAreRegisteredAgain() throws Exception {
+
+    final DeviceRegistry registry = new DeviceRegistry();
+    final TokenBlocklist blocklist = new TokenBlocklist();
+    registry.setBlocklist(blocklist);
+    blocklist.add(TOKEN);
+    blocklist.add(OTHER_TOKEN);
+
+    registry.register("phone", TOKEN.toUpperCase());
+
+    assertThat(blocklist.contains(TOKEN), is(false));
+    assertThat(blocklist.contains(OTHER_TOKEN), is(true));
+    assertThat(registry.isRegisteredSince(TOKEN, System.currentTimeMillis() - 60000), is(true));
+    assertThat(registry.isRegisteredSince(TOKEN, System.currentTimeMillis() + 60000), is(false));
+
+  }
+
+  @Test
+  public void registersDevicesConcurrently() throws Exception {
+
+    final DeviceRegistry registry = new DeviceRegistry();
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    final List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final int thread = t;
+      futures.add(executor.submit(() -> {
+        for (int i = thread; i < 4000; i += 4) {
+          registry.register("device" + i, String.format("%064x", i));
+        }
+        return null;
+      }));
+    }
+    for (final Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+
+    assertThat(registry.size(), is(4000));
+    assertThat(registry.stream().filter(device -> registry.findByToken(device.getToken()) == device).count(), is(4000L));
+    assertThat(registry.removeInactive(Collections.emptyList()), is(0));
+
+  }
+
+}
@@ -0,0 +1,62 @@
+package javapns.devices;
+
+import javapns.devices.exceptions.InvalidDeviceTokenFormatException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static javapns.devices.TestTokens.TOKEN;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class DevicesTest {
+
+  @Test
+  public void consumesStreamsLazily() {
+
+    final AtomicInteger consumed = new AtomicInteger();
+    final Stream<String> tokens = Stream.generate(() -> TOKEN).peek(token -> consumed.incrementAndGet());
+
+    final Iterator<Device> devices = Devices.asDeviceIterator(tokens);
+    final Device first = devices.next();
+
+    assertThat(first.getToken(), is(TOKEN));
+    assertThat(consumed.get(), is(1));
+
+  }
+
+  @Test
+  public void rejectsInvalidTokensWhenCreatingDevices() {
+
+    final String invalid = TOKEN.substring(1);
+
+    for (final Object tokens : Arrays.asList(Arrays.asList(TOKEN, invalid), new String[]{TOKEN, invalid}, invalid, Arrays.asList(TOKEN, invalid).iterator())) {
+      try {
+        Devices.asDevices(tokens);
+        fail("The invalid token should be rejected");
+      } catch (final IllegalArgumentException e) {
+        assertThat(e.getCause() instanceof InvalidDeviceTokenFormatException, is(true));
+      }
+    }
+    assertThat(Devices.asDeviceIterator(Stream.of(invalid)).next().getToken(), is(invalid));
+
+  }
+
+  @Test
+  public void materializesIteratorsAsLists() {
+
+    final List<Device> devices = Devices.asDevices(Arrays.asList(TOKEN, TOKEN).iterator());
+
+    assertThat(Devices.isStreamed(Arrays.asList(TOKEN).iterator()), is(true));
+    assertThat(Devices.isStreamed(Arrays.asList(TOKEN)), is(false));
+    assertThat(devices.size(), is(2));
+    assertThat(devices.get(1).getToken(), is(TOKEN));
+
+  }
+
+}
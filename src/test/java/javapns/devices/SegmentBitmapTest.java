@@ -0,0 +1,68 @@
+package javapns.devices;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SegmentBitmapTest {
+
+  @Test
+  public void combinesSparseAndDenseContainersLikeBitSets() {
+
+    final Random random = new Random(42);
+    final BitSet sparse = new BitSet();
+    final BitSet dense = new BitSet();
+    final SegmentBitmap a = new SegmentBitmap();
+    final SegmentBitmap b = new SegmentBitmap();
+    for (int i = 0; i < 3000; i++) {
+      final int index = random.nextInt(300000);
+      sparse.set(index);
+      a.add(index);
+    }
+    for (int i = 0; i < 200000; i += 1 + random.nextInt(3)) {
+      dense.set(i);
+      b.add(i);
+    }
+
+    assertMatches(a, sparse);
+    assertMatches(b, dense);
+    final BitSet and = (BitSet) sparse.clone();
+    and.and(dense);
+    assertMatches(a.and(b), and);
+    final BitSet or = (BitSet) sparse.clone();
+    or.or(dense);
+    assertMatches(a.or(b), or);
+    final BitSet andNot = (BitSet) dense.clone();
+    andNot.andNot(sparse);
+    assertMatches(b.andNot(a), andNot);
+    assertMatches(b.andNot(b), new BitSet());
+
+  }
+
+  @Test
+  public void createsRanges() {
+
+    final BitSet expected = new BitSet();
+    expected.set(0, 70000);
+
+    assertMatches(SegmentBitmap.range(70000), expected);
+    assertThat(SegmentBitmap.range(0).isEmpty(), is(true));
+
+  }
+
+  private static void assertMatches(final SegmentBitmap bitmap, final BitSet expected) {
+    assertThat(bitmap.getCardinality(), is(expected.cardinality()));
+    final PrimitiveIterator.OfInt iterator = bitmap.iterator();
+    for (int index = expected.nextSetBit(0); index >= 0; index = expected.nextSetBit(index + 1)) {
+      assertThat(iterator.nextInt(), is(index));
+      assertThat(bitmap.contains(index), is(true));
+    }
+    assertThat(iterator.hasNext(), is(false));
+  }
+
+}
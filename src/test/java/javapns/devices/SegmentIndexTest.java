@@ -0,0 +1,43 @@
+package javapns.devices;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SegmentIndexTest {
+
+  @Test
+  public void iteratesDevicesOfCombinedSegments() throws Exception {
+
+    final TokenStore store = new TokenStore();
+    final SegmentIndex index = new SegmentIndex(store);
+    for (int i = 0; i < 10; i++) {
+      store.addToken(String.format("%064x", i));
+      index.tag(i, "os", i % 2 == 0 ? "ios" : "macos");
+      if (i % 3 == 0) {
+        index.tag(i, "promos");
+      }
+    }
+
+    final SegmentBitmap audience = index.get("os=ios").and(index.not(index.get("promos")));
+    final List<String> tokens = index.stream(audience).map(Device::getToken).collect(Collectors.toList());
+
+    assertThat(tokens.size(), is(3));
+    assertThat(tokens.get(0), is(String.format("%064x", 2)));
+    assertThat(tokens.get(2), is(String.format("%064x", 8)));
+    assertThat(index.get("unknown").isEmpty(), is(true));
+
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void rejectsIndexesOutsideOfTheList() {
+
+    new SegmentIndex(new TokenStore()).tag(0, "promos");
+
+  }
+
+}
@@ -0,0 +1,14 @@
+package javapns.devices;
+
+/**
+ * Device tokens shared by tests.
+ */
+public final class TestTokens {
+  /**
+   * A well-formed device token.
+   */
+  public static final String TOKEN = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+  private TestTokens() {
+  }
+}
@@ -0,0 +1,68 @@
+package javapns.devices;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static javapns.devices.TestTokens.TOKEN;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TokenBlocklistTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void blocksTokensRegardlessOfCase() {
+
+    final TokenBlocklist blocklist = new TokenBlocklist();
+
+    assertThat(blocklist.add(TOKEN), is(true));
+    assertThat(blocklist.add(TOKEN.toUpperCase()), is(false));
+    assertThat(blocklist.contains(TOKEN.toUpperCase()), is(true));
+    assertThat(blocklist.contains(TOKEN.replace('0', 'f')), is(false));
+    assertThat(blocklist.add("not a token"), is(false));
+
+  }
+
+  @Test
+  public void keepsOtherTokensWhenRemovingAcrossResizes() {
+
+    final TokenBlocklist blocklist = new TokenBlocklist();
+    for (int i = 0; i < 5000; i++) {
+      blocklist.add(String.format("%064x", i));
+    }
+    for (int i = 0; i < 5000; i += 2) {
+      assertThat(blocklist.remove(String.format("%064x", i)), is(true));
+    }
+
+    assertThat(blocklist.size(), is(2500));
+    for (int i = 0; i < 5000; i++) {
+      assertThat(blocklist.contains(String.format("%064x", i)), is(i % 2 == 1));
+    }
+
+  }
+
+  @Test
+  public void loadsSavedBlocklist() throws Exception {
+
+    final TokenBlocklist blocklist = new TokenBlocklist();
+    blocklist.add(TOKEN);
+    final byte[] binary = new byte[40];
+    binary[8] = (byte) 0xFF;
+    blocklist.add(binary, 8);
+    final File file = new File(folder.getRoot(), "blocklist");
+    blocklist.save(file);
+
+    final TokenBlocklist loaded = TokenBlocklist.load(file);
+
+    assertThat(loaded.size(), is(2));
+    assertThat(loaded.contains(TOKEN), is(true));
+    assertThat(loaded.contains("ff" + String.format("%062x", 0)), is(true));
+
+  }
+
+}
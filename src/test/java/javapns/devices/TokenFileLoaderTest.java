@@ -0,0 +1,67 @@
+package javapns.devices;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TokenFileLoaderTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void loadsHexadecimalLinesAcrossChunks() throws Exception {
+
+    final StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      content.append(String.format("%064x", i)).append(i % 2 == 0 ? "\n" : "\r\n");
+    }
+    final int invalidOffset = content.length();
+    content.append("not a token\n\n");
+    content.append(String.format("%064X", 1000));
+    final File file = folder.newFile();
+    Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.US_ASCII));
+    final TokenFileLoader loader = new TokenFileLoader();
+    loader.setChunkSize(1000);
+    final List<Long> invalid = new ArrayList<>();
+
+    final TokenStore store = loader.load(file, invalid::add);
+
+    assertThat(store.size(), is(1001));
+    assertThat(store.getToken(0), is(String.format("%064x", 0)));
+    assertThat(store.getToken(777), is(String.format("%064x", 777)));
+    assertThat(store.getToken(1000), is(String.format("%064x", 1000)));
+    assertThat(invalid.size(), is(1));
+    assertThat(invalid.get(0), is((long) invalidOffset));
+
+  }
+
+  @Test
+  public void loadsBinaryTokensAndReportsIncompleteToken() throws Exception {
+
+    final byte[] content = new byte[32 * 3 + 5];
+    content[32] = (byte) 0xAB;
+    final File file = folder.newFile();
+    Files.write(file.toPath(), content);
+    final TokenFileLoader loader = new TokenFileLoader(TokenFileLoader.FORMAT.BINARY);
+    loader.setChunkSize(64);
+    final List<Long> invalid = new ArrayList<>();
+
+    final TokenStore store = loader.load(file, invalid::add);
+
+    assertThat(store.size(), is(3));
+    assertThat(store.getToken(1).substring(0, 4), is("ab00"));
+    assertThat(invalid.get(0), is(96L));
+
+  }
+
+}
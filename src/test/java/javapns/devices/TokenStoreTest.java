@@ -0,0 +1,62 @@
+package javapns.devices;
+
+import javapns.devices.exceptions.InvalidDeviceTokenFormatException;
+import org.junit.Test;
+
+import java.util.List;
+
+import static javapns.devices.TestTokens.TOKEN;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TokenStoreTest {
+
+  @Test
+  public void storesTokensAcrossSegments() throws Exception {
+
+    final TokenStore store = new TokenStore();
+    for (int i = 0; i < 70000; i++) {
+      store.addToken(String.format("%064x", i));
+    }
+
+    assertThat(store.size(), is(70000));
+    assertThat(store.get(0).getToken(), is(String.format("%064x", 0)));
+    assertThat(store.get(69999).getToken(), is(String.format("%064x", 69999)));
+
+  }
+
+  @Test
+  public void normalizesTokensToLowerCase() throws Exception {
+
+    final TokenStore store = new TokenStore();
+    store.addToken(TOKEN.toUpperCase());
+
+    assertThat(store.get(0).getToken(), is(TOKEN));
+    assertThat(store.get(0).getDeviceId(), is(TOKEN));
+
+  }
+
+  @Test
+  public void subListsAreViewsOverIndexRanges() throws Exception {
+
+    final TokenStore store = new TokenStore();
+    store.addToken(TOKEN);
+    store.addToken(TOKEN.replace('0', 'f'));
+    store.addToken(TOKEN.replace('1', 'e'));
+
+    final List<Device> range = store.subList(1, 3);
+    range.get(0).setToken(TOKEN);
+
+    assertThat(range.size(), is(2));
+    assertThat(store.getToken(1), is(TOKEN));
+
+  }
+
+  @Test(expected = InvalidDeviceTokenFormatException.class)
+  public void rejectsNonHexadecimalTokens() throws Exception {
+
+    new TokenStore().addToken(TOKEN.replace('a', 'z'));
+
+  }
+
+}
@@ -5,6 +5,8 @@ import org.junit.Test;
 
 public class BasicDeviceTest {
 
+  private static final String TOKEN = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
   @Test(expected = InvalidDeviceTokenFormatException.class)
   public void failIfTokenIsNull() throws InvalidDeviceTokenFormatException {
     BasicDevice.validateTokenFormat(null);
@@ -12,7 +14,22 @@ public class BasicDeviceTest {
 
   @Test
   public void allowTokenLongerThan64Bytes() throws InvalidDeviceTokenFormatException {
-    BasicDevice.validateTokenFormat("looooooooooooooooooooooooooooooooooooooooooooooooooooooooooooooooooooooooooooooooooooooooooong");
+    BasicDevice.validateTokenFormat(TOKEN + TOKEN.toUpperCase() + "0123");
+  }
+
+  @Test(expected = InvalidDeviceTokenFormatException.class)
+  public void failIfTokenIsNotHexadecimal() throws InvalidDeviceTokenFormatException {
+    BasicDevice.validateTokenFormat(TOKEN.replace('a', 'g'));
+  }
+
+  @Test(expected = InvalidDeviceTokenFormatException.class)
+  public void failIfTokenHasOddLength() throws InvalidDeviceTokenFormatException {
+    BasicDevice.validateTokenFormat(TOKEN + "0");
+  }
+
+  @Test(expected = InvalidDeviceTokenFormatException.class)
+  public void failIfTokenIsTooShort() throws InvalidDeviceTokenFormatException {
+    BasicDevice.validateTokenFormat(TOKEN.substring(2));
   }
 
 }
@@ -0,0 +1,63 @@
+package javapns.feedback;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class FeedbackBatchTest {
+
+  @Test
+  public void sortsAndDeduplicatesByToken() {
+
+    final FeedbackBatch batch = new FeedbackBatch();
+    for (int i = 0; i < 300; i++) {
+      batch.add(token(i % 100), 0, 1000 - i);
+    }
+    /* A time beyond 2038, which only fits in an unsigned int */
+    batch.add(token(5), 0, 0xF0000000);
+
+    assertThat(batch.deduplicate(), is(201));
+    assertThat(batch.size(), is(100));
+    assertThat(batch.getTimestamp(6), is(994 * 1000L));
+
+    batch.sortByTime();
+
+    assertThat(batch.getToken(0), is(String.format("%064x", 99)));
+    assertThat(batch.getTimestamp(0), is(901 * 1000L));
+    assertThat(batch.getToken(99), is(String.format("%064x", 5)));
+    assertThat(batch.getTimestamp(99), is(0xF0000000L * 1000));
+
+  }
+
+  @Test
+  public void exportsInFeedbackFormat() throws Exception {
+
+    final FeedbackBatch batch = new FeedbackBatch();
+    batch.add(token(1), 0, 10);
+    batch.add(token(2), 0, 20);
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    batch.writeTo(output);
+    final FeedbackBatch copy = new FeedbackBatch();
+    new FeedbackDecoder().decode(new ByteArrayInputStream(output.toByteArray()), copy);
+
+    assertThat(output.size(), is(76));
+    assertThat(copy.size(), is(2));
+    assertThat(copy.getToken(1), is(String.format("%064x", 2)));
+    assertThat(copy.getTimestamp(1), is(20000L));
+    assertThat(batch.toTokenStore().getToken(0), is(String.format("%064x", 1)));
+
+  }
+
+  private static byte[] token(final int value) {
+    final byte[] token = new byte[32];
+    token[30] = (byte) (value >>> 8);
+    token[31] = (byte) value;
+    return token;
+  }
+
+}
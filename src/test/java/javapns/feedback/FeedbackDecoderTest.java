@@ -0,0 +1,66 @@
+package javapns.feedback;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class FeedbackDecoderTest {
+
+  @Test
+  public void decodesTuplesSplitAcrossReads() throws Exception {
+
+    final ByteBuffer tuples = ByteBuffer.allocate(38 * 500 + 5);
+    for (int i = 0; i < 500; i++) {
+      tuples.putInt(0xF0000000 + i).putShort((short) 32);
+      tuples.put((byte) 0xAB).put(new byte[27]).putInt(i);
+    }
+    tuples.put(new byte[5]);
+    final List<String> tokens = new ArrayList<>();
+    final List<Long> timestamps = new ArrayList<>();
+
+    final long count = new FeedbackDecoder(128).decode(new TrickleInputStream(tuples.array()), (token, timestamp) -> {
+      tokens.add(token.toString());
+      timestamps.add(timestamp);
+    });
+
+    assertThat(count, is(500L));
+    assertThat(tokens.get(0), is("ab" + String.format("%062x", 0)));
+    assertThat(tokens.get(499), is("ab" + String.format("%062x", 499)));
+    assertThat(timestamps.get(499), is((0xF0000000L + 499) * 1000));
+
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsInvalidTokenLengths() throws Exception {
+
+    final byte[] tuple = {0, 0, 0, 1, 0x7F, 0x7F};
+
+    new FeedbackDecoder().decode(new ByteArrayInputStream(tuple), (token, timestamp) -> {
+    });
+
+  }
+
+  /**
+   * Returns a few bytes at a time, like a slow connection.
+   */
+  private static final class TrickleInputStream extends ByteArrayInputStream {
+    private int reads;
+
+    TrickleInputStream(final byte[] bytes) {
+      super(bytes);
+    }
+
+    @Override
+    public synchronized int read(final byte[] b, final int off, final int len) {
+      return super.read(b, off, Math.min(len, 1 + reads++ % 50));
+    }
+  }
+
+}
@@ -0,0 +1,142 @@
+package javapns.feedback;
+
+import javapns.communication.exceptions.CommunicationException;
+import javapns.devices.DeviceRegistry;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class FeedbackPollerTest {
+
+  @Test
+  public void keepsDevicesRegisteredAfterBeingReported() throws Exception {
+
+    final DeviceRegistry registry = new DeviceRegistry();
+    for (int i = 0; i < 5; i++) {
+      registry.register("device" + i, String.format("%064x", i));
+    }
+    final long now = System.currentTimeMillis();
+    final FeedbackPoller poller = new FeedbackPoller(listener -> {
+      for (int i = 0; i < 6; i++) {
+        /* Device 4 reinstalled the application after being reported */
+        listener.deviceInactive(String.format("%064x", i), i == 4 ? now - 60000 : now + 60000);
+      }
+      return 6;
+    }, (tokens, timestamps, count) -> {
+      assertThat(count <= 2, is(true));
+      int removed = 0;
+      for (int i = 0; i < count; i++) {
+        if (registry.removeToken(tokens[i], timestamps[i])) {
+          removed++;
+        }
+      }
+      return removed;
+    });
+    poller.setBatchSize(2);
+
+    assertThat(poller.poll(), is(4L));
+    assertThat(registry.size(), is(1));
+    assertThat(registry.getDevice("device4").getToken(), is(String.format("%064x", 4)));
+    assertThat(poller.getPolls(), is(1L));
+    assertThat(poller.getDevicesReported(), is(6L));
+    assertThat(poller.getDevicesRemoved(), is(4L));
+
+  }
+
+  @Test
+  public void removesDevicesReadBeforeTheFeedbackServiceFails() throws Exception {
+
+    final DeviceRegistry registry = new DeviceRegistry();
+    for (int i = 0; i < 5; i++) {
+      registry.register("device" + i, String.format("%064x", i));
+    }
+    final long reported = System.currentTimeMillis() + 60000;
+    final FeedbackPoller poller = new FeedbackPoller(listener -> {
+      for (int i = 0; i < 3; i++) {
+        listener.deviceInactive(String.format("%064x", i), reported);
+      }
+      throw new CommunicationException("Connection reset", null);
+    }, (tokens, timestamps, count) -> {
+      int removed = 0;
+      for (int i = 0; i < count; i++) {
+        if (registry.removeToken(tokens[i], timestamps[i])) {
+          removed++;
+        }
+      }
+      return removed;
+    });
+    poller.setBatchSize(2);
+
+    try {
+      poller.poll();
+      fail("The Feedback Service failure should be reported");
+    } catch (final CommunicationException e) {
+      assertThat(e.getMessage(), is("Connection reset"));
+    }
+    assertThat(registry.size(), is(2));
+    assertThat(poller.getDevicesRemoved(), is(3L));
+    assertThat(poller.getRetainedDevices(), is(0));
+
+  }
+
+  @Test
+  public void redeliversDevicesTheSinkFailedToTake() throws Exception {
+
+    final DeviceRegistry registry = new DeviceRegistry();
+    for (int i = 0; i < 5; i++) {
+      registry.register("device" + i, String.format("%064x", i));
+    }
+    final long reported = System.currentTimeMillis() + 60000;
+    final AtomicBoolean sinkDown = new AtomicBoolean(true);
+    final AtomicInteger reads = new AtomicInteger();
+    final FeedbackPoller poller = new FeedbackPoller(listener -> {
+      if (reads.getAndIncrement() > 0) {
+        return 0;
+      }
+      for (int i = 0; i < 5; i++) {
+        listener.deviceInactive(String.format("%064x", i), reported);
+      }
+      return 5;
+    }, (tokens, timestamps, count) -> {
+      if (sinkDown.get()) {
+        throw new IOException("Database unavailable");
+      }
+      int removed = 0;
+      for (int i = 0; i < count; i++) {
+        if (registry.removeToken(tokens[i], timestamps[i])) {
+          removed++;
+        }
+      }
+      return removed;
+    });
+    poller.setBatchSize(2);
+
+    try {
+      poller.poll();
+      fail("The sink failure should be reported");
+    } catch (final CommunicationException e) {
+      assertThat(e.getCause().getMessage(), is("Database unavailable"));
+    }
+    assertThat(poller.getRetainedDevices(), is(5));
+    try {
+      poller.poll();
+      fail("The sink failure should be reported");
+    } catch (final CommunicationException e) {
+      assertThat(reads.get(), is(1));
+    }
+
+    sinkDown.set(false);
+    assertThat(poller.poll(), is(5L));
+    assertThat(poller.getRetainedDevices(), is(0));
+    assertThat(registry.size(), is(0));
+    assertThat(poller.getDevicesDropped(), is(0L));
+
+  }
+
+}
@@ -0,0 +1,35 @@
+package javapns.feedback;
+
+import javapns.devices.DeviceRegistry;
+import javapns.devices.TokenBlocklist;
+import org.junit.Test;
+
+import static javapns.devices.TestTokens.TOKEN;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class FeedbackServiceManagerTest {
+
+  private static final String OTHER_TOKEN = TOKEN.replace('0', 'f');
+
+  @Test
+  public void blocksOnlyTokensNotRegisteredSinceTheyWereReported() throws Exception {
+
+    final FeedbackServiceManager manager = new FeedbackServiceManager();
+    final TokenBlocklist blocklist = new TokenBlocklist();
+    final DeviceRegistry registry = new DeviceRegistry();
+    manager.setBlocklist(blocklist);
+    manager.setRegistry(registry);
+    registry.register("reinstalled", TOKEN);
+    registry.register("uninstalled", OTHER_TOKEN);
+    final long reported = System.currentTimeMillis() + 60000;
+
+    assertThat(manager.block(TOKEN, reported - 120000), is(false));
+    assertThat(manager.block(OTHER_TOKEN, reported), is(true));
+
+    assertThat(blocklist.contains(TOKEN), is(false));
+    assertThat(blocklist.contains(OTHER_TOKEN), is(true));
+
+  }
+
+}
@@ -0,0 +1,60 @@
+package javapns.notification;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class FrozenPayloadTest {
+
+  @Test
+  public void capturesSerializedPayload() throws Exception {
+
+    final PushNotificationPayload payload = PushNotificationPayload.alert("Hello");
+    payload.setExpiry(60);
+
+    final FrozenPayload frozen = payload.freeze();
+    payload.addBadge(3);
+
+    assertThat(frozen.toString(), is("{\"aps\":{\"alert\":\"Hello\"}}"));
+    assertThat(new String(frozen.getPayloadAsBytes(), StandardCharsets.UTF_8), is(frozen.toString()));
+    assertThat(frozen.getExpiry(), is(60));
+    assertThat(frozen.getMaximumPayloadSize(), is(4000));
+    assertThat(frozen.freeze() == frozen, is(true));
+
+  }
+
+  @Test
+  public void reportsTheOriginalPayloadOfPushedNotifications() throws Exception {
+
+    final PushNotificationPayload payload = PushNotificationPayload.alert("Hello");
+    final FrozenPayload frozen = payload.freeze();
+
+    final PushedNotification notification = new PushedNotification(null, frozen, (Exception) null);
+
+    assertThat(notification.getPayload() == payload, is(true));
+    assertThat(notification.getSentPayload() == frozen, is(true));
+    assertThat(frozen.getPayloadAsBytesToSend() == frozen.getPayloadAsBytesToSend(), is(true));
+    assertThat(new PushedNotification(null, FrozenPayload.restore("{}", "UTF-8", 0), (Exception) null).getPayload() instanceof FrozenPayload, is(true));
+
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void rejectsChanges() throws Exception {
+
+    final FrozenPayload frozen = PushNotificationPayload.alert("Hello").freeze();
+
+    frozen.addCustomDictionary("key", "value");
+
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void rejectsTestPayloads() throws Exception {
+
+    PushNotificationPayload.test().freeze();
+
+  }
+
+}
@@ -0,0 +1,80 @@
+package javapns.notification;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import javapns.devices.Device;
+import javapns.devices.implementations.basic.BasicDevice;
+import javapns.notification.exceptions.ErrorResponsePacketReceivedException;
+import javapns.notification.exceptions.NotificationExpiredException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class NotificationResultsTest {
+
+  private final Payload payload = PushNotificationPayload.badge(1);
+  private final List<Device> devices = new ArrayList<>();
+  private final NotificationResults results = new NotificationResults(3, index -> devices.get(index), index -> payload);
+
+  @Test
+  public void countsOutcomesAsTheyAreRecorded() {
+
+    results.record(0, sent(1));
+    results.record(2, rejected(3, 8));
+    results.record(1, new PushedNotification(device(1), payload, new NotificationExpiredException(0)));
+
+    assertThat(results.size(), is(3));
+    assertThat(results.getCount(NotificationResults.STATUS.SUCCESSFUL), is(1));
+    assertThat(results.getCount(NotificationResults.STATUS.FAILED), is(1));
+    assertThat(results.getCount(NotificationResults.STATUS.EXPIRED), is(1));
+    assertThat(results.getDeviceIndex(1), is(2));
+    assertThat(results.getResponseStatus(1), is(8));
+
+  }
+
+  @Test
+  public void buildsPushedNotificationsForFailuresOnly() {
+
+    results.record(0, sent(1));
+    results.record(1, rejected(2, 8));
+
+    final PushedNotifications failed = results.getFailedNotifications();
+
+    assertThat(failed.size(), is(1));
+    final PushedNotification notification = failed.get(0);
+    assertThat(notification.getDevice(), is(sameInstance(devices.get(1))));
+    assertThat(notification.getIdentifier(), is(2));
+    assertThat(notification.isSuccessful(), is(false));
+    assertThat(notification.getResponse().getStatus(), is(8));
+    assertThat(notification.getException(), is(instanceOf(ErrorResponsePacketReceivedException.class)));
+
+  }
+
+  private PushedNotification sent(final int identifier) {
+    final PushedNotification notification = new PushedNotification(device(identifier - 1), payload, identifier);
+    notification.addTransmissionAttempt();
+    notification.setTransmissionCompleted(true);
+    return notification;
+  }
+
+  private PushedNotification rejected(final int identifier, final int status) {
+    final PushedNotification notification = sent(identifier);
+    notification.setResponse(new ResponsePacket(8, status, identifier));
+    return notification;
+  }
+
+  private Device device(final int index) {
+    while (devices.size() <= index) {
+      final BasicDevice device = new BasicDevice();
+      device.setToken("0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef");
+      devices.add(device);
+    }
+    return devices.get(index);
+  }
+
+}
@@ -0,0 +1,137 @@
+package javapns.notification;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+
+import org.junit.Test;
+
+
+public class PushedNotificationsTest {
+
+  private final PushedNotifications pushedNotifications = new PushedNotifications();
+
+  @Test
+  public void evictsOldestNotificationsWhenMaxRetainedIsReached() {
+
+    pushedNotifications.setMaxRetained(3);
+    final List<PushedNotification> added = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      final PushedNotification notification = notification();
+      added.add(notification);
+      pushedNotifications.add(notification);
+    }
+
+    assertThat(pushedNotifications.size(), is(3));
+    assertThat(pushedNotifications.get(0), is(sameInstance(added.get(2))));
+    assertThat(pushedNotifications.get(2), is(sameInstance(added.get(4))));
+    assertThat(new ArrayList<>(pushedNotifications), is(added.subList(2, 5)));
+
+  }
+
+  @Test
+  public void keepsAllNotificationsAddedConcurrently() throws InterruptedException {
+
+    pushedNotifications.setMaxRetained(10000);
+    final Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 2000; i++) {
+          pushedNotifications.add(notification());
+        }
+      });
+      threads[t].start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(pushedNotifications.size(), is(8000));
+    assertThat(pushedNotifications.toArray().length, is(8000));
+
+  }
+
+  @Test
+  public void startsOverAfterClear() {
+
+    pushedNotifications.add(notification());
+    pushedNotifications.clear();
+    final PushedNotification notification = notification();
+    pushedNotifications.add(notification);
+
+    assertThat(pushedNotifications.size(), is(1));
+    assertThat(pushedNotifications.get(0), is(sameInstance(notification)));
+
+  }
+
+  @Test
+  public void supportsReplacingAndRemovingNotifications() {
+
+    final PushedNotification first = notification();
+    final PushedNotification second = notification();
+    final PushedNotification third = notification();
+    final PushedNotification replacement = notification();
+    pushedNotifications.add(first);
+    pushedNotifications.add(second);
+    pushedNotifications.add(third);
+
+    assertThat(pushedNotifications.set(1, replacement), is(sameInstance(second)));
+    assertThat(pushedNotifications.remove(0), is(sameInstance(first)));
+    assertThat(pushedNotifications.removeIf(notification -> notification == third), is(true));
+    pushedNotifications.add(first);
+    final Iterator<PushedNotification> iterator = pushedNotifications.iterator();
+    assertThat(iterator.next(), is(sameInstance(replacement)));
+    iterator.remove();
+
+    assertThat(pushedNotifications.size(), is(1));
+    assertThat(pushedNotifications.get(0), is(sameInstance(first)));
+
+  }
+
+  @Test
+  public void sortsInsertsAndReplacesThroughTheList() {
+
+    final PushedNotification first = notification(1);
+    final PushedNotification second = notification(2);
+    final PushedNotification third = notification(3);
+    pushedNotifications.add(third);
+    pushedNotifications.add(first);
+
+    pushedNotifications.add(1, second);
+    assertThat(new ArrayList<>(pushedNotifications), is(Arrays.asList(third, second, first)));
+
+    pushedNotifications.sort(Comparator.comparingInt(PushedNotification::getIdentifier));
+    assertThat(new ArrayList<>(pushedNotifications), is(Arrays.asList(first, second, third)));
+
+    Collections.sort(pushedNotifications, Comparator.comparingInt(PushedNotification::getIdentifier).reversed());
+    assertThat(new ArrayList<>(pushedNotifications), is(Arrays.asList(third, second, first)));
+
+    pushedNotifications.replaceAll(notification -> notification == second ? first : notification);
+    assertThat(new ArrayList<>(pushedNotifications), is(Arrays.asList(third, first, first)));
+
+    final ListIterator<PushedNotification> iterator = pushedNotifications.listIterator();
+    iterator.next();
+    iterator.set(second);
+    assertThat(pushedNotifications.get(0), is(sameInstance(second)));
+
+  }
+
+  private static PushedNotification notification(final int identifier) {
+    final PushedNotification notification = notification();
+    notification.setIdentifier(identifier);
+    return notification;
+  }
+
+  private static PushedNotification notification() {
+    return new PushedNotification(null, PushNotificationPayload.badge(1), (Exception) null);
+  }
+
+}
@@ -0,0 +1,56 @@
+package javapns.notification.transmission;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.BitSet;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BroadcastCheckpointTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void readsBackWrittenCheckpoint() throws Exception {
+
+    final BitSet confirmed = new BitSet();
+    confirmed.set(0);
+    confirmed.set(2);
+    confirmed.set(70);
+    final File file = new File(folder.getRoot(), "broadcast.checkpoint");
+    new BroadcastCheckpoint(100, new int[]{0, 50}, new int[]{50, 50}, new int[]{3, 21}, confirmed).write(file);
+
+    final BroadcastCheckpoint checkpoint = BroadcastCheckpoint.read(file);
+
+    assertThat(checkpoint.getTotal(), is(100));
+    assertThat(checkpoint.getShards(), is(2));
+    assertThat(checkpoint.getOffset(1), is(50));
+    assertThat(checkpoint.getCursor(1), is(21));
+    assertThat(checkpoint.getConfirmedCount(), is(3));
+    assertThat(checkpoint.isConfirmed(2), is(true));
+    assertThat(checkpoint.isConfirmed(1), is(false));
+    assertThat(new File(folder.getRoot(), "broadcast.checkpoint.tmp").exists(), is(false));
+
+  }
+
+  @Test
+  public void splitsConfirmedDevicesByShard() {
+
+    final BitSet confirmed = new BitSet();
+    confirmed.set(1);
+    confirmed.set(52);
+    final BroadcastCheckpoint checkpoint = new BroadcastCheckpoint(100, new int[]{0, 50}, new int[]{50, 50}, new int[]{50, 50}, confirmed);
+
+    final BitSet second = checkpoint.getConfirmed(1);
+
+    assertThat(second.cardinality(), is(1));
+    assertThat(second.get(2), is(true));
+
+  }
+
+}
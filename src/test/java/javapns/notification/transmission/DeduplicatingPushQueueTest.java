@@ -0,0 +1,79 @@
+package javapns.notification.transmission;
+
+import javapns.notification.PayloadPerDevice;
+import javapns.notification.PushNotificationPayload;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static javapns.devices.TestTokens.TOKEN;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class DeduplicatingPushQueueTest {
+
+  private static final String OTHER_TOKEN = "fedcba9876543210fedcba9876543210fedcba9876543210fedcba9876543210";
+
+  private final AtomicLong now = new AtomicLong(1000);
+  private final PushQueue target = mock(PushQueue.class);
+  private final DeduplicatingPushQueue queue = new DeduplicatingPushQueue(target, 10000, 1000, 0.01, now::get);
+
+  @Test
+  public void dropsDuplicatesWithinWindow() throws Exception {
+
+    queue.add(PushNotificationPayload.alert("Hello"), TOKEN);
+    queue.add(PushNotificationPayload.alert("Hello"), TOKEN.toUpperCase());
+    queue.add(PushNotificationPayload.alert("Hello"), OTHER_TOKEN);
+    queue.add(PushNotificationPayload.alert("Bye"), TOKEN);
+
+    verify(target, times(3)).add(any(PayloadPerDevice.class), any(NotificationPriority.class));
+    assertThat(queue.getDuplicates(), is(1L));
+    assertThat(queue.getPassed(), is(3L));
+
+  }
+
+  @Test
+  public void comparesCollapseKeysRatherThanPayloads() throws Exception {
+
+    queue.add(new PayloadPerDevice(PushNotificationPayload.badge(1), TOKEN, "badge"));
+    queue.add(new PayloadPerDevice(PushNotificationPayload.badge(2), TOKEN, "badge"));
+
+    verify(target, times(1)).add(any(PayloadPerDevice.class), any(NotificationPriority.class));
+    assertThat(queue.getDuplicates(), is(1L));
+
+  }
+
+  @Test
+  public void forgetsMessagesAfterTwoWindows() throws Exception {
+
+    queue.add(PushNotificationPayload.alert("Hello"), TOKEN);
+    now.addAndGet(15000);
+    queue.add(PushNotificationPayload.alert("Hello"), TOKEN);
+    now.addAndGet(25000);
+    queue.add(PushNotificationPayload.alert("Hello"), TOKEN);
+
+    verify(target, times(2)).add(any(PayloadPerDevice.class), any(NotificationPriority.class));
+    assertThat(queue.getDuplicates(), is(1L));
+
+  }
+
+  @Test
+  public void keysDependOnEveryPartOfTheMessage() throws Exception {
+
+    final PushNotificationPayload payload = PushNotificationPayload.alert("Hello");
+    final long[] byPayload = DeduplicatingPushQueue.key(new PayloadPerDevice(payload, TOKEN));
+    final long[] byCollapseKey = DeduplicatingPushQueue.key(new PayloadPerDevice(payload, TOKEN, payload.toString()));
+    final long[] byOtherToken = DeduplicatingPushQueue.key(new PayloadPerDevice(payload, OTHER_TOKEN));
+
+    assertThat(Arrays.equals(byPayload, DeduplicatingPushQueue.key(new PayloadPerDevice(PushNotificationPayload.alert("Hello"), TOKEN.toUpperCase()))), is(true));
+    assertThat(byPayload[0] == byCollapseKey[0] || byPayload[1] == byCollapseKey[1], is(false));
+    assertThat(byPayload[0] == byOtherToken[0] || byPayload[1] == byOtherToken[1], is(false));
+
+  }
+
+}
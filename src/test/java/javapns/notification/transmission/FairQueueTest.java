@@ -0,0 +1,83 @@
+package javapns.notification.transmission;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class FairQueueTest {
+
+  private final FairQueue<String, Integer> queue = new FairQueue<>();
+
+  @Test
+  public void doesNotLetAFloodStarveOtherFlows() {
+
+    queue.setWeight("flood", 1);
+    queue.setWeight("quiet", 1);
+    for (int i = 0; i < 1000; i++) {
+      queue.add("flood", i);
+    }
+    for (int i = 0; i < 10; i++) {
+      serve();
+    }
+    for (int i = 0; i < 5; i++) {
+      queue.add("quiet", i);
+    }
+
+    int quiet = 0;
+    for (int i = 0; i < 10; i++) {
+      if (serve().equals("quiet")) {
+        quiet++;
+      }
+    }
+
+    assertThat(quiet, is(5));
+    assertThat(queue.size(), is(985));
+
+  }
+
+  @Test
+  public void servesBusyFlowsInProportionToWeights() {
+
+    queue.setWeight("a", 3);
+    queue.setWeight("b", 1);
+    for (int i = 0; i < 100; i++) {
+      queue.add("a", i);
+      queue.add("b", i);
+    }
+
+    int a = 0;
+    for (int i = 0; i < 40; i++) {
+      if (serve().equals("a")) {
+        a++;
+      }
+    }
+
+    assertThat(a, is(30));
+
+  }
+
+  @Test
+  public void skipsIneligibleFlows() {
+
+    queue.setWeight("a", 1);
+    queue.setWeight("b", 1);
+    queue.add("a", 1);
+
+    assertThat(queue.next(flow -> !flow.equals("a")), is(nullValue()));
+
+    queue.add("b", 2);
+
+    assertThat(queue.next(flow -> !flow.equals("a")), is("b"));
+    assertThat(queue.poll("b"), is(2));
+
+  }
+
+  private String serve() {
+    final String flow = queue.next(key -> true);
+    queue.poll(flow);
+    return flow;
+  }
+
+}
@@ -0,0 +1,90 @@
+package javapns.notification.transmission;
+
+import javapns.notification.PayloadPerDevice;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static javapns.devices.TestTokens.TOKEN;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class FileDeadLetterSinkTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void readsBackDeadLettersInOrder() throws Exception {
+
+    final FileDeadLetterSink sink = new FileDeadLetterSink(folder.newFile());
+    sink.write(deadLetter("{\"aps\":{\"badge\":1}}", 8));
+    sink.write(deadLetter("{\"aps\":{\"badge\":2}}", 0));
+
+    final List<DeadLetter> deadLetters = new ArrayList<>();
+    sink.forEach(deadLetters::add);
+
+    assertThat(deadLetters.size(), is(2));
+    assertThat(deadLetters.get(0).getResponseStatus(), is(8));
+    assertThat(deadLetters.get(1).getToken(), is(TOKEN));
+    assertThat(new String(deadLetters.get(1).getPayload(), StandardCharsets.UTF_8), is("{\"aps\":{\"badge\":2}}"));
+    sink.close();
+
+  }
+
+  @Test
+  public void stopsAtCorruptedOrTruncatedRecords() throws Exception {
+
+    final File file = folder.newFile();
+    final FileDeadLetterSink sink = new FileDeadLetterSink(file);
+    sink.write(deadLetter("{\"aps\":{\"badge\":1}}", 8));
+    sink.write(deadLetter("{\"aps\":{\"badge\":2}}", 0));
+    sink.close();
+    final byte[] content = Files.readAllBytes(file.toPath());
+    final List<DeadLetter> deadLetters = new ArrayList<>();
+
+    content[content.length - 2] ^= 1;
+    Files.write(file.toPath(), content);
+    new FileDeadLetterSink(file).forEach(deadLetters::add);
+    assertThat(deadLetters.size(), is(1));
+
+    deadLetters.clear();
+    Files.write(file.toPath(), new byte[]{0x7F, -1, -1, -1, 0, 0, 0, 0, 1, 2, 3});
+    new FileDeadLetterSink(file).forEach(deadLetters::add);
+    assertThat(deadLetters.size(), is(0));
+
+  }
+
+  @Test
+  public void replaysSelectedDeadLettersOnly() throws Exception {
+
+    final FileDeadLetterSink sink = new FileDeadLetterSink(folder.newFile());
+    sink.write(deadLetter("{\"aps\":{\"badge\":1}}", 8));
+    sink.write(deadLetter("{\"aps\":{\"badge\":2}}", 0));
+    final PushQueue queue = mock(PushQueue.class);
+
+    final long replayed = DeadLetters.replay(sink, deadLetter -> deadLetter.getResponseStatus() == 0, queue, 1000);
+
+    assertThat(replayed, is(1L));
+    final ArgumentCaptor<PayloadPerDevice> message = ArgumentCaptor.forClass(PayloadPerDevice.class);
+    verify(queue).add(message.capture());
+    assertThat(message.getValue().getPayload().toString(), is("{\"aps\":{\"badge\":2}}"));
+    assertThat(message.getValue().getPayload().getExpiry(), is(60));
+    sink.close();
+
+  }
+
+  private static DeadLetter deadLetter(final String payload, final int status) {
+    return new DeadLetter(TOKEN, payload.getBytes(StandardCharsets.UTF_8), 60, status, 1, System.currentTimeMillis());
+  }
+
+}
@@ -0,0 +1,76 @@
+package javapns.notification.transmission;
+
+import javapns.notification.PushNotificationPayload;
+import javapns.notification.PushedNotification;
+import javapns.notification.PushedNotifications;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+public class MergedPushedNotificationsTest {
+
+  @Test
+  public void filtersUnderlyingListsAsTheyAreRead() {
+
+    final PushedNotifications first = new PushedNotifications();
+    final PushedNotifications second = new PushedNotifications();
+    final PushedNotification failed = new PushedNotification(null, PushNotificationPayload.badge(1), new Exception("rejected"));
+    final PushedNotification successful = mock(PushedNotification.class);
+    given(successful.isSuccessful()).willReturn(true);
+    first.add(successful);
+    final MergedPushedNotifications view = new MergedPushedNotifications(Arrays.asList(first, second), notification -> !notification.isSuccessful());
+
+    second.add(failed);
+
+    assertThat(view.size(), is(1));
+    assertThat(view.get(0), is(failed));
+    assertThat(view.stream().collect(Collectors.toList()), is(Arrays.asList(failed)));
+
+  }
+
+  @Test
+  public void rejectsEveryChange() {
+
+    final PushedNotifications part = new PushedNotifications();
+    final PushedNotification notification = new PushedNotification(null, PushNotificationPayload.badge(1), new Exception("rejected"));
+    part.add(notification);
+    final MergedPushedNotifications view = new MergedPushedNotifications(Arrays.asList(part));
+    final List<Runnable> changes = Arrays.asList(
+      () -> view.remove(0),
+      () -> view.remove(notification),
+      () -> view.removeIf(candidate -> true),
+      () -> view.removeAll(Arrays.asList(notification)),
+      () -> view.retainAll(Arrays.asList()),
+      () -> view.set(0, notification),
+      () -> view.add(0, notification),
+      () -> view.sort(null),
+      () -> view.replaceAll(candidate -> candidate),
+      () -> view.listIterator().set(notification),
+      () -> {
+        final Iterator<PushedNotification> iterator = view.iterator();
+        iterator.next();
+        iterator.remove();
+      }
+    );
+
+    for (final Runnable change : changes) {
+      try {
+        change.run();
+        fail("The view should be read-only");
+      } catch (final UnsupportedOperationException e) {
+        assertThat(part.size(), is(1));
+      }
+    }
+
+  }
+
+}
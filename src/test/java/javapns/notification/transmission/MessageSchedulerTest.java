@@ -0,0 +1,144 @@
+package javapns.notification.transmission;
+
+import javapns.devices.implementations.basic.BasicDevice;
+import javapns.notification.PayloadPerDevice;
+import javapns.notification.PushNotificationPayload;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MessageSchedulerTest {
+
+  private final MessageScheduler scheduler = new MessageScheduler();
+
+  @Test
+  public void servesHighestLaneFirstWithStrictPriority() {
+
+    for (int i = 0; i < 1000; i++) {
+      scheduler.add(message(NotificationPriority.LOW));
+    }
+    final QueuedMessage transactional = message(NotificationPriority.HIGH);
+    scheduler.add(transactional);
+
+    assertThat(scheduler.poll(), is(transactional));
+    assertThat(scheduler.poll().getPriority(), is(NotificationPriority.LOW));
+    assertThat(scheduler.size(), is(999));
+
+  }
+
+  @Test
+  public void keepsFifoOrderWithinALane() {
+
+    final QueuedMessage first = message(NotificationPriority.NORMAL);
+    final QueuedMessage second = message(NotificationPriority.NORMAL);
+    scheduler.add(first);
+    scheduler.add(second);
+
+    assertThat(scheduler.poll(), is(first));
+    assertThat(scheduler.poll(), is(second));
+    assertThat(scheduler.poll(), is(nullValue()));
+
+  }
+
+  @Test
+  public void servesLanesInProportionToWeightsWithWeightedFairness() {
+
+    scheduler.setPolicy(NotificationThread.SCHEDULING.WEIGHTED_FAIR);
+    scheduler.setWeight(NotificationPriority.HIGH, 3);
+    scheduler.setWeight(NotificationPriority.LOW, 1);
+    for (int i = 0; i < 100; i++) {
+      scheduler.add(message(NotificationPriority.HIGH));
+      scheduler.add(message(NotificationPriority.LOW));
+    }
+
+    final List<NotificationPriority> served = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      served.add(scheduler.poll().getPriority());
+    }
+
+    assertThat(served.stream().filter(p -> p == NotificationPriority.HIGH).count(), is(6L));
+    assertThat(served.stream().filter(p -> p == NotificationPriority.LOW).count(), is(2L));
+
+  }
+
+  @Test
+  public void servesEarliestDeadlineFirstWhenOrderedByDeadline() {
+
+    final QueuedMessage dayLong = message(NotificationPriority.NORMAL, 24 * 60 * 60);
+    final QueuedMessage neverExpires = message(NotificationPriority.NORMAL, 0);
+    final QueuedMessage minuteLong = message(NotificationPriority.NORMAL, 60);
+    scheduler.add(dayLong);
+    scheduler.add(neverExpires);
+    scheduler.setOrderedByDeadline(true);
+    scheduler.add(minuteLong);
+
+    assertThat(scheduler.poll(), is(minuteLong));
+    assertThat(scheduler.poll(), is(dayLong));
+    assertThat(scheduler.poll(), is(neverExpires));
+
+  }
+
+  @Test
+  public void detectsExpiredMessages() {
+
+    final QueuedMessage message = message(NotificationPriority.NORMAL, 60);
+
+    assertThat(message.isExpired(System.currentTimeMillis()), is(false));
+    assertThat(message.isExpired(message.getDeadline()), is(true));
+
+  }
+
+  @Test
+  public void replacesPendingMessageWithSameDeviceAndCollapseKey() {
+
+    final QueuedMessage first = message(NotificationPriority.NORMAL, "badge");
+    final QueuedMessage other = message(NotificationPriority.NORMAL, "content");
+    final QueuedMessage latest = message(NotificationPriority.NORMAL, "badge");
+    scheduler.add(first);
+    scheduler.add(other);
+    scheduler.add(latest);
+
+    assertThat(scheduler.size(), is(2));
+    assertThat(scheduler.getCoalesced(), is(1L));
+    assertThat(scheduler.poll().getMessage(), is(latest.getMessage()));
+    assertThat(scheduler.poll(), is(other));
+
+  }
+
+  @Test
+  public void movesCoalescedMessageToTheLaneOfTheLatestOne() {
+
+    scheduler.add(message(NotificationPriority.LOW, "badge"));
+    final QueuedMessage latest = message(NotificationPriority.HIGH, "badge");
+    scheduler.add(latest);
+
+    assertThat(scheduler.size(NotificationPriority.LOW), is(0));
+    assertThat(scheduler.poll(), is(latest));
+    assertThat(scheduler.poll(), is(nullValue()));
+
+  }
+
+  private static QueuedMessage message(final NotificationPriority priority, final String collapseKey) {
+    final BasicDevice device = new BasicDevice();
+    device.setToken("0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef");
+    return new QueuedMessage(new PayloadPerDevice(PushNotificationPayload.badge(1), device, collapseKey), priority);
+  }
+
+  private static QueuedMessage message(final NotificationPriority priority) {
+    return message(priority, 60);
+  }
+
+  private static QueuedMessage message(final NotificationPriority priority, final int expiry) {
+    final BasicDevice device = new BasicDevice();
+    device.setToken("0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef");
+    final PushNotificationPayload payload = PushNotificationPayload.alert("test");
+    payload.setExpiry(expiry);
+    return new QueuedMessage(new PayloadPerDevice(payload, device), priority);
+  }
+
+}
@@ -0,0 +1,93 @@
+package javapns.notification.transmission;
+
+import javapns.notification.AppleNotificationServer;
+import javapns.notification.NotificationOutcomeListener;
+import javapns.notification.NotificationResults;
+import javapns.notification.PushNotificationManager;
+import javapns.notification.PushNotificationPayload;
+import javapns.notification.PushedNotification;
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static javapns.devices.TestTokens.TOKEN;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class NotificationThreadTest {
+
+  @Test
+  public void forwardsOutcomesToTheListenerAlreadySetOnTheManager() {
+
+    final NotificationOutcomeListener existing = mock(NotificationOutcomeListener.class);
+    final PushNotificationManager manager = new PushNotificationManager();
+    manager.setOutcomeListener(existing);
+    new NotificationThread(manager, mock(AppleNotificationServer.class));
+    final PushedNotification notification = new PushedNotification(null, PushNotificationPayload.badge(1), new Exception("rejected"));
+
+    manager.getOutcomeListener().eventNotificationFailed(notification);
+
+    verify(existing).eventNotificationFailed(notification);
+
+  }
+
+  @Test
+  public void reportsFailuresWhoseDeadLetterCannotBeRecorded() throws Exception {
+
+    final PushNotificationManager manager = new PushNotificationManager();
+    final NotificationThread thread = new NotificationThread(manager, mock(AppleNotificationServer.class));
+    final DeadLetterSink sink = mock(DeadLetterSink.class);
+    final NotificationOutcomeListener listener = mock(NotificationOutcomeListener.class);
+    thread.setDeadLetterSink(sink);
+    thread.setOutcomeListener(listener);
+    final PushedNotification notification = new PushedNotification(null, PushNotificationPayload.badge(1), new Exception("rejected"));
+
+    manager.getOutcomeListener().eventNotificationFailed(notification);
+
+    verify(sink, never()).write(any());
+    verify(listener).eventNotificationFailed(notification);
+    assertThat(thread.getNotificationCount(NotificationResults.STATUS.FAILED), is(1L));
+
+  }
+
+  @Test(timeout = 10000)
+  public void retainsEveryResultOfStreamedDevices() throws Exception {
+
+    final PushNotificationManager manager = mock(PushNotificationManager.class);
+    given(manager.sendNotification(any(), any(), eq(false), anyInt())).willAnswer(invocation -> new PushedNotification(invocation.getArgument(0), invocation.getArgument(1), (Exception) null));
+    final Stream<String> tokens = IntStream.range(0, 2500).mapToObj(i -> TOKEN);
+    final NotificationThread thread = new NotificationThread(manager, mock(AppleNotificationServer.class), PushNotificationPayload.badge(1), tokens);
+
+    thread.start();
+    while (thread.size() < 2500 || thread.isBusy()) {
+      Thread.sleep(10);
+    }
+
+    assertThat(thread.getPushedNotifications().size(), is(2500));
+
+  }
+
+  @Test
+  public void reportsOutcomesOnceTheQueueIsIdle() throws Exception {
+
+    final PushNotificationManager manager = mock(PushNotificationManager.class);
+    given(manager.sendNotification(any(), any(), eq(false), anyInt())).willAnswer(invocation -> new PushedNotification(null, PushNotificationPayload.badge(1), (Exception) null));
+    final NotificationThread thread = new NotificationThread(manager, mock(AppleNotificationServer.class));
+    thread.start();
+
+    thread.add(PushNotificationPayload.badge(1), TOKEN);
+
+    verify(manager, timeout(5000)).processPendingResponses();
+
+  }
+
+}
@@ -0,0 +1,106 @@
+package javapns.notification.transmission;
+
+import javapns.notification.FrozenPayload;
+import javapns.notification.PayloadPerDevice;
+import javapns.notification.PushNotificationPayload;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+import java.io.File;
+
+import static javapns.devices.TestTokens.TOKEN;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+public class PushJournalTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void replaysMessagesWithoutFinalOutcome() throws Exception {
+
+    final File directory = folder.newFolder();
+    final PushJournal journal = new PushJournal(directory, 4096, 1);
+    final long confirmed = journal.enqueued(message("confirmed", null), NotificationPriority.HIGH);
+    final long sent = journal.enqueued(message("sent", "badge"), NotificationPriority.LOW);
+    journal.completed(confirmed, true);
+    journal.sent(sent);
+    journal.close();
+
+    final PushJournal reopened = new PushJournal(directory, 4096, 1);
+    final PushQueue queue = mock(PushQueue.class);
+
+    assertThat(reopened.getRecoveredMessages(), is(1));
+    assertThat(reopened.replay(queue), is(1));
+    final ArgumentCaptor<PayloadPerDevice> replayed = ArgumentCaptor.forClass(PayloadPerDevice.class);
+    verify(queue).add(replayed.capture(), eq(NotificationPriority.LOW));
+    verifyNoMoreInteractions(queue);
+    assertThat(replayed.getValue().getPayload().toString(), is(message("sent", null).getPayload().toString()));
+    assertThat(replayed.getValue().getPayload() instanceof FrozenPayload, is(true));
+    assertThat(replayed.getValue().getPayload().getExpiry() <= 3600, is(true));
+    assertThat(replayed.getValue().getDevice().getToken(), is(TOKEN));
+    assertThat(replayed.getValue().getCollapseKey(), is("badge"));
+    assertThat(reopened.getRecoveredMessages(), is(0));
+    reopened.close();
+
+  }
+
+  @Test
+  public void discardsMessagesWhoseDeadlinePassed() throws Exception {
+
+    final File directory = folder.newFolder();
+    final PushJournal journal = new PushJournal(directory, 4096, 1);
+    final PushNotificationPayload payload = PushNotificationPayload.alert("expiring");
+    payload.setExpiry(1);
+    journal.enqueued(new PayloadPerDevice(payload, TOKEN), NotificationPriority.NORMAL);
+    journal.close();
+    Thread.sleep(1100);
+
+    final PushJournal reopened = new PushJournal(directory, 4096, 1);
+    final PushQueue queue = mock(PushQueue.class);
+
+    assertThat(reopened.getRecoveredMessages(), is(1));
+    assertThat(reopened.replay(queue), is(0));
+    verifyNoMoreInteractions(queue);
+    assertThat(reopened.getRecoveredMessages(), is(0));
+    assertThat(reopened.getUnresolvedMessages(), is(0));
+    reopened.close();
+
+  }
+
+  @Test
+  public void deletesSegmentsOnceAllTheirMessagesAreResolved() throws Exception {
+
+    final File directory = folder.newFolder();
+    final PushJournal journal = new PushJournal(directory, 512, 1);
+    journal.setSyncOnEnqueue(false);
+    final long[] ids = new long[50];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = journal.enqueued(message("message " + i, null), NotificationPriority.NORMAL);
+    }
+    assertThat(directory.list().length > 1, is(true));
+
+    for (final long id : ids) {
+      journal.completed(id, false);
+    }
+
+    assertThat(journal.getUnresolvedMessages(), is(0));
+    assertThat(directory.list().length, is(1));
+    journal.close();
+
+  }
+
+  private static PayloadPerDevice message(final String alert, final String collapseKey) throws Exception {
+    final PushNotificationPayload payload = PushNotificationPayload.alert(alert);
+    payload.setExpiry(3600);
+    return new PayloadPerDevice(payload, TOKEN, collapseKey);
+  }
+
+}
@@ -0,0 +1,132 @@
+package javapns.notification.transmission;
+
+import javapns.communication.exceptions.CommunicationException;
+import javapns.devices.Device;
+import javapns.notification.AppleNotificationServer;
+import javapns.notification.NotificationOutcomeListener;
+import javapns.notification.Payload;
+import javapns.notification.PushNotificationManager;
+import javapns.notification.PushNotificationPayload;
+import javapns.notification.PushedNotification;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static javapns.devices.TestTokens.TOKEN;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class PushRouterTest {
+
+  @Test(timeout = 10000)
+  public void reportsNotificationsOfAnAppWhoseConnectionFails() throws Exception {
+
+    final PushNotificationManager manager = mock(PushNotificationManager.class);
+    willThrow(new CommunicationException("Connection refused", null)).given(manager).initializeConnection(any());
+    final PushRouter router = router(1, manager);
+    router.addApp("broken", mock(AppleNotificationServer.class));
+    router.start();
+    for (int i = 0; i < 3; i++) {
+      router.push("broken", TOKEN, PushNotificationPayload.alert("Hello"));
+    }
+
+    router.close();
+
+    verify(manager, times(1)).initializeConnection(any());
+    assertThat(router.getFailedNotifications("broken"), is(3L));
+    assertThat(router.getPendingMessages("broken"), is(0));
+    assertThat(router.getOpenConnections("broken"), is(0));
+    assertThat(router.getCriticalException("broken"), is(notNullValue()));
+
+  }
+
+  @Test(timeout = 10000)
+  public void reportsFailuresOnceWhenTheManagerOwnsTheNotification() throws Exception {
+
+    final List<PushedNotification> failures = new CopyOnWriteArrayList<>();
+    final PushNotificationManager manager = new PushNotificationManager() {
+      @Override
+      public void initializeConnection(final AppleNotificationServer server) {
+      }
+
+      @Override
+      public PushedNotification sendNotification(final Device device, final Payload payload, final boolean closeAfter) throws CommunicationException {
+        throw new CommunicationException("Connection reset", null);
+      }
+
+      @Override
+      public void stopConnection() {
+        /* The manager reports the notification it registered before the failure */
+        getOutcomeListener().eventNotificationFailed(new PushedNotification(null, PushNotificationPayload.alert("Hello"), (Exception) null));
+      }
+    };
+    final PushRouter router = router(1, manager);
+    router.setOutcomeListener(new NotificationOutcomeListener() {
+      @Override
+      public void eventNotificationSuccessful(final PushedNotification notification) {
+      }
+
+      @Override
+      public void eventNotificationFailed(final PushedNotification notification) {
+        failures.add(notification);
+      }
+    });
+    router.addApp("app", mock(AppleNotificationServer.class));
+    router.start();
+
+    router.push("app", TOKEN, PushNotificationPayload.alert("Hello"));
+    router.close();
+
+    assertThat(failures.size(), is(1));
+    assertThat(router.getFailedNotifications("app"), is(1L));
+
+  }
+
+  @Test(timeout = 10000)
+  public void reportsOutcomesOfIdleConnections() throws Exception {
+
+    final PushNotificationManager manager = mock(PushNotificationManager.class);
+    final PushRouter router = router(1, manager);
+    router.addApp("app", mock(AppleNotificationServer.class));
+    router.start();
+
+    router.push("app", TOKEN, PushNotificationPayload.alert("Hello"));
+
+    verify(manager, timeout(5000)).processPendingResponses();
+    assertThat(router.getOpenConnections("app"), is(1));
+    router.close();
+
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownApps() throws Exception {
+
+    new PushRouter(1).push("unknown", TOKEN, PushNotificationPayload.alert("Hello"));
+
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNonPositiveNotificationsPerConnection() {
+
+    new PushRouter(1).setMaxNotificationsPerConnection(0);
+
+  }
+
+  private static PushRouter router(final int numberOfWorkers, final PushNotificationManager manager) {
+    return new PushRouter(numberOfWorkers) {
+      @Override
+      PushNotificationManager newManager() {
+        return manager;
+      }
+    };
+  }
+
+}